@@ -0,0 +1,105 @@
+package ca.uhn.fhir.jpa.starter.benchmark;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.jpa.starter.cdshooks.CdsHooksRequest;
+import ca.uhn.hapi.fhir.cdshooks.api.json.CdsServiceIndicatorEnum;
+import ca.uhn.hapi.fhir.cdshooks.api.json.CdsServiceResponseCardJson;
+import ca.uhn.hapi.fhir.cdshooks.api.json.CdsServiceResponseCardSourceJson;
+import ca.uhn.hapi.fhir.cdshooks.api.json.CdsServiceResponseJson;
+import ca.uhn.hapi.fhir.cdshooks.module.CdsHooksObjectMapperFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParser;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Compares the JSON handling of {@code CdsHooksServlet} in buffered mode (request read into a string,
+ * response rendered by Jackson, re-parsed and pretty-printed by Gson) with streaming mode (Jackson
+ * directly on the streams).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CdsHooksJsonBenchmark {
+
+	@Param({"1", "50"})
+	public int cards;
+
+	private ObjectMapper objectMapper;
+	private ObjectWriter prettyWriter;
+	private byte[] requestBytes;
+	private CdsServiceResponseJson response;
+
+	@Setup
+	public void setUp() throws IOException {
+		objectMapper = new CdsHooksObjectMapperFactory(FhirContext.forR4Cached()).newMapper();
+		prettyWriter = objectMapper.writerWithDefaultPrettyPrinter().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+		requestBytes = ("{\"hookInstance\":\"12345\",\"hook\":\"patient-view\",\"fhirServer\":\"http://localhost/fhir\","
+						+ "\"context\":{\"userId\":\"Practitioner/example\",\"patientId\":\"Patient/example\"},"
+						+ "\"prefetch\":{\"item1\":{\"resourceType\":\"Patient\",\"id\":\"example\",\"gender\":\"male\","
+						+ "\"birthDate\":\"2000-01-01\"}}}")
+				.getBytes(StandardCharsets.UTF_8);
+
+		response = new CdsServiceResponseJson();
+		for (int i = 0; i < cards; i++) {
+			CdsServiceResponseCardJson card = new CdsServiceResponseCardJson();
+			card.setSummary("Card " + i);
+			card.setDetail("Recommendation details for card " + i + " with some explanatory text.");
+			card.setIndicator(CdsServiceIndicatorEnum.INFO);
+			card.setSource(new CdsServiceResponseCardSourceJson().setLabel("benchmark"));
+			response.addCard(card);
+		}
+	}
+
+	@Benchmark
+	public CdsHooksRequest readRequestBuffered() throws IOException {
+		BufferedReader reader =
+				new BufferedReader(new InputStreamReader(new ByteArrayInputStream(requestBytes), StandardCharsets.UTF_8));
+		String requestJson = reader.lines().collect(Collectors.joining());
+		return objectMapper.readValue(requestJson, CdsHooksRequest.class);
+	}
+
+	@Benchmark
+	public CdsHooksRequest readRequestStreaming() throws IOException {
+		return objectMapper.readValue(new ByteArrayInputStream(requestBytes), CdsHooksRequest.class);
+	}
+
+	@Benchmark
+	public String writeResponseBuffered() throws IOException {
+		return new GsonBuilder()
+				.disableHtmlEscaping()
+				.setPrettyPrinting()
+				.create()
+				.toJson(JsonParser.parseString(objectMapper.writeValueAsString(response)));
+	}
+
+	@Benchmark
+	public void writeResponseStreaming() throws IOException {
+		prettyWriter.writeValue(NullOutputStream.INSTANCE, response);
+	}
+}
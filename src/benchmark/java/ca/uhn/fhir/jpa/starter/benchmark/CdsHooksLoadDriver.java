@@ -0,0 +1,217 @@
+package ca.uhn.fhir.jpa.starter.benchmark;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.jpa.searchparam.config.NicknameServiceConfig;
+import ca.uhn.fhir.jpa.starter.Application;
+import ca.uhn.fhir.jpa.starter.cdshooks.StarterCdsHooksConfig;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.client.api.ServerValidationModeEnum;
+import ca.uhn.hapi.fhir.cdshooks.api.ICdsServiceRegistry;
+import ca.uhn.hapi.fhir.cdshooks.api.json.CdsServiceJson;
+import org.hl7.fhir.instance.model.api.IBaseBundle;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Enumerations;
+import org.hl7.fhir.r4.model.Patient;
+import org.opencds.cqf.fhir.cr.hapi.config.CrCdsHooksConfig;
+import org.opencds.cqf.fhir.cr.hapi.config.RepositoryConfig;
+import org.opencds.cqf.fhir.cr.hapi.config.test.TestCdsHooksConfig;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Multi-threaded load driver for the CDS hooks endpoint. Starts an embedded server with an H2
+ * database, loads the HelloWorld PlanDefinition and a set of synthetic patients, then calls every
+ * discovered CDS service from several threads and reports latency percentiles per service.
+ * <p>
+ * Settings are read from system properties: {@code threads} (default 8), {@code requests} per thread
+ * and service (default 200), {@code warmup} requests per thread and service (default 20) and
+ * {@code patients} (default 100).
+ * </p>
+ */
+public class CdsHooksLoadDriver {
+
+	private static final FhirContext ourCtx = FhirContext.forR4Cached();
+
+	public static void main(String[] args) throws Exception {
+		int threads = Integer.getInteger("threads", 8);
+		int requests = Integer.getInteger("requests", 200);
+		int warmup = Integer.getInteger("warmup", 20);
+		int patients = Integer.getInteger("patients", 100);
+
+		try (ConfigurableApplicationContext context = startServer()) {
+			int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+			String fhirBase = "http://localhost:" + port + "/fhir";
+			String cdsBase = "http://localhost:" + port + "/cds-services";
+
+			ourCtx.getRestfulClientFactory().setServerValidationMode(ServerValidationModeEnum.NEVER);
+			IGenericClient client = ourCtx.newRestfulGenericClient(fhirBase);
+			loadBundle(client, "r4/HelloWorld-Bundle.json");
+			List<String> patientIds = createPatients(client, patients);
+
+			ICdsServiceRegistry registry = context.getBean(ICdsServiceRegistry.class);
+			List<String> services = awaitServices(registry);
+			System.out.printf(
+					"Driving %s with %d threads x %d requests, %d patients%n", services, threads, requests, patients);
+
+			HttpClient http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+			Map<String, long[]> results = new LinkedHashMap<>();
+			for (String service : services) {
+				run(http, cdsBase + "/" + service, fhirBase, patientIds, threads, warmup);
+				results.put(service, run(http, cdsBase + "/" + service, fhirBase, patientIds, threads, requests));
+			}
+			report(results);
+		}
+	}
+
+	private static ConfigurableApplicationContext startServer() {
+		return new SpringApplicationBuilder(
+						Application.class,
+						NicknameServiceConfig.class,
+						RepositoryConfig.class,
+						TestCdsHooksConfig.class,
+						CrCdsHooksConfig.class,
+						StarterCdsHooksConfig.class)
+				.properties(
+						"server.port=0",
+						"spring.datasource.url=jdbc:h2:mem:cdsload",
+						"hapi.fhir.fhir_version=r4",
+						"hapi.fhir.cr.enabled=true",
+						"hapi.fhir.cr.caregaps.section_author=Organization/alphora-author",
+						"hapi.fhir.cr.caregaps.reporter=Organization/alphora",
+						"hapi.fhir.cdshooks.enabled=true",
+						"spring.main.allow-bean-definition-overriding=true")
+				.run();
+	}
+
+	private static void loadBundle(IGenericClient client, String location) throws IOException {
+		try (InputStream is = new ClassPathResource(location).getInputStream()) {
+			String json = new String(is.readAllBytes(), StandardCharsets.UTF_8);
+			client.transaction()
+					.withBundle((IBaseBundle) ourCtx.newJsonParser().parseResource(json))
+					.execute();
+		}
+	}
+
+	private static List<String> createPatients(IGenericClient client, int count) {
+		Bundle bundle = new Bundle().setType(Bundle.BundleType.TRANSACTION);
+		List<String> ids = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			String id = "load-" + i;
+			Patient patient = new Patient();
+			patient.setId(id);
+			patient.setGender(i % 2 == 0 ? Enumerations.AdministrativeGender.MALE : Enumerations.AdministrativeGender.FEMALE);
+			patient.addName().setFamily("Load").addGiven("Patient" + i);
+			bundle.addEntry()
+					.setResource(patient)
+					.getRequest()
+					.setMethod(Bundle.HTTPVerb.PUT)
+					.setUrl("Patient/" + id);
+			ids.add("Patient/" + id);
+		}
+		client.transaction().withBundle(bundle).execute();
+		return ids;
+	}
+
+	private static List<String> awaitServices(ICdsServiceRegistry registry) throws InterruptedException {
+		for (int i = 0; i < 60; i++) {
+			var services = registry.getCdsServicesJson().getServices();
+			if (services != null && !services.isEmpty()) {
+				return services.stream().map(CdsServiceJson::getId).toList();
+			}
+			TimeUnit.SECONDS.sleep(1);
+		}
+		throw new IllegalStateException("No CDS services registered");
+	}
+
+	/**
+	 * Sends {@code perThread} patient-view hooks from each thread and returns the latencies in nanoseconds.
+	 */
+	private static long[] run(
+			HttpClient http, String serviceUrl, String fhirBase, List<String> patientIds, int threads, int perThread)
+			throws InterruptedException {
+		ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+		Map<Integer, AtomicInteger> statuses = new ConcurrentHashMap<>();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		for (int t = 0; t < threads; t++) {
+			pool.execute(() -> {
+				for (int i = 0; i < perThread; i++) {
+					String patientId = patientIds.get(ThreadLocalRandom.current().nextInt(patientIds.size()));
+					HttpRequest request = HttpRequest.newBuilder(URI.create(serviceUrl))
+							.header("Content-Type", "application/json")
+							.POST(HttpRequest.BodyPublishers.ofString(hookRequest(fhirBase, patientId)))
+							.build();
+					long start = System.nanoTime();
+					try {
+						HttpResponse<Void> response = http.send(request, HttpResponse.BodyHandlers.discarding());
+						latencies.add(System.nanoTime() - start);
+						statuses.computeIfAbsent(response.statusCode(), s -> new AtomicInteger())
+								.incrementAndGet();
+					} catch (IOException e) {
+						statuses.computeIfAbsent(-1, s -> new AtomicInteger()).incrementAndGet();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+				}
+			});
+		}
+		pool.shutdown();
+		pool.awaitTermination(1, TimeUnit.HOURS);
+		if (statuses.keySet().stream().anyMatch(s -> s != 200)) {
+			System.out.printf("  %s status codes: %s%n", serviceUrl, statuses);
+		}
+		return latencies.stream().mapToLong(Long::longValue).toArray();
+	}
+
+	private static String hookRequest(String fhirBase, String patientId) {
+		return "{\"hookInstance\":\"" + UUID.randomUUID() + "\",\"hook\":\"patient-view\","
+				+ "\"fhirServer\":\"" + fhirBase + "\","
+				+ "\"context\":{\"userId\":\"Practitioner/example\",\"patientId\":\"" + patientId + "\"}}";
+	}
+
+	private static void report(Map<String, long[]> results) {
+		System.out.printf("%-30s %8s %10s %10s %10s%n", "service", "n", "p50 ms", "p95 ms", "p99 ms");
+		results.forEach((service, latencies) -> {
+			Arrays.sort(latencies);
+			System.out.printf(
+					"%-30s %8d %10.2f %10.2f %10.2f%n",
+					service,
+					latencies.length,
+					percentile(latencies, 0.50),
+					percentile(latencies, 0.95),
+					percentile(latencies, 0.99));
+		});
+	}
+
+	private static double percentile(long[] sorted, double p) {
+		if (sorted.length == 0) {
+			return Double.NaN;
+		}
+		int index = (int) Math.ceil(p * sorted.length) - 1;
+		return sorted[Math.max(0, index)] / 1_000_000.0;
+	}
+}
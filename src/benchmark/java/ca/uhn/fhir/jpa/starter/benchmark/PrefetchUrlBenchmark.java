@@ -0,0 +1,59 @@
+package ca.uhn.fhir.jpa.starter.benchmark;
+
+import ca.uhn.fhir.jpa.starter.cdshooks.ModuleConfigurationPrefetchSvc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Measures the URL handling done for every prefetch query: the parsing by
+ * {@link ModuleConfigurationPrefetchSvc#parsePrefetchUrl} before a search is issued.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PrefetchUrlBenchmark {
+
+	/**
+	 * Number of codes in the lab search, the existing lab prefetch carries about 1500.
+	 */
+	@Param({"100", "1500"})
+	public int codes;
+
+	private String labUrl;
+
+	@Setup
+	public void setUp() {
+		List<String> codeList = IntStream.range(0, codes)
+				.mapToObj(i -> (10000 + i) + "-" + (i % 10))
+				.toList();
+		labUrl = labSearch(codeList);
+	}
+
+	@Benchmark
+	public Map<String, List<String>> parseSearchUrl() {
+		return ModuleConfigurationPrefetchSvc.parsePrefetchUrl(labUrl).searchParameters();
+	}
+
+	private static String labSearch(List<String> theCodes) {
+		return "Observation?subject=Patient/123&category=laboratory&date=ge2025-01-01&code="
+				+ theCodes.stream().collect(Collectors.joining(","));
+	}
+}
@@ -0,0 +1,117 @@
+package ca.uhn.fhir.jpa.starter.cdshooks;
+
+import ca.uhn.fhir.jpa.cache.IResourceChangeEvent;
+import ca.uhn.fhir.jpa.cache.IResourceChangeListener;
+import ca.uhn.hapi.fhir.cdshooks.api.json.CdsServiceJson;
+import ca.uhn.hapi.fhir.cdshooks.api.json.CdsServicesJson;
+import org.hl7.fhir.instance.model.api.IIdType;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Holds the rendered CDS services discovery document together with its ETag, so that discovery
+ * requests are answered without rendering it again. The document is dropped whenever a PlanDefinition
+ * changes, as the CDS services are derived from them.
+ * <p>
+ * The CDS service registry is refreshed by a resource change listener of its own, which may run after
+ * this one. The cached document is therefore also checked against the registered service instances,
+ * which is a cheap reference comparison, so a document rendered in between is not served afterwards.
+ * </p>
+ */
+public class CdsDiscoveryCache implements IResourceChangeListener {
+
+	private volatile Rendered myRendered;
+
+	/**
+	 * Bumped on invalidation, so that a document rendered concurrently with a change is not kept.
+	 */
+	private final AtomicLong myVersion = new AtomicLong();
+
+	/**
+	 * Returns the cached document, rendering theServices with theRenderer if there is none or
+	 * the registered services changed.
+	 */
+	public Rendered get(CdsServicesJson theServices, Function<CdsServicesJson, String> theRenderer) {
+		Rendered rendered = myRendered;
+		List<CdsServiceJson> services =
+				theServices.getServices() == null ? List.of() : List.copyOf(theServices.getServices());
+		if (rendered == null || !rendered.isFor(services)) {
+			long version = myVersion.get();
+			rendered = Rendered.of(services, theRenderer.apply(theServices));
+			if (myVersion.get() == version) {
+				myRendered = rendered;
+			}
+		}
+		return rendered;
+	}
+
+	public void invalidate() {
+		myVersion.incrementAndGet();
+		myRendered = null;
+	}
+
+	@Override
+	public void handleInit(Collection<IIdType> theResourceIds) {
+		invalidate();
+	}
+
+	@Override
+	public void handleChange(IResourceChangeEvent theResourceChangeEvent) {
+		invalidate();
+	}
+
+	/**
+	 * A rendered discovery document.
+	 *
+	 * @param services the service instances the document was rendered from
+	 * @param body the UTF-8 encoded document
+	 * @param etag the strong ETag of the document, including quotes
+	 */
+	public record Rendered(List<CdsServiceJson> services, byte[] body, String etag) {
+
+		static Rendered of(List<CdsServiceJson> theServices, String theJson) {
+			byte[] body = theJson.getBytes(StandardCharsets.UTF_8);
+			try {
+				byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+				return new Rendered(theServices, body, "\"" + HexFormat.of().formatHex(digest, 0, 16) + "\"");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		boolean isFor(List<CdsServiceJson> theServices) {
+			if (services.size() != theServices.size()) {
+				return false;
+			}
+			for (int i = 0; i < services.size(); i++) {
+				if (services.get(i) != theServices.get(i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Whether an If-None-Match header value matches this document.
+		 */
+		public boolean matches(String theIfNoneMatch) {
+			if (theIfNoneMatch == null) {
+				return false;
+			}
+			for (String tag : theIfNoneMatch.split(",")) {
+				String trimmed = tag.trim();
+				if (trimmed.equals("*") || trimmed.equals(etag) || trimmed.equals("W/" + etag)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+}
@@ -2,6 +2,12 @@ package ca.uhn.fhir.jpa.starter.cdshooks;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
 @ConfigurationProperties(prefix = "hapi.fhir.cdshooks")
 public class CdsHooksProperties {
 
@@ -24,4 +30,135 @@ public class CdsHooksProperties {
 	public void setClientIdHeaderName(String clientIdHeaderName) {
 		this.clientIdHeaderName = clientIdHeaderName;
 	}
+
+	/**
+	 * Read hook requests from and write responses to the servlet streams with Jackson,
+	 * instead of buffering them as strings and pretty-printing with Gson. Off by default.
+	 */
+	private boolean streaming;
+
+	public boolean isStreaming() {
+		return streaming;
+	}
+
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+
+	private boolean prettyPrint = true;
+
+	public boolean isPrettyPrint() {
+		return prettyPrint;
+	}
+
+	public void setPrettyPrint(boolean prettyPrint) {
+		this.prettyPrint = prettyPrint;
+	}
+
+	/**
+	 * Log full hook request and response bodies at INFO.
+	 */
+	private boolean logBodies;
+
+	public boolean isLogBodies() {
+		return logBodies;
+	}
+
+	public void setLogBodies(boolean logBodies) {
+		this.logBodies = logBodies;
+	}
+
+	/**
+	 * Run hook calls asynchronously on a dedicated executor instead of on the container thread. Off by default.
+	 */
+	private boolean async;
+
+	public boolean isAsync() {
+		return async;
+	}
+
+	public void setAsync(boolean async) {
+		this.async = async;
+	}
+
+	private int asyncThreads = 16;
+
+	public int getAsyncThreads() {
+		return asyncThreads;
+	}
+
+	public void setAsyncThreads(int asyncThreads) {
+		this.asyncThreads = asyncThreads;
+	}
+
+	/**
+	 * Hook calls waiting for an executor thread; further calls are rejected with 503.
+	 */
+	private int asyncQueueCapacity = 64;
+
+	public int getAsyncQueueCapacity() {
+		return asyncQueueCapacity;
+	}
+
+	public void setAsyncQueueCapacity(int asyncQueueCapacity) {
+		this.asyncQueueCapacity = asyncQueueCapacity;
+	}
+
+	/**
+	 * Time after which an asynchronous hook call is answered with an empty card set.
+	 */
+	private Duration hookTimeout = Duration.ofSeconds(30);
+
+	public Duration getHookTimeout() {
+		return hookTimeout;
+	}
+
+	public void setHookTimeout(Duration hookTimeout) {
+		this.hookTimeout = hookTimeout;
+	}
+
+	/**
+	 * Time a hook call may spend on prefetch before continuing with the prefetch completed so far;
+	 * unset or zero for no limit.
+	 */
+	private Duration latencyBudget;
+
+	public Duration getLatencyBudget() {
+		return latencyBudget;
+	}
+
+	public void setLatencyBudget(Duration latencyBudget) {
+		this.latencyBudget = latencyBudget;
+	}
+
+	/**
+	 * Latency budgets per CDS service ID, overriding {@link #getLatencyBudget()}.
+	 */
+	private Map<String, Duration> serviceLatencyBudgets = new HashMap<>();
+
+	public Map<String, Duration> getServiceLatencyBudgets() {
+		return serviceLatencyBudgets;
+	}
+
+	public void setServiceLatencyBudgets(Map<String, Duration> serviceLatencyBudgets) {
+		this.serviceLatencyBudgets = serviceLatencyBudgets;
+	}
+
+	public Duration getLatencyBudget(String serviceId) {
+		return serviceLatencyBudgets.getOrDefault(serviceId, latencyBudget);
+	}
+
+	/**
+	 * CDS service IDs whose prefetch keys item1 to item6 are the queries of the module configuration
+	 * instead of the service's own prefetch templates.
+	 */
+	private Set<String> moduleServices = new HashSet<>();
+
+	public Set<String> getModuleServices() {
+		return moduleServices;
+	}
+
+	public void setModuleServices(Set<String> moduleServices) {
+		this.moduleServices = moduleServices;
+	}
 }
@@ -7,9 +7,14 @@ import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
 import ca.uhn.hapi.fhir.cdshooks.api.ICdsServiceRegistry;
 import ca.uhn.hapi.fhir.cdshooks.api.json.CdsServiceResponseJson;
 import ca.uhn.hapi.fhir.cdshooks.api.json.CdsServicesJson;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonParser;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
@@ -23,6 +28,10 @@ import org.springframework.beans.factory.annotation.Qualifier;
 
 import java.io.IOException;
 import java.io.Serial;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 import static org.opencds.cqf.fhir.cr.hapi.config.test.TestCdsHooksConfig.CDS_HOOKS_OBJECT_MAPPER_FACTORY;
@@ -34,12 +43,24 @@ public class CdsHooksServlet extends HttpServlet {
 	@Serial
 	private static final long serialVersionUID = 1L;
 
+	private static final String EMPTY_CARDS = "{\"cards\":[]}";
+
 	@Autowired
 	private AppProperties appProperties;
 
 	@Autowired
 	private ProviderConfiguration providerConfiguration;
 
+	@Autowired
+	private CdsHooksProperties cdsHooksProperties;
+
+	@Autowired
+	private CdsDiscoveryCache cdsDiscoveryCache;
+
+	@Autowired
+	@Qualifier(StarterCdsHooksConfig.CDS_HOOKS_EXECUTOR)
+	private ExecutorService cdsHooksExecutor;
+
 	@Autowired
 	ICdsServiceRegistry cdsServiceRegistry;
 
@@ -73,12 +94,29 @@ public class CdsHooksServlet extends HttpServlet {
 			throw new ServletException("This servlet is not configured to handle GET requests.");
 		}
 		ErrorHandling.setAccessControlHeaders(response, appProperties);
+		CdsDiscoveryCache.Rendered discovery = cdsDiscoveryCache.get(getServices(), this::renderServices);
+		response.setHeader("ETag", discovery.etag());
+		response.setHeader("Cache-Control", "no-cache");
+		if (discovery.matches(request.getHeader("If-None-Match"))) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
 		response.setHeader("Content-Type", ContentType.APPLICATION_JSON.getMimeType());
-		response.getWriter()
-				.println(new GsonBuilder()
-						.setPrettyPrinting()
-						.create()
-						.toJson(JsonParser.parseString(objectMapper.writeValueAsString(getServices()))));
+		response.setCharacterEncoding("UTF-8");
+		response.setContentLength(discovery.body().length);
+		response.getOutputStream().write(discovery.body());
+	}
+
+	private String renderServices(CdsServicesJson theServices) {
+		try {
+			return new GsonBuilder()
+							.setPrettyPrinting()
+							.create()
+							.toJson(JsonParser.parseString(objectMapper.writeValueAsString(theServices)))
+					+ System.lineSeparator();
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to render the CDS services discovery document", e);
+		}
 	}
 
 	@Override
@@ -92,21 +130,15 @@ public class CdsHooksServlet extends HttpServlet {
 			logger.info(request.getRequestURI());
 			String service = request.getPathInfo().replace("/", "");
 
-			String requestJson = request.getReader().lines().collect(Collectors.joining());
-			CdsHooksRequest cdsHooksRequest = objectMapper.readValue(requestJson, CdsHooksRequest.class);
-			logRequestInfo(cdsHooksRequest, requestJson);
+			CdsHooksRequest cdsHooksRequest = readRequest(request);
 
-			CdsServiceResponseJson serviceResponseJson = cdsServiceRegistry.callService(service, cdsHooksRequest);
+			if (cdsHooksProperties.isAsync() && request.isAsyncSupported()) {
+				callServiceAsync(service, cdsHooksRequest, request);
+				return;
+			}
 
-			// Using GSON pretty print format as Jackson's is ugly
-			String jsonResponse = new GsonBuilder()
-					.disableHtmlEscaping()
-					.setPrettyPrinting()
-					.create()
-					.toJson(JsonParser.parseString(objectMapper.writeValueAsString(serviceResponseJson)));
-			logger.info(jsonResponse);
-			response.setContentType("text/json;charset=UTF-8");
-			response.getWriter().println(jsonResponse);
+			CdsServiceResponseJson serviceResponseJson = cdsServiceRegistry.callService(service, cdsHooksRequest);
+			writeResponse(response, serviceResponseJson);
 		} catch (BaseServerResponseException e) {
 			ErrorHandling.handleError(response, "ERROR: Exception connecting to remote server.", e, appProperties);
 			logger.error(e.toString());
@@ -116,8 +148,172 @@ public class CdsHooksServlet extends HttpServlet {
 		}
 	}
 
+	/**
+	 * Runs the hook on the CDS hooks executor, releasing the container thread while it runs. If the hook
+	 * does not finish within the configured timeout, an empty card set is returned instead.
+	 * The request body has already been read on the container thread, so the worker only touches the
+	 * response, and only if the timeout has not answered the request yet.
+	 */
+	private void callServiceAsync(String service, CdsHooksRequest cdsHooksRequest, HttpServletRequest request)
+			throws IOException {
+		AsyncContext asyncContext = request.startAsync();
+		asyncContext.setTimeout(cdsHooksProperties.getHookTimeout().toMillis());
+		HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+		AsyncAnswer answer = new AsyncAnswer(asyncContext);
+		AtomicReference<Future<?>> task = new AtomicReference<>();
+
+		asyncContext.addListener(new AsyncListener() {
+			@Override
+			public void onTimeout(AsyncEvent event) throws IOException {
+				// returns only once the request is completed, also if the worker is still writing its answer
+				answer.answer(() -> {
+					logger.warn(
+							"cds-hooks service {} did not finish within {}, returning no cards",
+							service,
+							cdsHooksProperties.getHookTimeout());
+					Future<?> running = task.get();
+					if (running != null) {
+						running.cancel(true);
+					}
+					response.setContentType("text/json;charset=UTF-8");
+					response.getWriter().println(EMPTY_CARDS);
+				});
+			}
+
+			@Override
+			public void onComplete(AsyncEvent event) {}
+
+			@Override
+			public void onError(AsyncEvent event) throws IOException {
+				answer.answer(() -> {});
+			}
+
+			@Override
+			public void onStartAsync(AsyncEvent event) {}
+		});
+
+		try {
+			task.set(cdsHooksExecutor.submit(() -> {
+				try {
+					CdsServiceResponseJson serviceResponseJson;
+					try {
+						serviceResponseJson = cdsServiceRegistry.callService(service, cdsHooksRequest);
+					} catch (Exception e) {
+						answer.answer(() -> handleAsyncError(response, e));
+						return;
+					}
+					answer.answer(() -> writeResponse(response, serviceResponseJson));
+				} catch (IOException e) {
+					logger.error("Unable to write cds-hooks response", e);
+				}
+			}));
+		} catch (RejectedExecutionException e) {
+			answer.answer(() -> {
+				logger.warn("cds-hooks executor saturated, rejecting call to service {}", service);
+				response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "CDS hooks service is overloaded.");
+			});
+		}
+	}
+
+	/**
+	 * The single answer of an asynchronous hook call. Whichever of the worker, the timeout, an error or the
+	 * rejection comes first writes the response and completes the request; the others do nothing. The answer
+	 * is written under a lock, so a timeout firing while the worker writes waits until the request is
+	 * completed instead of returning to the container with the request still open.
+	 */
+	private static final class AsyncAnswer {
+		private final AsyncContext myAsyncContext;
+		private boolean myAnswered;
+
+		AsyncAnswer(AsyncContext theAsyncContext) {
+			myAsyncContext = theAsyncContext;
+		}
+
+		synchronized void answer(ResponseWriter theWriter) throws IOException {
+			if (myAnswered) {
+				return;
+			}
+			myAnswered = true;
+			try {
+				theWriter.write();
+			} finally {
+				myAsyncContext.complete();
+			}
+		}
+	}
+
+	@FunctionalInterface
+	private interface ResponseWriter {
+		void write() throws IOException;
+	}
+
+	private void handleAsyncError(HttpServletResponse response, Exception e) {
+		try {
+			logger.error(e.toString());
+			if (e instanceof BaseServerResponseException) {
+				ErrorHandling.handleError(response, "ERROR: Exception connecting to remote server.", e, appProperties);
+			} else {
+				response.sendError(
+						HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "ERROR: Exception in cds-hooks processing.");
+			}
+		} catch (IOException ioe) {
+			logger.error("Unable to write cds-hooks error response", ioe);
+		}
+	}
+
+	/**
+	 * Reads the hook request. In streaming mode it is parsed straight from the request stream,
+	 * without an intermediate string copy of the body.
+	 */
+	private CdsHooksRequest readRequest(HttpServletRequest request) throws IOException {
+		if (cdsHooksProperties.isStreaming()) {
+			CdsHooksRequest cdsHooksRequest =
+					objectMapper.readValue(request.getInputStream(), CdsHooksRequest.class);
+			logRequestInfo(
+					cdsHooksRequest,
+					cdsHooksProperties.isLogBodies() ? objectMapper.writeValueAsString(cdsHooksRequest) : null);
+			return cdsHooksRequest;
+		}
+		String requestJson = request.getReader().lines().collect(Collectors.joining());
+		CdsHooksRequest cdsHooksRequest = objectMapper.readValue(requestJson, CdsHooksRequest.class);
+		logRequestInfo(cdsHooksRequest, requestJson);
+		return cdsHooksRequest;
+	}
+
+	/**
+	 * Writes the hook response. In streaming mode it is written straight to the response stream.
+	 */
+	private void writeResponse(HttpServletResponse response, CdsServiceResponseJson serviceResponseJson)
+			throws IOException {
+		response.setContentType("text/json;charset=UTF-8");
+		if (cdsHooksProperties.isStreaming()) {
+			ObjectWriter writer = cdsHooksProperties.isPrettyPrint()
+					? objectMapper.writerWithDefaultPrettyPrinter()
+					: objectMapper.writer();
+			if (cdsHooksProperties.isLogBodies()) {
+				logger.info(writer.writeValueAsString(serviceResponseJson));
+			}
+			writer.without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+					.writeValue(response.getOutputStream(), serviceResponseJson);
+			return;
+		}
+
+		// Using GSON pretty print format as Jackson's is ugly
+		String jsonResponse = new GsonBuilder()
+				.disableHtmlEscaping()
+				.setPrettyPrinting()
+				.create()
+				.toJson(JsonParser.parseString(objectMapper.writeValueAsString(serviceResponseJson)));
+		if (cdsHooksProperties.isLogBodies()) {
+			logger.info(jsonResponse);
+		}
+		response.getWriter().println(jsonResponse);
+	}
+
 	private void logRequestInfo(CdsServiceRequestJson request, String jsonRequest) {
-		logger.info(jsonRequest);
+		if (jsonRequest != null && cdsHooksProperties.isLogBodies()) {
+			logger.info(jsonRequest);
+		}
 		logger.info("cds-hooks hook instance: {}", request.getHookInstance());
 		logger.info("cds-hooks local server address: {}", appProperties.getServer_address());
 		logger.info("cds-hooks fhir server address: {}", request.getFhirServer());
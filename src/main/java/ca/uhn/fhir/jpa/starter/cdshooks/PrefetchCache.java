@@ -0,0 +1,260 @@
+package ca.uhn.fhir.jpa.starter.cdshooks;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.RuntimeSearchParam;
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.util.UrlUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.apache.commons.lang3.StringUtils;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Short-lived cache of prefetch results, so that the hooks fired in quick succession for the same
+ * patient (patient-view, order-select, order-sign) do not repeat the same searches.
+ * <p>
+ * Entries expire after a short TTL. Entries of the local server are additionally dropped as soon as a
+ * resource of a type their template returns, including {@code _include}d and {@code _revinclude}d types,
+ * is created, updated or deleted on this server. Entries are dropped when the change is about to be
+ * committed and again once it is committed, as searches run in between still see the old data.
+ * </p>
+ */
+@Interceptor
+public class PrefetchCache {
+
+	public static final Duration DEFAULT_TTL = Duration.ofSeconds(30);
+	public static final long DEFAULT_MAX_ENTRIES = 10_000;
+
+	private static final Set<String> ANY_TYPE = Set.of("*");
+
+	private final FhirContext myFhirContext;
+	private final Cache<Key, IBaseResource> myCache;
+
+	/**
+	 * Per resource type, bumped on every local invalidation; results fetched across an invalidation are not cached.
+	 */
+	private final Map<String, AtomicLong> myLocalGenerations = new ConcurrentHashMap<>();
+
+	/**
+	 * Bumped on every local invalidation, for templates whose resource types are not known.
+	 */
+	private final AtomicLong myAnyGeneration = new AtomicLong();
+
+	/**
+	 * Resource types returned per template, {@link #ANY_TYPE} if not known.
+	 */
+	private final Map<String, Set<String>> myTemplateTypes = new ConcurrentHashMap<>();
+
+	/**
+	 * Resource types changed by the current transaction, to be invalidated again after commit.
+	 */
+	private final Object myCommittedTypesKey = new Object();
+
+	public PrefetchCache(FhirContext theFhirContext) {
+		this(theFhirContext, DEFAULT_TTL, DEFAULT_MAX_ENTRIES);
+	}
+
+	public PrefetchCache(FhirContext theFhirContext, Duration theTtl, long theMaxEntries) {
+		myFhirContext = theFhirContext;
+		myCache = Caffeine.newBuilder()
+				.expireAfterWrite(theTtl)
+				.maximumSize(theMaxEntries)
+				.build();
+	}
+
+	/**
+	 * @return a copy of the cached result, which the caller may modify, or null
+	 */
+	public IBaseResource get(Key theKey) {
+		IBaseResource resource = myCache.getIfPresent(theKey);
+		return resource != null ? myFhirContext.newTerser().clone(resource) : null;
+	}
+
+	/**
+	 * @return the current local generation of the resource types the key's template returns, to be passed to
+	 * {@link #put(Key, IBaseResource, long)} once the result is fetched
+	 */
+	public long generation(Key theKey) {
+		if (!theKey.local()) {
+			return 0;
+		}
+		Set<String> resourceTypes = resourceTypes(theKey);
+		if (resourceTypes == ANY_TYPE) {
+			return myAnyGeneration.get();
+		}
+		long generation = 0;
+		for (String resourceType : resourceTypes) {
+			generation += generationOf(resourceType).get();
+		}
+		return generation;
+	}
+
+	/**
+	 * Caches a result, unless it is a local result and local data changed since theGeneration was taken.
+	 */
+	public void put(Key theKey, IBaseResource theResource, long theGeneration) {
+		if (theResource == null) {
+			return;
+		}
+		if (theKey.local() && theGeneration != generation(theKey)) {
+			return;
+		}
+		// the caller keeps using its instance, the cache must not see its changes
+		myCache.put(theKey, myFhirContext.newTerser().clone(theResource));
+	}
+
+	/**
+	 * Drops all local entries whose template returns the given resource type.
+	 */
+	public void invalidateLocal(String theResourceType) {
+		generationOf(theResourceType).incrementAndGet();
+		myAnyGeneration.incrementAndGet();
+		myCache.asMap().keySet().removeIf(k -> k.local() && returns(k, theResourceType));
+	}
+
+	public long size() {
+		return myCache.estimatedSize();
+	}
+
+	@Hook(Pointcut.STORAGE_PRECOMMIT_RESOURCE_CREATED)
+	public void resourceCreated(IBaseResource theResource) {
+		invalidateLocal(theResource);
+	}
+
+	@Hook(Pointcut.STORAGE_PRECOMMIT_RESOURCE_UPDATED)
+	public void resourceUpdated(IBaseResource theOldResource, IBaseResource theNewResource) {
+		invalidateLocal(theNewResource);
+	}
+
+	@Hook(Pointcut.STORAGE_PRECOMMIT_RESOURCE_DELETED)
+	public void resourceDeleted(IBaseResource theResource) {
+		invalidateLocal(theResource);
+	}
+
+	private void invalidateLocal(IBaseResource theResource) {
+		String resourceType = theResource.fhirType();
+		invalidateLocal(resourceType);
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			committedTypes().add(resourceType);
+		}
+	}
+
+	/**
+	 * @return the resource types to invalidate once the current transaction is committed
+	 */
+	@SuppressWarnings("unchecked")
+	private Set<String> committedTypes() {
+		Set<String> types = (Set<String>) TransactionSynchronizationManager.getResource(myCommittedTypesKey);
+		if (types == null) {
+			Set<String> newTypes = new HashSet<>();
+			TransactionSynchronizationManager.bindResource(myCommittedTypesKey, newTypes);
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCompletion(int theStatus) {
+					TransactionSynchronizationManager.unbindResourceIfPossible(myCommittedTypesKey);
+					if (theStatus == STATUS_COMMITTED) {
+						newTypes.forEach(PrefetchCache.this::invalidateLocal);
+					}
+				}
+			});
+			types = newTypes;
+		}
+		return types;
+	}
+
+	private boolean returns(Key theKey, String theResourceType) {
+		Set<String> resourceTypes = resourceTypes(theKey);
+		return resourceTypes == ANY_TYPE || resourceTypes.contains(theResourceType);
+	}
+
+	private Set<String> resourceTypes(Key theKey) {
+		return myTemplateTypes.computeIfAbsent(theKey.template(), t -> templateTypes(theKey));
+	}
+
+	/**
+	 * @return the type a template searches or reads and the types it includes, or {@link #ANY_TYPE} if the
+	 * result depends on resource types that can not be determined, e.g. with chained parameters
+	 */
+	private Set<String> templateTypes(Key theKey) {
+		Set<String> types = new HashSet<>();
+		types.add(theKey.resourceType());
+		int query = theKey.template().indexOf('?');
+		if (query < 0) {
+			return types;
+		}
+		Map<String, String[]> params = UrlUtil.parseQueryString(theKey.template().substring(query + 1));
+		for (Map.Entry<String, String[]> param : params.entrySet()) {
+			String name = param.getKey();
+			if (name.startsWith("_include")) {
+				for (String include : param.getValue()) {
+					Set<String> targets = includeTargets(include);
+					if (targets == null) {
+						return ANY_TYPE;
+					}
+					types.addAll(targets);
+				}
+			} else if (name.startsWith("_revinclude")) {
+				for (String revinclude : param.getValue()) {
+					types.add(StringUtils.substringBefore(revinclude, ":"));
+				}
+			} else if (name.startsWith("_has") || name.contains(".")) {
+				return ANY_TYPE;
+			}
+		}
+		return types;
+	}
+
+	/**
+	 * @param theInclude an include of the form {@code Type:param[:TargetType]}
+	 * @return the types the include may return, or null if not known
+	 */
+	private Set<String> includeTargets(String theInclude) {
+		String[] parts = theInclude.split(":");
+		if (parts.length >= 3) {
+			return Set.of(parts[2]);
+		}
+		if (parts.length < 2 || !myFhirContext.getResourceTypes().contains(parts[0])) {
+			return null;
+		}
+		RuntimeSearchParam param = myFhirContext.getResourceDefinition(parts[0]).getSearchParam(parts[1]);
+		return param == null || param.getTargets().isEmpty() ? null : param.getTargets();
+	}
+
+	private AtomicLong generationOf(String theResourceType) {
+		return myLocalGenerations.computeIfAbsent(theResourceType, t -> new AtomicLong());
+	}
+
+	/**
+	 * Cache key of one prefetch query.
+	 *
+	 * @param fhirServer normalized base of the FHIR server, or null for the local server
+	 * @param accessToken the bearer token of the hook request, so results are not shared across callers
+	 * @param url the expanded prefetch query, including the patient and dates
+	 * @param template the unexpanded prefetch template, which determines the resource types of the result
+	 */
+	public record Key(String fhirServer, String accessToken, String url, String template) {
+
+		public boolean local() {
+			return fhirServer == null;
+		}
+
+		public String resourceType() {
+			int end = template.indexOf('?');
+			if (end < 0) {
+				end = template.indexOf('/');
+			}
+			return end < 0 ? template : template.substring(0, end);
+		}
+	}
+}
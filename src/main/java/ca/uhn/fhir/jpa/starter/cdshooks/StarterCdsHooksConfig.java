@@ -1,11 +1,22 @@
 package ca.uhn.fhir.jpa.starter.cdshooks;
 
 import ca.uhn.fhir.context.FhirVersionEnum;
+import ca.uhn.fhir.interceptor.api.IInterceptorBroadcaster;
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.jpa.cache.IResourceChangeListenerRegistry;
+import ca.uhn.fhir.jpa.searchparam.MatchUrlService;
+import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.jpa.starter.AppProperties;
 import ca.uhn.fhir.jpa.starter.cr.CrCommonConfig;
 import ca.uhn.fhir.jpa.starter.cr.CrConfigCondition;
 import ca.uhn.fhir.jpa.starter.cr.CrProperties;
 import ca.uhn.hapi.fhir.cdshooks.api.ICdsHooksDaoAuthorizationSvc;
 import ca.uhn.hapi.fhir.cdshooks.svc.CdsHooksContextBooter;
+import ca.uhn.hapi.fhir.cdshooks.svc.prefetch.CdsPrefetchDaoSvc;
+import ca.uhn.hapi.fhir.cdshooks.svc.prefetch.CdsPrefetchFhirClientSvc;
+import ca.uhn.hapi.fhir.cdshooks.svc.prefetch.CdsPrefetchSvc;
+import ca.uhn.hapi.fhir.cdshooks.svc.prefetch.CdsResolutionStrategySvc;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.opencds.cqf.fhir.cr.hapi.cdshooks.CdsCrServiceRegistry;
 import org.opencds.cqf.fhir.cr.hapi.cdshooks.CdsCrSettings;
@@ -15,18 +26,30 @@ import org.opencds.cqf.fhir.cr.hapi.cdshooks.discovery.ICdsCrDiscoveryServiceReg
 import org.opencds.cqf.fhir.cr.hapi.config.CrCdsHooksConfig;
 import org.opencds.cqf.fhir.cr.hapi.config.RepositoryConfig;
 import org.opencds.cqf.fhir.cr.hapi.config.test.TestCdsHooksConfig;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
 import org.springframework.boot.web.servlet.ServletRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Conditional;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
+import org.springframework.context.annotation.Primary;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Configuration
 @Conditional({CdsHooksConfigCondition.class, CrConfigCondition.class})
 @Import({RepositoryConfig.class, TestCdsHooksConfig.class, CrCdsHooksConfig.class, CrCommonConfig.class})
 public class StarterCdsHooksConfig {
 
+	public static final String CDS_HOOKS_EXECUTOR = "cdsHooksExecutor";
+	public static final String CDS_PREFETCH_EXECUTOR = "cdsPrefetchExecutor";
+
 	@Bean
 	public ICdsCrDiscoveryServiceRegistry cdsCrDiscoveryServiceRegistry() {
 		CdsCrDiscoveryServiceRegistry registry = new CdsCrDiscoveryServiceRegistry();
@@ -76,6 +99,70 @@ public class StarterCdsHooksConfig {
 		return new CdsHooksDaoAuthorizationSvc();
 	}
 
+	@Bean
+	public CdsDiscoveryCache cdsDiscoveryCache(IResourceChangeListenerRegistry theResourceChangeListenerRegistry) {
+		CdsDiscoveryCache cache = new CdsDiscoveryCache();
+		theResourceChangeListenerRegistry.registerResourceResourceChangeListener(
+				"PlanDefinition", SearchParameterMap.newSynchronous(), cache, 1000);
+		return cache;
+	}
+
+	@Bean(name = CDS_HOOKS_EXECUTOR, destroyMethod = "shutdownNow")
+	public ExecutorService cdsHooksExecutor(CdsHooksProperties cdsHooksProperties) {
+		AtomicInteger threadCount = new AtomicInteger();
+		return new ThreadPoolExecutor(
+				cdsHooksProperties.getAsyncThreads(),
+				cdsHooksProperties.getAsyncThreads(),
+				60L,
+				TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(cdsHooksProperties.getAsyncQueueCapacity()),
+				r -> {
+					Thread t = new Thread(r, "cds-hooks-" + threadCount.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				},
+				new ThreadPoolExecutor.AbortPolicy());
+	}
+
+	@Bean(name = CDS_PREFETCH_EXECUTOR, destroyMethod = "shutdownNow")
+	public ExecutorService cdsPrefetchExecutor() {
+		return ModuleConfigurationPrefetchSvc.newPrefetchExecutor(
+				ModuleConfigurationPrefetchSvc.DEFAULT_PREFETCH_THREADS);
+	}
+
+	/**
+	 * Replaces the {@link CdsPrefetchSvc} of the CDS hooks module. For the configured module services, prefetch
+	 * against this server is read from the DAOs, and prefetch queries run concurrently within the configured
+	 * latency budget; all other services are prefetched by the CDS hooks module.
+	 */
+	@Bean
+	@Primary
+	public CdsPrefetchSvc moduleConfigurationPrefetchSvc(
+			CdsResolutionStrategySvc theCdsResolutionStrategySvc,
+			CdsPrefetchDaoSvc theResourcePrefetchDao,
+			CdsPrefetchFhirClientSvc theResourcePrefetchFhirClient,
+			ICdsHooksDaoAuthorizationSvc theCdsHooksDaoAuthorizationSvc,
+			IInterceptorBroadcaster theInterceptorBroadcaster,
+			@Qualifier(CDS_PREFETCH_EXECUTOR) ExecutorService thePrefetchExecutor,
+			DaoRegistry theDaoRegistry,
+			MatchUrlService theMatchUrlService,
+			AppProperties theAppProperties,
+			CdsHooksProperties theCdsHooksProperties,
+			ObjectProvider<MeterRegistry> theMeterRegistry) {
+		return new ModuleConfigurationPrefetchSvc(
+				theCdsResolutionStrategySvc,
+				theResourcePrefetchDao,
+				theResourcePrefetchFhirClient,
+				theCdsHooksDaoAuthorizationSvc,
+				theInterceptorBroadcaster,
+				thePrefetchExecutor,
+				theDaoRegistry,
+				theMatchUrlService,
+				theAppProperties.getServer_address(),
+				theCdsHooksProperties,
+				theMeterRegistry.getIfAvailable());
+	}
+
 	@Bean
 	public ServletRegistrationBean<CdsHooksServlet> cdsHooksRegistrationBean(AutowireCapableBeanFactory beanFactory) {
 		CdsHooksServlet cdsHooksServlet = new CdsHooksServlet();
@@ -86,6 +173,7 @@ public class StarterCdsHooksConfig {
 		registrationBean.setServlet(cdsHooksServlet);
 		registrationBean.addUrlMappings("/cds-services/*");
 		registrationBean.setLoadOnStartup(1);
+		registrationBean.setAsyncSupported(true);
 		return registrationBean;
 	}
 }
@@ -0,0 +1,96 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import com.github.benmanes.caffeine.cache.Cache;
+
+import java.util.AbstractMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * A concurrent map view of a Caffeine cache whose lookups are counted in the cache statistics. The view
+ * returned by {@link Cache#asMap()} does not record hits and misses, while the CQL engine only uses the
+ * map interface. Values may be converted to a more compact form when they are stored.
+ */
+class CacheMapView<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V> {
+
+	private final Cache<K, V> myCache;
+	private final ConcurrentMap<K, V> myMap;
+	private final UnaryOperator<V> myValueMapper;
+
+	CacheMapView(Cache<K, V> theCache, UnaryOperator<V> theValueMapper) {
+		myCache = theCache;
+		myMap = theCache.asMap();
+		myValueMapper = theValueMapper;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public V get(Object theKey) {
+		return myCache.getIfPresent((K) theKey);
+	}
+
+	@Override
+	public V computeIfAbsent(K theKey, Function<? super K, ? extends V> theMappingFunction) {
+		return myCache.get(theKey, key -> {
+			V value = theMappingFunction.apply(key);
+			return value == null ? null : myValueMapper.apply(value);
+		});
+	}
+
+	@Override
+	public boolean containsKey(Object theKey) {
+		return myMap.containsKey(theKey);
+	}
+
+	@Override
+	public V put(K theKey, V theValue) {
+		return myMap.put(theKey, myValueMapper.apply(theValue));
+	}
+
+	@Override
+	public V remove(Object theKey) {
+		return myMap.remove(theKey);
+	}
+
+	@Override
+	public void clear() {
+		myMap.clear();
+	}
+
+	@Override
+	public int size() {
+		return myMap.size();
+	}
+
+	@Override
+	public Set<Entry<K, V>> entrySet() {
+		return myMap.entrySet();
+	}
+
+	@Override
+	public Set<K> keySet() {
+		return myMap.keySet();
+	}
+
+	@Override
+	public V putIfAbsent(K theKey, V theValue) {
+		return myMap.putIfAbsent(theKey, myValueMapper.apply(theValue));
+	}
+
+	@Override
+	public boolean remove(Object theKey, Object theValue) {
+		return myMap.remove(theKey, theValue);
+	}
+
+	@Override
+	public boolean replace(K theKey, V theOldValue, V theNewValue) {
+		return myMap.replace(theKey, theOldValue, myValueMapper.apply(theNewValue));
+	}
+
+	@Override
+	public V replace(K theKey, V theValue) {
+		return myMap.replace(theKey, myValueMapper.apply(theValue));
+	}
+}
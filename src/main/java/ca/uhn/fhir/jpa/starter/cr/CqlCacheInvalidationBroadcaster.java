@@ -0,0 +1,128 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import ca.uhn.fhir.broker.api.ChannelConsumerSettings;
+import ca.uhn.fhir.broker.api.ChannelProducerSettings;
+import ca.uhn.fhir.broker.api.IBrokerClient;
+import ca.uhn.fhir.broker.api.IChannelConsumer;
+import ca.uhn.fhir.broker.api.IChannelProducer;
+import ca.uhn.fhir.broker.api.IMessageListener;
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.jpa.cache.IResourceChangeListener;
+import ca.uhn.fhir.jpa.cache.ResourceChangeEvent;
+import ca.uhn.fhir.rest.server.messaging.IMessage;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IIdType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pushes CQL cache invalidations to all nodes instead of waiting for them to poll for changes. Writes of
+ * Library and ValueSet resources are announced on the {@value #CHANNEL_NAME} channel once their transaction
+ * committed, and every node receiving the announcement passes it to the resource change listener that
+ * maintains the affected cache, just like a polled change would be.
+ * <p>
+ * The channel is created by the configured broker client. With the default in-memory broker the
+ * announcements only reach the local node, a message broker shared by the nodes is needed to reach the
+ * others.
+ * </p>
+ */
+@Interceptor
+public class CqlCacheInvalidationBroadcaster implements IMessageListener<CqlCacheInvalidationMessage> {
+	private static final Logger ourLog = LoggerFactory.getLogger(CqlCacheInvalidationBroadcaster.class);
+
+	public static final String CHANNEL_NAME = "cql-cache-invalidation";
+
+	private final FhirContext myFhirContext;
+	private final Map<String, IResourceChangeListener> myListeners;
+	private final IChannelProducer<CqlCacheInvalidationMessage> myProducer;
+	private final IChannelConsumer<CqlCacheInvalidationMessage> myConsumer;
+
+	/**
+	 * @param theListeners the listener to notify for each watched resource type
+	 */
+	public CqlCacheInvalidationBroadcaster(
+			FhirContext theFhirContext, IBrokerClient theBrokerClient, Map<String, IResourceChangeListener> theListeners) {
+		myFhirContext = theFhirContext;
+		myListeners = theListeners;
+		myProducer = theBrokerClient.getOrCreateProducer(
+				CHANNEL_NAME, CqlCacheInvalidationJsonMessage.class, new ChannelProducerSettings());
+		myConsumer = theBrokerClient.getOrCreateConsumer(
+				CHANNEL_NAME, CqlCacheInvalidationJsonMessage.class, this, new ChannelConsumerSettings());
+	}
+
+	@Hook(Pointcut.STORAGE_PRECOMMIT_RESOURCE_CREATED)
+	public void resourceCreated(IBaseResource theResource) {
+		announce(theResource);
+	}
+
+	@Hook(Pointcut.STORAGE_PRECOMMIT_RESOURCE_UPDATED)
+	public void resourceUpdated(IBaseResource theOldResource, IBaseResource theNewResource) {
+		announce(theNewResource);
+	}
+
+	@Hook(Pointcut.STORAGE_PRECOMMIT_RESOURCE_DELETED)
+	public void resourceDeleted(IBaseResource theResource) {
+		announce(theResource);
+	}
+
+	private void announce(IBaseResource theResource) {
+		String resourceType = myFhirContext.getResourceType(theResource);
+		if (!myListeners.containsKey(resourceType)) {
+			return;
+		}
+		CqlCacheInvalidationMessage message =
+				new CqlCacheInvalidationMessage(resourceType, theResource.getIdElement().getIdPart());
+
+		// Announce once committed, so receivers reading the resource see the new version
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCommit() {
+					send(message);
+				}
+			});
+		} else {
+			send(message);
+		}
+	}
+
+	private void send(CqlCacheInvalidationMessage theMessage) {
+		try {
+			myProducer.send(new CqlCacheInvalidationJsonMessage(theMessage));
+		} catch (RuntimeException e) {
+			// Polling still picks the change up
+			ourLog.warn("Failed to announce CQL cache invalidation for {}", theMessage, e);
+		}
+	}
+
+	@Override
+	public void handleMessage(IMessage<CqlCacheInvalidationMessage> theMessage) {
+		CqlCacheInvalidationMessage payload = theMessage.getPayload();
+		IResourceChangeListener listener = myListeners.get(payload.getResourceType());
+		if (listener == null) {
+			return;
+		}
+		ourLog.debug("Invalidating CQL caches for {}", payload);
+		IIdType id = myFhirContext.getVersion().newIdType().setValue(payload.toString());
+		listener.handleChange(ResourceChangeEvent.fromCreatedUpdatedDeletedResourceIds(List.of(), List.of(id), List.of()));
+	}
+
+	@Override
+	public Class<CqlCacheInvalidationMessage> getPayloadType() {
+		return CqlCacheInvalidationMessage.class;
+	}
+
+	public void shutdown() {
+		if (!myConsumer.isClosed()) {
+			myConsumer.close();
+		}
+	}
+}
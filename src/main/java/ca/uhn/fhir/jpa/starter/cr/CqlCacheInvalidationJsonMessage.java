@@ -0,0 +1,25 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import ca.uhn.fhir.rest.server.messaging.json.BaseJsonMessage;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class CqlCacheInvalidationJsonMessage extends BaseJsonMessage<CqlCacheInvalidationMessage> {
+
+	@JsonProperty("payload")
+	private CqlCacheInvalidationMessage myPayload;
+
+	public CqlCacheInvalidationJsonMessage() {}
+
+	public CqlCacheInvalidationJsonMessage(CqlCacheInvalidationMessage thePayload) {
+		myPayload = thePayload;
+	}
+
+	@Override
+	public CqlCacheInvalidationMessage getPayload() {
+		return myPayload;
+	}
+
+	public void setPayload(CqlCacheInvalidationMessage thePayload) {
+		myPayload = thePayload;
+	}
+}
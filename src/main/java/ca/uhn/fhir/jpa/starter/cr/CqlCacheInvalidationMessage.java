@@ -0,0 +1,36 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import ca.uhn.fhir.model.api.IModelJson;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Announces that a Library or ValueSet was written, so that every node drops what it derived from it.
+ */
+public class CqlCacheInvalidationMessage implements IModelJson {
+
+	@JsonProperty("resourceType")
+	private String myResourceType;
+
+	@JsonProperty("resourceId")
+	private String myResourceId;
+
+	public CqlCacheInvalidationMessage() {}
+
+	public CqlCacheInvalidationMessage(String theResourceType, String theResourceId) {
+		myResourceType = theResourceType;
+		myResourceId = theResourceId;
+	}
+
+	public String getResourceType() {
+		return myResourceType;
+	}
+
+	public String getResourceId() {
+		return myResourceId;
+	}
+
+	@Override
+	public String toString() {
+		return myResourceType + "/" + myResourceId;
+	}
+}
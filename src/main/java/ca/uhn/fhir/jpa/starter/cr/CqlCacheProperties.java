@@ -0,0 +1,90 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import java.time.Duration;
+
+/**
+ * Settings of the global caches shared by all CQL evaluations. Entries beyond a bound are evicted,
+ * least valuable first, and compiled or expanded again on next use. Entries derived from a changed
+ * Library or ValueSet are invalidated. Also bounds the retrieve cache each evaluation keeps, see
+ * {@link RetrieveCachingRepository}.
+ */
+public class CqlCacheProperties {
+
+	/**
+	 * Maximum number of compiled libraries.
+	 */
+	private long library_max_size = 1000;
+
+	/**
+	 * Maximum number of loaded models.
+	 */
+	private long model_max_size = 100;
+
+	/**
+	 * Maximum number of codes held across all expanded value sets.
+	 */
+	private long valueset_max_codes = 2_000_000;
+
+	/**
+	 * How often the database is polled for changed Libraries and ValueSets to invalidate.
+	 */
+	private Duration poll_interval = Duration.ofSeconds(1);
+
+	/**
+	 * Announce Library and ValueSet writes on a channel so that caches are invalidated right after commit.
+	 */
+	private boolean push_invalidation = false;
+
+	/**
+	 * Maximum number of retrieve results remembered within one evaluation, 0 to disable.
+	 */
+	private int retrieve_max_size = 1000;
+
+	public long getLibraryMaxSize() {
+		return library_max_size;
+	}
+
+	public void setLibraryMaxSize(long library_max_size) {
+		this.library_max_size = library_max_size;
+	}
+
+	public long getModelMaxSize() {
+		return model_max_size;
+	}
+
+	public void setModelMaxSize(long model_max_size) {
+		this.model_max_size = model_max_size;
+	}
+
+	public long getValuesetMaxCodes() {
+		return valueset_max_codes;
+	}
+
+	public void setValuesetMaxCodes(long valueset_max_codes) {
+		this.valueset_max_codes = valueset_max_codes;
+	}
+
+	public Duration getPollInterval() {
+		return poll_interval;
+	}
+
+	public void setPollInterval(Duration poll_interval) {
+		this.poll_interval = poll_interval;
+	}
+
+	public boolean isPushInvalidation() {
+		return push_invalidation;
+	}
+
+	public void setPushInvalidation(boolean push_invalidation) {
+		this.push_invalidation = push_invalidation;
+	}
+
+	public int getRetrieveMaxSize() {
+		return retrieve_max_size;
+	}
+
+	public void setRetrieveMaxSize(int retrieve_max_size) {
+		this.retrieve_max_size = retrieve_max_size;
+	}
+}
@@ -0,0 +1,70 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.cqframework.cql.cql2elm.model.CompiledLibrary;
+import org.cqframework.cql.cql2elm.model.Model;
+import org.hl7.cql.model.ModelIdentifier;
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.opencds.cqf.cql.engine.runtime.Code;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * Creates the bounded global CQL caches. The caches are handed out as concurrent maps, which is what
+ * the evaluation settings and the cache invalidating resource change listeners work with.
+ * Eviction uses Caffeine's W-TinyLFU policy, and hit, miss and eviction counts are published as
+ * {@code cache.*} metrics tagged with the cache name.
+ */
+public class CqlCaches {
+
+	public static final String LIBRARY_CACHE = "cql.library";
+	public static final String MODEL_CACHE = "cql.model";
+	public static final String VALUESET_CACHE = "cql.valueset";
+
+	private CqlCaches() {}
+
+	public static Map<VersionedIdentifier, CompiledLibrary> newLibraryCache(
+			CqlCacheProperties theProperties, MeterRegistry theMeterRegistry) {
+		Cache<VersionedIdentifier, CompiledLibrary> cache = Caffeine.newBuilder()
+				.maximumSize(theProperties.getLibraryMaxSize())
+				.recordStats()
+				.build();
+		return monitor(cache, LIBRARY_CACHE, theMeterRegistry, UnaryOperator.identity());
+	}
+
+	public static Map<ModelIdentifier, Model> newModelCache(
+			CqlCacheProperties theProperties, MeterRegistry theMeterRegistry) {
+		Cache<ModelIdentifier, Model> cache = Caffeine.newBuilder()
+				.maximumSize(theProperties.getModelMaxSize())
+				.recordStats()
+				.build();
+		return monitor(cache, MODEL_CACHE, theMeterRegistry, UnaryOperator.identity());
+	}
+
+	/**
+	 * The value set cache is weighted by the number of codes in each expansion, as a few large value sets
+	 * account for most of its memory. Expansions are stored as {@link PackedCodeList}s.
+	 */
+	public static Map<String, List<Code>> newValueSetCache(
+			CqlCacheProperties theProperties, MeterRegistry theMeterRegistry) {
+		Cache<String, List<Code>> cache = Caffeine.newBuilder()
+				.maximumWeight(theProperties.getValuesetMaxCodes())
+				.<String, List<Code>>weigher((url, codes) -> codes == null ? 1 : codes.size() + 1)
+				.recordStats()
+				.build();
+		return monitor(cache, VALUESET_CACHE, theMeterRegistry, PackedCodeList::of);
+	}
+
+	private static <K, V> Map<K, V> monitor(
+			Cache<K, V> theCache, String theName, MeterRegistry theMeterRegistry, UnaryOperator<V> theValueMapper) {
+		if (theMeterRegistry != null) {
+			CaffeineCacheMetrics.monitor(theMeterRegistry, theCache, theName);
+		}
+		return new CacheMapView<>(theCache, theValueMapper);
+	}
+}
@@ -0,0 +1,100 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.opencds.cqf.fhir.cr.hapi.common.CqlThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the executor CQL evaluations run on, as configured by {@link CqlExecutorProperties}.
+ */
+public class CqlExecutorFactory {
+	private static final Logger ourLog = LoggerFactory.getLogger(CqlExecutorFactory.class);
+
+	public static final String METRIC_NAME = "cql.executor";
+
+	private CqlExecutorFactory() {}
+
+	/**
+	 * @param theProperties the executor settings
+	 * @param theMeterRegistry registry for the pool and rejection metrics; may be null
+	 */
+	public static ExecutorService create(CqlExecutorProperties theProperties, MeterRegistry theMeterRegistry) {
+		int poolSize = theProperties.getEffectivePoolSize();
+		ExecutorService executor =
+				switch (theProperties.getMode()) {
+					case WORK_STEALING -> newWorkStealingPool(poolSize);
+					case FIXED -> newFixedPool(
+							poolSize,
+							theProperties.getQueueCapacity(),
+							rejectionHandler(theProperties.getRejectionPolicy(), theMeterRegistry));
+				};
+		ourLog.info(
+				"CQL executor running in {} mode with {} threads, queue capacity {}",
+				theProperties.getMode(),
+				poolSize,
+				theProperties.getMode() == CqlExecutorProperties.Mode.FIXED ? theProperties.getQueueCapacity() : "n/a");
+
+		if (theMeterRegistry != null) {
+			new ExecutorServiceMetrics(executor, METRIC_NAME, Tags.empty()).bindTo(theMeterRegistry);
+		}
+		return executor;
+	}
+
+	static ThreadPoolExecutor newFixedPool(int thePoolSize, int theQueueCapacity, RejectedExecutionHandler theHandler) {
+		return new ThreadPoolExecutor(
+				thePoolSize,
+				thePoolSize,
+				0L,
+				TimeUnit.MILLISECONDS,
+				theQueueCapacity > 0 ? new ArrayBlockingQueue<>(theQueueCapacity) : new LinkedBlockingQueue<>(),
+				new CqlThreadFactory(),
+				theHandler);
+	}
+
+	static ForkJoinPool newWorkStealingPool(int theParallelism) {
+		// Like CqlThreadFactory, hand the workers the class loader of the thread creating the pool
+		ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+		AtomicInteger counter = new AtomicInteger();
+		ForkJoinPool.ForkJoinWorkerThreadFactory factory = pool -> {
+			ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+			thread.setName("cql-fj-" + counter.incrementAndGet());
+			thread.setContextClassLoader(classLoader);
+			return thread;
+		};
+		return new ForkJoinPool(theParallelism, factory, null, true);
+	}
+
+	static RejectedExecutionHandler rejectionHandler(
+			CqlExecutorProperties.RejectionPolicy thePolicy, MeterRegistry theMeterRegistry) {
+		RejectedExecutionHandler delegate =
+				switch (thePolicy) {
+					case CALLER_RUNS -> new ThreadPoolExecutor.CallerRunsPolicy();
+					case ABORT -> new ThreadPoolExecutor.AbortPolicy();
+				};
+		if (theMeterRegistry == null) {
+			return delegate;
+		}
+		Counter rejected = Counter.builder(METRIC_NAME + ".rejected")
+				.description("Tasks rejected by the CQL executor because its queue was full")
+				.tag("policy", thePolicy.name())
+				.register(theMeterRegistry);
+		return (task, executor) -> {
+			rejected.increment();
+			delegate.rejectedExecution(task, executor);
+		};
+	}
+}
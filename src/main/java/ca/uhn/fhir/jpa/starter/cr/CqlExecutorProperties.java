@@ -0,0 +1,79 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+/**
+ * Settings of the executor CQL evaluations (e.g. population measure evaluation and care gaps) run on.
+ */
+public class CqlExecutorProperties {
+
+	public enum Mode {
+		/**
+		 * A fixed size pool with a bounded queue.
+		 */
+		FIXED,
+		/**
+		 * A work-stealing fork/join pool, suited to evaluations that split into many small tasks.
+		 */
+		WORK_STEALING
+	}
+
+	public enum RejectionPolicy {
+		/**
+		 * Run the rejected task on the submitting thread, throttling the submitter.
+		 */
+		CALLER_RUNS,
+		/**
+		 * Fail the submission with a RejectedExecutionException.
+		 */
+		ABORT
+	}
+
+	private Mode mode = Mode.FIXED;
+
+	/**
+	 * Number of threads, or the parallelism in work-stealing mode. Defaults to the number of available processors.
+	 */
+	private Integer pool_size;
+
+	/**
+	 * Number of tasks that may wait for a thread in fixed mode.
+	 */
+	private int queue_capacity = 1000;
+
+	private RejectionPolicy rejection_policy = RejectionPolicy.CALLER_RUNS;
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	public void setMode(Mode mode) {
+		this.mode = mode;
+	}
+
+	public Integer getPoolSize() {
+		return pool_size;
+	}
+
+	public void setPoolSize(Integer pool_size) {
+		this.pool_size = pool_size;
+	}
+
+	public int getEffectivePoolSize() {
+		return pool_size != null && pool_size > 0 ? pool_size : Runtime.getRuntime().availableProcessors();
+	}
+
+	public int getQueueCapacity() {
+		return queue_capacity;
+	}
+
+	public void setQueueCapacity(int queue_capacity) {
+		this.queue_capacity = queue_capacity;
+	}
+
+	public RejectionPolicy getRejectionPolicy() {
+		return rejection_policy;
+	}
+
+	public void setRejectionPolicy(RejectionPolicy rejection_policy) {
+		this.rejection_policy = rejection_policy;
+	}
+}
@@ -0,0 +1,202 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.jpa.repository.HapiFhirRepository;
+import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
+import ca.uhn.fhir.rest.param.TokenParam;
+import ca.uhn.fhir.rest.server.RestfulServer;
+import ca.uhn.fhir.util.FhirTerser;
+import org.apache.commons.lang3.StringUtils;
+import org.cqframework.cql.cql2elm.LibraryManager;
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.opencds.cqf.fhir.cql.Engines;
+import org.opencds.cqf.fhir.cql.EvaluationSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compiles Library resources into the global library cache once the server has started, so that the
+ * first evaluation after a deploy does not pay for CQL translation and model loading. Until the warm-up
+ * has finished the warmer reports itself as out of service. Adding the {@code cqlWarmup} health contributor
+ * to the readiness group makes the readiness probe pass only once the caches are warm.
+ */
+public class CqlLibraryWarmer implements HealthIndicator {
+	private static final Logger ourLog = LoggerFactory.getLogger(CqlLibraryWarmer.class);
+
+	private final DaoRegistry myDaoRegistry;
+	private final RestfulServer myRestfulServer;
+	private final EvaluationSettings myEvaluationSettings;
+	private final CqlWarmupProperties myProperties;
+
+	private volatile boolean myWarm;
+
+	public CqlLibraryWarmer(
+			DaoRegistry theDaoRegistry,
+			RestfulServer theRestfulServer,
+			EvaluationSettings theEvaluationSettings,
+			CqlWarmupProperties theProperties) {
+		myDaoRegistry = theDaoRegistry;
+		myRestfulServer = theRestfulServer;
+		myEvaluationSettings = theEvaluationSettings;
+		myProperties = theProperties;
+	}
+
+	public boolean isWarm() {
+		return myWarm;
+	}
+
+	@Override
+	public Health health() {
+		return myWarm ? Health.up().build() : Health.outOfService().build();
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void start() {
+		Thread thread = new Thread(this::warmUpInBackground, "cql-warmup");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void warmUpInBackground() {
+		try {
+			warmUp();
+		} catch (RuntimeException e) {
+			ourLog.error("CQL warm-up failed, continuing with cold caches", e);
+		} finally {
+			myWarm = true;
+		}
+	}
+
+	/**
+	 * Compiles all matching libraries in parallel.
+	 *
+	 * @return the number of libraries compiled
+	 */
+	public int warmUp() {
+		long start = System.currentTimeMillis();
+		Set<VersionedIdentifier> identifiers = findLibraries();
+		ourLog.info("Warming up {} CQL libraries", identifiers.size());
+		if (identifiers.isEmpty()) {
+			return 0;
+		}
+
+		preloadModels();
+
+		AtomicInteger compiled = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(
+				Math.min(myProperties.getEffectiveThreads(), identifiers.size()), r -> {
+					Thread thread = new Thread(r, "cql-warmup-worker");
+					thread.setDaemon(true);
+					return thread;
+				});
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (VersionedIdentifier identifier : identifiers) {
+				futures.add(executor.submit(() -> {
+					if (compile(identifier)) {
+						compiled.incrementAndGet();
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			ourLog.warn("CQL warm-up task failed", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		ourLog.info(
+				"Warmed up {} of {} CQL libraries in {}ms",
+				compiled.get(),
+				identifiers.size(),
+				System.currentTimeMillis() - start);
+		return compiled.get();
+	}
+
+	private Set<VersionedIdentifier> findLibraries() {
+		SearchParameterMap map = SearchParameterMap.newSynchronous();
+		String tag = myProperties.getTag();
+		if (StringUtils.isNotBlank(tag)) {
+			int separator = tag.indexOf('|');
+			map.add(
+					"_tag",
+					separator < 0
+							? new TokenParam(tag)
+							: new TokenParam(tag.substring(0, separator), tag.substring(separator + 1)));
+		}
+
+		FhirTerser terser = myRestfulServer.getFhirContext().newTerser();
+		Set<VersionedIdentifier> identifiers = new LinkedHashSet<>();
+		List<IBaseResource> libraries = myDaoRegistry
+				.getResourceDao("Library")
+				.search(map, new SystemRequestDetails())
+				.getAllResources();
+		for (IBaseResource library : libraries) {
+			String name = terser.getSinglePrimitiveValueOrNull(library, "name");
+			if (name != null) {
+				identifiers.add(new VersionedIdentifier()
+						.withId(name)
+						.withVersion(terser.getSinglePrimitiveValueOrNull(library, "version")));
+			}
+		}
+		return identifiers;
+	}
+
+	/**
+	 * Loads the FHIR model once up front, instead of having the parallel compilations race to load it.
+	 */
+	private void preloadModels() {
+		FhirContext fhirContext = myRestfulServer.getFhirContext();
+		try {
+			newLibraryManager()
+					.getModelManager()
+					.resolveModel("FHIR", fhirContext.getVersion().getVersion().getFhirVersionString());
+		} catch (RuntimeException e) {
+			ourLog.debug("Could not preload the FHIR model", e);
+		}
+	}
+
+	private boolean compile(VersionedIdentifier theIdentifier) {
+		try {
+			newLibraryManager().resolveLibrary(theIdentifier);
+			return true;
+		} catch (RuntimeException e) {
+			ourLog.warn("Could not compile library {}: {}", theIdentifier.getId(), e.getMessage());
+			ourLog.debug("Compilation failure", e);
+			return false;
+		}
+	}
+
+	/**
+	 * A library manager backed by the global caches. Library managers are not thread-safe, so each
+	 * compilation gets its own.
+	 */
+	private LibraryManager newLibraryManager() {
+		HapiFhirRepository repository =
+				new HapiFhirRepository(myDaoRegistry, new SystemRequestDetails(), myRestfulServer);
+		return Engines.forRepository(repository, myEvaluationSettings)
+				.getEnvironment()
+				.getLibraryManager();
+	}
+}
@@ -0,0 +1,162 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.hl7.fhir.r4.model.DecimalType;
+import org.hl7.fhir.r4.model.IntegerType;
+import org.hl7.fhir.r4.model.Parameters;
+import org.hl7.fhir.r4.model.StringType;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timings of one profiled CQL evaluation: the invocations and time spent per expression definition, taken
+ * from the engine's profile, and the retrieves the evaluation issued against the repository. Retrieves are
+ * recorded by {@link RetrieveCachingRepository} when a profile is attached to the request.
+ */
+public class CqlProfile {
+
+	public static final String USER_DATA_KEY = CqlProfile.class.getName();
+
+	private final Map<String, ExpressionStats> myExpressions = new LinkedHashMap<>();
+	private final Map<String, RetrieveStats> myRetrieves = new LinkedHashMap<>();
+
+	public static CqlProfile from(RequestDetails theRequestDetails) {
+		return theRequestDetails == null ? null : (CqlProfile) theRequestDetails.getUserData().get(USER_DATA_KEY);
+	}
+
+	/**
+	 * @param theNanos the time spent in the expression, including the expressions it references
+	 * @param theSelfNanos the time spent in the expression itself
+	 */
+	public synchronized void addExpression(
+			String theLibrary, String theExpression, long theCount, long theNanos, long theSelfNanos) {
+		ExpressionStats stats = myExpressions.computeIfAbsent(
+				theLibrary + "." + theExpression, k -> new ExpressionStats(theLibrary, theExpression));
+		stats.myCount += theCount;
+		stats.myNanos += theNanos;
+		stats.mySelfNanos += theSelfNanos;
+	}
+
+	/**
+	 * Sets the number of items an expression evaluated to, 1 for a single value and 0 for null.
+	 */
+	public synchronized void setResultSize(String theLibrary, String theExpression, int theSize) {
+		ExpressionStats stats = myExpressions.computeIfAbsent(
+				theLibrary + "." + theExpression, k -> new ExpressionStats(theLibrary, theExpression));
+		stats.myResultSize = theSize;
+	}
+
+	/**
+	 * @param theSource where the retrieve was answered from, e.g. {@code database} or {@code cache}
+	 */
+	public synchronized void addRetrieve(String theResourceType, String theSource, int theResultSize, long theNanos) {
+		RetrieveStats stats = myRetrieves.computeIfAbsent(
+				theResourceType + "/" + theSource, k -> new RetrieveStats(theResourceType, theSource));
+		stats.myCount++;
+		stats.myResources += theResultSize;
+		stats.myNanos += theNanos;
+	}
+
+	/**
+	 * @return the expressions followed by the retrieves, each ordered by time spent, most expensive first
+	 */
+	public synchronized Parameters toParameters() {
+		Parameters parameters = new Parameters();
+		List<ExpressionStats> expressions = new ArrayList<>(myExpressions.values());
+		expressions.sort(Comparator.comparingLong((ExpressionStats s) -> s.myNanos).reversed());
+		for (ExpressionStats stats : expressions) {
+			Parameters.ParametersParameterComponent expression = parameters.addParameter().setName("expression");
+			expression.addPart().setName("library").setValue(new StringType(stats.myLibrary));
+			expression.addPart().setName("name").setValue(new StringType(stats.myExpression));
+			expression.addPart().setName("count").setValue(new IntegerType(Math.toIntExact(stats.myCount)));
+			expression.addPart().setName("timeMs").setValue(millis(stats.myNanos));
+			expression.addPart().setName("selfTimeMs").setValue(millis(stats.mySelfNanos));
+			if (stats.myResultSize != null) {
+				expression.addPart().setName("resultSize").setValue(new IntegerType(stats.myResultSize));
+			}
+		}
+
+		List<RetrieveStats> retrieves = new ArrayList<>(myRetrieves.values());
+		retrieves.sort(Comparator.comparingLong((RetrieveStats s) -> s.myNanos).reversed());
+		for (RetrieveStats stats : retrieves) {
+			Parameters.ParametersParameterComponent retrieve = parameters.addParameter().setName("retrieve");
+			retrieve.addPart().setName("resourceType").setValue(new StringType(stats.myResourceType));
+			retrieve.addPart().setName("source").setValue(new StringType(stats.mySource));
+			retrieve.addPart().setName("count").setValue(new IntegerType(stats.myCount));
+			retrieve.addPart().setName("resources").setValue(new IntegerType(Math.toIntExact(stats.myResources)));
+			retrieve.addPart().setName("timeMs").setValue(millis(stats.myNanos));
+		}
+		return parameters;
+	}
+
+	/**
+	 * Records the profile with one sample per expression and retrieve type, the total time this evaluation
+	 * spent in it, so that the meters aggregate across profiled evaluations.
+	 */
+	public synchronized void publish(MeterRegistry theMeterRegistry) {
+		for (ExpressionStats stats : myExpressions.values()) {
+			Timer.builder("cql.expression")
+					.description("Time spent in a CQL expression per profiled evaluation")
+					.tag("library", stats.myLibrary)
+					.tag("expression", stats.myExpression)
+					.register(theMeterRegistry)
+					.record(stats.myNanos, TimeUnit.NANOSECONDS);
+		}
+		for (RetrieveStats stats : myRetrieves.values()) {
+			Timer.builder("cql.retrieve")
+					.description("Time spent in CQL retrieves per profiled evaluation")
+					.tag("resource_type", stats.myResourceType)
+					.tag("source", stats.mySource)
+					.register(theMeterRegistry)
+					.record(stats.myNanos, TimeUnit.NANOSECONDS);
+			DistributionSummary.builder("cql.retrieve.resources")
+					.description("Resources retrieved per profiled evaluation")
+					.tag("resource_type", stats.myResourceType)
+					.tag("source", stats.mySource)
+					.register(theMeterRegistry)
+					.record(stats.myResources);
+		}
+	}
+
+	private static DecimalType millis(long theNanos) {
+		return new DecimalType(
+				BigDecimal.valueOf(theNanos).divide(BigDecimal.valueOf(1_000_000), 3, RoundingMode.HALF_UP));
+	}
+
+	private static class ExpressionStats {
+		private final String myLibrary;
+		private final String myExpression;
+		private long myCount;
+		private long myNanos;
+		private long mySelfNanos;
+		private Integer myResultSize;
+
+		private ExpressionStats(String theLibrary, String theExpression) {
+			myLibrary = theLibrary;
+			myExpression = theExpression;
+		}
+	}
+
+	private static class RetrieveStats {
+		private final String myResourceType;
+		private final String mySource;
+		private int myCount;
+		private long myResources;
+		private long myNanos;
+
+		private RetrieveStats(String theResourceType, String theSource) {
+			myResourceType = theResourceType;
+			mySource = theSource;
+		}
+	}
+}
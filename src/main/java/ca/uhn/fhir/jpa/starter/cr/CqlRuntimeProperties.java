@@ -5,6 +5,7 @@ public class CqlRuntimeProperties {
 	private Boolean debug_logging_enabled = false;
 	private Boolean enable_validation = false;
 	private Boolean enable_expression_caching = true;
+	private Boolean profiling_enabled = false;
 
 	public boolean isDebugLoggingEnabled() {
 		return debug_logging_enabled;
@@ -29,4 +30,12 @@ public class CqlRuntimeProperties {
 	public void EnableValidation(boolean enable_validation) {
 		this.enable_validation = enable_validation;
 	}
+
+	public boolean isProfilingEnabled() {
+		return profiling_enabled;
+	}
+
+	public void setProfilingEnabled(boolean profiling_enabled) {
+		this.profiling_enabled = profiling_enabled;
+	}
 }
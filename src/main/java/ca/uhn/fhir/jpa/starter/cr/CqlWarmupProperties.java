@@ -0,0 +1,48 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+/**
+ * Settings of the startup warm-up, which compiles Library resources into the global library cache before
+ * the server reports itself ready.
+ */
+public class CqlWarmupProperties {
+
+	private boolean enabled = false;
+
+	/**
+	 * Only warm up Libraries carrying this tag, given as system|code. All Libraries are warmed up if unset.
+	 */
+	private String tag;
+
+	/**
+	 * Number of libraries compiled in parallel. Defaults to the number of available processors.
+	 */
+	private Integer threads;
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public String getTag() {
+		return tag;
+	}
+
+	public void setTag(String tag) {
+		this.tag = tag;
+	}
+
+	public Integer getThreads() {
+		return threads;
+	}
+
+	public void setThreads(Integer threads) {
+		this.threads = threads;
+	}
+
+	public int getEffectiveThreads() {
+		return threads != null && threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+	}
+}
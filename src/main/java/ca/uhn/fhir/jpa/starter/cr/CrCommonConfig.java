@@ -1,11 +1,17 @@
 package ca.uhn.fhir.jpa.starter.cr;
 
+import ca.uhn.fhir.broker.api.IBrokerClient;
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.interceptor.api.IInterceptorService;
 import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
 import ca.uhn.fhir.jpa.cache.IResourceChangeListenerRegistry;
 import ca.uhn.fhir.jpa.cache.ResourceChangeListenerRegistryInterceptor;
+import ca.uhn.fhir.jpa.repository.HapiFhirRepository;
 import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.rest.api.server.IRepositoryFactory;
 import ca.uhn.fhir.rest.server.RestfulServer;
 import ca.uhn.fhir.rest.server.provider.ResourceProviderFactory;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.cqframework.cql.cql2elm.CqlCompilerOptions;
 import org.cqframework.cql.cql2elm.model.CompiledLibrary;
 import org.cqframework.cql.cql2elm.model.Model;
@@ -17,12 +23,13 @@ import org.opencds.cqf.fhir.cql.EvaluationSettings;
 import org.opencds.cqf.fhir.cql.engine.retrieve.RetrieveSettings;
 import org.opencds.cqf.fhir.cql.engine.terminology.TerminologySettings;
 import org.opencds.cqf.fhir.cr.hapi.common.CodeCacheResourceChangeListener;
-import org.opencds.cqf.fhir.cr.hapi.common.CqlThreadFactory;
 import org.opencds.cqf.fhir.cr.hapi.common.ElmCacheResourceChangeListener;
 import org.opencds.cqf.fhir.cr.measure.CareGapsProperties;
 import org.opencds.cqf.fhir.cr.measure.MeasureEvaluationOptions;
 import org.opencds.cqf.fhir.utility.ValidationProfile;
 import org.opencds.cqf.fhir.utility.client.TerminologyServerClientSettings;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Conditional;
@@ -34,9 +41,7 @@ import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 @Configuration
 @Conditional({CrConfigCondition.class})
@@ -151,14 +156,40 @@ public class CrCommonConfig {
 
 	@Primary
 	@Bean
-	public ExecutorService cqlExecutor() {
-		CqlThreadFactory factory = new CqlThreadFactory();
-		ExecutorService executor = Executors.newFixedThreadPool(2, factory);
+	public ExecutorService cqlExecutor(
+			CrProperties theCrProperties, ObjectProvider<MeterRegistry> theMeterRegistry) {
+		ExecutorService executor =
+				CqlExecutorFactory.create(theCrProperties.getExecutor(), theMeterRegistry.getIfAvailable());
 		executor = new DelegatingSecurityContextExecutorService(executor);
 
 		return executor;
 	}
 
+	/**
+	 * Backs CQL evaluations with repositories that remember their searches, so that a retrieve issued
+	 * repeatedly within one evaluation hits the database once. The evaluations of a chunk of patients whose
+	 * data was prefetched are answered from the {@link PatientDataSlice} attached to the request. Profiled
+	 * evaluations always go through the retrieve cache, which records the retrieves in the {@link CqlProfile}.
+	 */
+	@Primary
+	@Bean
+	public IRepositoryFactory retrieveCachingRepositoryFactory(
+			DaoRegistry theDaoRegistry, RestfulServer theRestfulServer, CrProperties theCrProperties) {
+		int maxSize = theCrProperties.getCache().getRetrieveMaxSize();
+		return theRequestDetails -> {
+			PatientDataSlice slice = PatientDataSlice.from(theRequestDetails);
+			if (slice != null) {
+				return new PrefetchedDataRepository(
+						theDaoRegistry, theRequestDetails, theRestfulServer, Math.max(0, maxSize), slice);
+			}
+			if (maxSize <= 0 && CqlProfile.from(theRequestDetails) == null) {
+				return new HapiFhirRepository(theDaoRegistry, theRequestDetails, theRestfulServer);
+			}
+			return new RetrieveCachingRepository(
+					theDaoRegistry, theRequestDetails, theRestfulServer, Math.max(0, maxSize));
+		};
+	}
+
 	@Bean
 	CareGapsProperties careGapsProperties(CrProperties theCrProperties) {
 		var careGapsProperties = new CareGapsProperties();
@@ -189,29 +220,47 @@ public class CrCommonConfig {
 	}
 
 	@Bean
-	public Map<VersionedIdentifier, CompiledLibrary> globalLibraryCache() {
-		return new ConcurrentHashMap<>();
+	public Map<VersionedIdentifier, CompiledLibrary> globalLibraryCache(
+			CrProperties theCrProperties, ObjectProvider<MeterRegistry> theMeterRegistry) {
+		return CqlCaches.newLibraryCache(theCrProperties.getCache(), theMeterRegistry.getIfAvailable());
 	}
 
 	@Bean
-	public Map<ModelIdentifier, Model> globalModelCache() {
-		return new ConcurrentHashMap<>();
+	public Map<ModelIdentifier, Model> globalModelCache(
+			CrProperties theCrProperties, ObjectProvider<MeterRegistry> theMeterRegistry) {
+		return CqlCaches.newModelCache(theCrProperties.getCache(), theMeterRegistry.getIfAvailable());
 	}
 
 	@Bean
-	public Map<String, List<Code>> globalValueSetCache() {
-		return new ConcurrentHashMap<>();
+	public Map<String, List<Code>> globalValueSetCache(
+			CrProperties theCrProperties, ObjectProvider<MeterRegistry> theMeterRegistry) {
+		return CqlCaches.newValueSetCache(theCrProperties.getCache(), theMeterRegistry.getIfAvailable());
+	}
+
+	@Bean
+	@ConditionalOnProperty(prefix = "hapi.fhir.cr.warmup", name = "enabled", havingValue = "true")
+	public CqlLibraryWarmer cqlWarmup(
+			DaoRegistry theDaoRegistry,
+			RestfulServer theRestfulServer,
+			EvaluationSettings theEvaluationSettings,
+			CrProperties theCrProperties) {
+		return new CqlLibraryWarmer(
+				theDaoRegistry, theRestfulServer, theEvaluationSettings, theCrProperties.getWarmup());
 	}
 
 	@Bean
 	public ElmCacheResourceChangeListener elmCacheResourceChangeListener(
 			IResourceChangeListenerRegistry theResourceChangeListenerRegistry,
 			DaoRegistry theDaoRegistry,
-			EvaluationSettings theEvaluationSettings) {
+			EvaluationSettings theEvaluationSettings,
+			CrProperties theCrProperties) {
 		ElmCacheResourceChangeListener listener =
 				new ElmCacheResourceChangeListener(theDaoRegistry, theEvaluationSettings.getLibraryCache());
 		theResourceChangeListenerRegistry.registerResourceResourceChangeListener(
-				"Library", SearchParameterMap.newSynchronous(), listener, 1000);
+				"Library",
+				SearchParameterMap.newSynchronous(),
+				listener,
+				theCrProperties.getCache().getPollInterval().toMillis());
 		return listener;
 	}
 
@@ -219,17 +268,37 @@ public class CrCommonConfig {
 	public CodeCacheResourceChangeListener codeCacheResourceChangeListener(
 			IResourceChangeListenerRegistry theResourceChangeListenerRegistry,
 			EvaluationSettings theEvaluationSettings,
-			DaoRegistry theDaoRegistry) {
+			DaoRegistry theDaoRegistry,
+			CrProperties theCrProperties) {
 
 		CodeCacheResourceChangeListener listener =
 				new CodeCacheResourceChangeListener(theDaoRegistry, theEvaluationSettings.getValueSetCache());
 		// registry
 		theResourceChangeListenerRegistry.registerResourceResourceChangeListener(
-				"ValueSet", SearchParameterMap.newSynchronous(), listener, 1000);
+				"ValueSet",
+				SearchParameterMap.newSynchronous(),
+				listener,
+				theCrProperties.getCache().getPollInterval().toMillis());
 
 		return listener;
 	}
 
+	@Bean(destroyMethod = "shutdown")
+	@ConditionalOnProperty(prefix = "hapi.fhir.cr.cache", name = "push_invalidation", havingValue = "true")
+	public CqlCacheInvalidationBroadcaster cqlCacheInvalidationBroadcaster(
+			FhirContext theFhirContext,
+			IBrokerClient theBrokerClient,
+			IInterceptorService theInterceptorService,
+			ElmCacheResourceChangeListener theElmCacheResourceChangeListener,
+			CodeCacheResourceChangeListener theCodeCacheResourceChangeListener) {
+		CqlCacheInvalidationBroadcaster broadcaster = new CqlCacheInvalidationBroadcaster(
+				theFhirContext,
+				theBrokerClient,
+				Map.of("Library", theElmCacheResourceChangeListener, "ValueSet", theCodeCacheResourceChangeListener));
+		theInterceptorService.registerInterceptor(broadcaster);
+		return broadcaster;
+	}
+
 	@Bean
 	public ResourceChangeListenerRegistryInterceptor resourceChangeListenerRegistryInterceptor() {
 		return new ResourceChangeListenerRegistryInterceptor();
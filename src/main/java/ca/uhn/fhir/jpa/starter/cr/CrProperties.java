@@ -7,6 +7,10 @@ public class CrProperties {
 
 	private CareGapsProperties careGaps = new CareGapsProperties();
 	private CqlProperties cql = new CqlProperties();
+	private CqlExecutorProperties executor = new CqlExecutorProperties();
+	private CqlCacheProperties cache = new CqlCacheProperties();
+	private CqlWarmupProperties warmup = new CqlWarmupProperties();
+	private MeasureEvaluationProperties measure = new MeasureEvaluationProperties();
 
 	private TerminologyServerClientSettings terminologyServerClientSettings = new TerminologyServerClientSettings();
 
@@ -34,6 +38,38 @@ public class CrProperties {
 		this.cql = cql;
 	}
 
+	public CqlExecutorProperties getExecutor() {
+		return executor;
+	}
+
+	public void setExecutor(CqlExecutorProperties executor) {
+		this.executor = executor;
+	}
+
+	public CqlCacheProperties getCache() {
+		return cache;
+	}
+
+	public void setCache(CqlCacheProperties cache) {
+		this.cache = cache;
+	}
+
+	public CqlWarmupProperties getWarmup() {
+		return warmup;
+	}
+
+	public void setWarmup(CqlWarmupProperties warmup) {
+		this.warmup = warmup;
+	}
+
+	public MeasureEvaluationProperties getMeasure() {
+		return measure;
+	}
+
+	public void setMeasure(MeasureEvaluationProperties measure) {
+		this.measure = measure;
+	}
+
 	public TerminologyServerClientSettings getTerminologyServerClientSettings() {
 		return terminologyServerClientSettings;
 	}
@@ -0,0 +1,34 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+/**
+ * Settings of the chunked population measure evaluation, see {@code $evaluate-measure-parallel}.
+ */
+public class MeasureEvaluationProperties {
+
+	/**
+	 * Number of patients evaluated together in one task on the CQL executor. Subject level results of a
+	 * chunk are written to one NDJSON Binary.
+	 */
+	private int chunk_size = 500;
+
+	/**
+	 * Load the data a measure needs for a whole chunk of patients up front, instead of searching per patient.
+	 */
+	private boolean prefetch_enabled = true;
+
+	public int getChunkSize() {
+		return chunk_size;
+	}
+
+	public void setChunkSize(int chunk_size) {
+		this.chunk_size = chunk_size;
+	}
+
+	public boolean isPrefetchEnabled() {
+		return prefetch_enabled;
+	}
+
+	public void setPrefetchEnabled(boolean prefetch_enabled) {
+		this.prefetch_enabled = prefetch_enabled;
+	}
+}
@@ -0,0 +1,58 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import org.opencds.cqf.cql.engine.runtime.Code;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * An immutable, array-backed value set expansion. The order of the expansion is kept, so the binary search
+ * the CQL terminology provider does over its sorted expansions still applies, while the systems and versions
+ * shared by thousands of codes are held once instead of once per code.
+ */
+public final class PackedCodeList extends AbstractList<Code> implements RandomAccess {
+
+	private static final Interner<String> ourInterner = Interners.newWeakInterner();
+
+	private final Code[] myCodes;
+
+	private PackedCodeList(Code[] theCodes) {
+		myCodes = theCodes;
+	}
+
+	/**
+	 * Packs an expansion, returning it unchanged if it already is packed.
+	 */
+	public static List<Code> of(List<Code> theCodes) {
+		if (theCodes == null || theCodes instanceof PackedCodeList) {
+			return theCodes;
+		}
+		Code[] codes = new Code[theCodes.size()];
+		int i = 0;
+		for (Code code : theCodes) {
+			if (code != null) {
+				code.setSystem(intern(code.getSystem()));
+				code.setVersion(intern(code.getVersion()));
+			}
+			codes[i++] = code;
+		}
+		return new PackedCodeList(codes);
+	}
+
+	private static String intern(String theValue) {
+		return theValue == null ? null : ourInterner.intern(theValue);
+	}
+
+	@Override
+	public Code get(int theIndex) {
+		return myCodes[theIndex];
+	}
+
+	@Override
+	public int size() {
+		return myCodes.length;
+	}
+}
@@ -0,0 +1,166 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.RuntimeSearchParam;
+import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.jpa.searchparam.matcher.InMemoryMatchResult;
+import ca.uhn.fhir.jpa.searchparam.matcher.SearchParamMatcher;
+import ca.uhn.fhir.model.api.IQueryParameterType;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.param.ReferenceParam;
+import ca.uhn.fhir.rest.param.TokenParam;
+import com.google.common.collect.Multimap;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.IdType;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The data of a set of patients, loaded up front with a few set-based queries so that the per-patient
+ * retrieves of a CQL evaluation are answered from memory. A retrieve is answered only if it is scoped to
+ * one of the patients, through the compartment CQL passes as the {@code X-FHIR-Compartment} header and
+ * a compartment search parameter of the patient, and is for a prefetched resource type. The remaining
+ * search parameters are matched in memory, a retrieve using a parameter the in-memory matcher does not
+ * support goes to the database instead.
+ *
+ * <p>Filled by one thread before the evaluation starts and read-only afterwards.</p>
+ */
+public class PatientDataSlice {
+
+	public static final String USER_DATA_KEY = PatientDataSlice.class.getName();
+	public static final String COMPARTMENT_HEADER = "X-FHIR-Compartment";
+
+	private final FhirContext myFhirContext;
+	private final SearchParamMatcher mySearchParamMatcher;
+	private final Set<String> myResourceTypes;
+	private final Map<String, Map<String, Map<String, IBaseResource>>> myResources = new HashMap<>();
+
+	/**
+	 * @param theResourceTypes the resource types loaded for all patients
+	 * @param thePatients the ids of the patients, e.g. {@code Patient/123}
+	 */
+	public PatientDataSlice(
+			FhirContext theFhirContext,
+			SearchParamMatcher theSearchParamMatcher,
+			Set<String> theResourceTypes,
+			Collection<String> thePatients) {
+		myFhirContext = theFhirContext;
+		mySearchParamMatcher = theSearchParamMatcher;
+		myResourceTypes = Set.copyOf(theResourceTypes);
+		for (String patient : thePatients) {
+			myResources.put(new IdType(patient).getIdPart(), new HashMap<>());
+		}
+	}
+
+	public static PatientDataSlice from(RequestDetails theRequestDetails) {
+		return theRequestDetails == null ? null : (PatientDataSlice) theRequestDetails.getUserData().get(USER_DATA_KEY);
+	}
+
+	public Set<String> getResourceTypes() {
+		return myResourceTypes;
+	}
+
+	/**
+	 * Adds a resource to the data of a patient, ignoring patients not in the slice.
+	 */
+	public void add(String thePatientId, IBaseResource theResource) {
+		Map<String, Map<String, IBaseResource>> patient = myResources.get(thePatientId);
+		if (patient != null) {
+			String type = myFhirContext.getResourceType(theResource);
+			patient.computeIfAbsent(type, t -> new LinkedHashMap<>())
+					.put(theResource.getIdElement().getIdPart(), theResource);
+		}
+	}
+
+	/**
+	 * @return the matching resources, or {@code null} if the search can not be answered from the slice
+	 */
+	public List<IBaseResource> search(
+			String theResourceType,
+			Multimap<String, List<IQueryParameterType>> theSearchParameters,
+			Map<String, String> theHeaders) {
+		String patientId = compartmentPatient(theHeaders);
+		Map<String, Map<String, IBaseResource>> patient = patientId == null ? null : myResources.get(patientId);
+		if (patient == null
+				|| !myResourceTypes.contains(theResourceType)
+				|| theSearchParameters == null
+				|| !isScopedTo(theResourceType, theSearchParameters, patientId)) {
+			return null;
+		}
+
+		SearchParameterMap map = new SearchParameterMap();
+		for (Map.Entry<String, List<IQueryParameterType>> entry : theSearchParameters.entries()) {
+			if ("Patient".equals(theResourceType) && "_id".equals(entry.getKey())) {
+				// already checked to be the patient, whose data is the only candidate
+				continue;
+			}
+			List<List<IQueryParameterType>> and = map.get(entry.getKey());
+			if (and == null) {
+				and = new ArrayList<>();
+				map.put(entry.getKey(), and);
+			}
+			and.add(entry.getValue());
+		}
+
+		List<IBaseResource> matches = new ArrayList<>();
+		for (IBaseResource resource : patient.getOrDefault(theResourceType, Map.of()).values()) {
+			InMemoryMatchResult result = mySearchParamMatcher.match(map, resource);
+			if (!result.supported()) {
+				return null;
+			}
+			if (result.matched()) {
+				matches.add(resource);
+			}
+		}
+		return matches;
+	}
+
+	private static String compartmentPatient(Map<String, String> theHeaders) {
+		String compartment = theHeaders == null ? null : theHeaders.get(COMPARTMENT_HEADER);
+		if (compartment == null) {
+			return null;
+		}
+		IdType id = new IdType(compartment);
+		return "Patient".equals(id.getResourceType()) ? id.getIdPart() : null;
+	}
+
+	/**
+	 * Whether the search is restricted to the patient by a parameter the slice was loaded by, so that all
+	 * candidate resources are in the slice.
+	 */
+	private boolean isScopedTo(
+			String theResourceType, Multimap<String, List<IQueryParameterType>> theSearchParameters, String thePatientId) {
+		Set<String> scopes = new HashSet<>();
+		if ("Patient".equals(theResourceType)) {
+			scopes.add("_id");
+		} else {
+			for (RuntimeSearchParam param :
+					myFhirContext.getResourceDefinition(theResourceType).getSearchParamsForCompartmentName("Patient")) {
+				scopes.add(param.getName());
+			}
+		}
+		for (Map.Entry<String, List<IQueryParameterType>> entry : theSearchParameters.entries()) {
+			if (scopes.contains(entry.getKey()) && entry.getValue().size() == 1) {
+				IQueryParameterType value = entry.getValue().get(0);
+				if (value instanceof ReferenceParam reference
+						&& reference.getChain() == null
+						&& thePatientId.equals(new IdType(reference.getValue()).getIdPart())) {
+					return true;
+				}
+				if (value instanceof TokenParam token
+						&& token.getModifier() == null
+						&& thePatientId.equals(new IdType(token.getValue()).getIdPart())) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,69 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.model.api.IQueryParameterType;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.server.RestfulServer;
+import ca.uhn.fhir.util.BundleBuilder;
+import com.google.common.collect.Multimap;
+import org.hl7.fhir.instance.model.api.IBaseBundle;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A repository answering the per-patient retrieves of an evaluation from a prefetched
+ * {@link PatientDataSlice}, falling back to the database, through the retrieve cache, for the searches
+ * the slice can not answer. The slice is dropped once a prefetched resource type is written through the
+ * repository.
+ */
+public class PrefetchedDataRepository extends RetrieveCachingRepository {
+
+	private volatile PatientDataSlice mySlice;
+
+	public PrefetchedDataRepository(
+			DaoRegistry theDaoRegistry,
+			RequestDetails theRequestDetails,
+			RestfulServer theRestfulServer,
+			int theMaxSize,
+			PatientDataSlice theSlice) {
+		super(theDaoRegistry, theRequestDetails, theRestfulServer, theMaxSize);
+		mySlice = theSlice;
+	}
+
+	@Override
+	public <B extends IBaseBundle, T extends IBaseResource> B search(
+			Class<B> theBundleType,
+			Class<T> theResourceType,
+			Multimap<String, List<IQueryParameterType>> theSearchParameters,
+			Map<String, String> theHeaders) {
+		PatientDataSlice slice = mySlice;
+		if (slice != null) {
+			long start = System.nanoTime();
+			List<IBaseResource> resources =
+					slice.search(fhirContext().getResourceType(theResourceType), theSearchParameters, theHeaders);
+			if (resources != null) {
+				BundleBuilder builder = new BundleBuilder(fhirContext());
+				builder.setType("searchset");
+				resources.forEach(builder::addCollectionEntry);
+				IBaseBundle bundle = builder.getBundle();
+				profile(theResourceType, "prefetch", bundle, start);
+				return theBundleType.cast(bundle);
+			}
+		}
+		return super.search(theBundleType, theResourceType, theSearchParameters, theHeaders);
+	}
+
+	@Override
+	protected void invalidate(Set<String> theResourceTypes) {
+		PatientDataSlice slice = mySlice;
+		if (slice != null
+				&& (theResourceTypes == null
+						|| theResourceTypes.stream().anyMatch(slice.getResourceTypes()::contains))) {
+			mySlice = null;
+		}
+		super.invalidate(theResourceTypes);
+	}
+}
@@ -0,0 +1,204 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.jpa.repository.HapiFhirRepository;
+import ca.uhn.fhir.model.api.IQueryParameterType;
+import ca.uhn.fhir.rest.api.MethodOutcome;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.server.RestfulServer;
+import ca.uhn.fhir.util.BundleUtil;
+import ca.uhn.fhir.util.bundle.BundleEntryParts;
+import com.google.common.collect.Multimap;
+import org.apache.commons.lang3.StringUtils;
+import org.hl7.fhir.instance.model.api.IBaseBundle;
+import org.hl7.fhir.instance.model.api.IBaseParameters;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IIdType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A repository that remembers the results of its searches. CQL retrieves are run as searches, and the same
+ * retrieve, e.g. all Observations of the patient with a given code, is often issued by several expressions
+ * and libraries of one evaluation. As a repository is created for every request, or every chunk of a
+ * population, the cache lives as long as the evaluation. It is bounded, evicting the least recently used
+ * search, and searches for a resource type are dropped when the type is written through the repository.
+ *
+ * <p>Searches are keyed by the resource type, the normalized search parameters, which for a retrieve
+ * carry the context, code path, codes and date range, and the headers. The cached bundles are shared and
+ * must be treated as read-only.</p>
+ *
+ * <p>If a {@link CqlProfile} is attached to the request, the time and result size of every search are
+ * recorded in it.</p>
+ */
+public class RetrieveCachingRepository extends HapiFhirRepository {
+
+	private final Map<String, IBaseBundle> mySearches;
+	private final CqlProfile myProfile;
+	private int myHits;
+	private int myMisses;
+
+	public RetrieveCachingRepository(
+			DaoRegistry theDaoRegistry,
+			RequestDetails theRequestDetails,
+			RestfulServer theRestfulServer,
+			int theMaxSize) {
+		super(theDaoRegistry, theRequestDetails, theRestfulServer);
+		myProfile = CqlProfile.from(theRequestDetails);
+		mySearches = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, IBaseBundle> theEldest) {
+				return size() > theMaxSize;
+			}
+		};
+	}
+
+	@Override
+	public synchronized <B extends IBaseBundle, T extends IBaseResource> B search(
+			Class<B> theBundleType,
+			Class<T> theResourceType,
+			Multimap<String, List<IQueryParameterType>> theSearchParameters,
+			Map<String, String> theHeaders) {
+		long start = System.nanoTime();
+		String key = key(theResourceType, theSearchParameters, theHeaders);
+		IBaseBundle bundle = mySearches.get(key);
+		if (bundle != null && theBundleType.isInstance(bundle)) {
+			myHits++;
+			profile(theResourceType, "cache", bundle, start);
+			return theBundleType.cast(bundle);
+		}
+		myMisses++;
+		B result = searchUncached(theBundleType, theResourceType, theSearchParameters, theHeaders);
+		mySearches.put(key, result);
+		profile(theResourceType, "database", result, start);
+		return result;
+	}
+
+	/**
+	 * Runs a search that is not in the cache.
+	 */
+	protected <B extends IBaseBundle, T extends IBaseResource> B searchUncached(
+			Class<B> theBundleType,
+			Class<T> theResourceType,
+			Multimap<String, List<IQueryParameterType>> theSearchParameters,
+			Map<String, String> theHeaders) {
+		return super.search(theBundleType, theResourceType, theSearchParameters, theHeaders);
+	}
+
+	/**
+	 * Records a search answered from the given source in the profile of the request, if any.
+	 *
+	 * @param theStart the {@link System#nanoTime()} the search started at
+	 */
+	protected void profile(
+			Class<? extends IBaseResource> theResourceType, String theSource, IBaseBundle theBundle, long theStart) {
+		if (myProfile != null) {
+			myProfile.addRetrieve(
+					fhirContext().getResourceType(theResourceType),
+					theSource,
+					BundleUtil.toListOfResources(fhirContext(), theBundle).size(),
+					System.nanoTime() - theStart);
+		}
+	}
+
+	public synchronized int getHits() {
+		return myHits;
+	}
+
+	public synchronized int getMisses() {
+		return myMisses;
+	}
+
+	@Override
+	public <T extends IBaseResource> MethodOutcome create(T theResource, Map<String, String> theHeaders) {
+		invalidate(Set.of(fhirContext().getResourceType(theResource)));
+		return super.create(theResource, theHeaders);
+	}
+
+	@Override
+	public <T extends IBaseResource> MethodOutcome update(T theResource, Map<String, String> theHeaders) {
+		invalidate(Set.of(fhirContext().getResourceType(theResource)));
+		return super.update(theResource, theHeaders);
+	}
+
+	@Override
+	public <I extends IIdType, P extends IBaseParameters> MethodOutcome patch(
+			I theId, P thePatchParameters, Map<String, String> theHeaders) {
+		invalidate(theId.hasResourceType() ? Set.of(theId.getResourceType()) : null);
+		return super.patch(theId, thePatchParameters, theHeaders);
+	}
+
+	@Override
+	public <T extends IBaseResource, I extends IIdType> MethodOutcome delete(
+			Class<T> theResourceType, I theId, Map<String, String> theHeaders) {
+		invalidate(Set.of(fhirContext().getResourceType(theResourceType)));
+		return super.delete(theResourceType, theId, theHeaders);
+	}
+
+	@Override
+	public <B extends IBaseBundle> B transaction(B theTransaction, Map<String, String> theHeaders) {
+		invalidate(resourceTypes(theTransaction));
+		return super.transaction(theTransaction, theHeaders);
+	}
+
+	/**
+	 * Drops the searches for the given resource types, or all searches if the types are not known.
+	 * Evaluations write little, e.g. CR ensures a SearchParameter exists on every measure evaluation, so
+	 * searches for other types are kept.
+	 */
+	protected synchronized void invalidate(Set<String> theResourceTypes) {
+		if (theResourceTypes == null) {
+			mySearches.clear();
+			return;
+		}
+		mySearches.keySet().removeIf(key -> theResourceTypes.contains(key.substring(0, key.indexOf('?'))));
+	}
+
+	/**
+	 * @return the resource types written by a transaction, {@code null} if an entry's type is not known
+	 */
+	private Set<String> resourceTypes(IBaseBundle theTransaction) {
+		Set<String> types = new HashSet<>();
+		for (BundleEntryParts entry : BundleUtil.toListOfEntries(fhirContext(), theTransaction)) {
+			if (entry.getResource() != null) {
+				types.add(fhirContext().getResourceType(entry.getResource()));
+			} else if (StringUtils.isNotBlank(entry.getUrl())) {
+				types.add(StringUtils.substringBefore(StringUtils.substringBefore(entry.getUrl(), "?"), "/"));
+			} else {
+				return null;
+			}
+		}
+		return types;
+	}
+
+	private String key(
+			Class<? extends IBaseResource> theResourceType,
+			Multimap<String, List<IQueryParameterType>> theSearchParameters,
+			Map<String, String> theHeaders) {
+		List<String> parameters = new ArrayList<>();
+		if (theSearchParameters != null) {
+			theSearchParameters.forEach((name, values) -> {
+				List<String> tokens = new ArrayList<>(values.size());
+				String qualifier = "";
+				for (IQueryParameterType value : values) {
+					tokens.add(value.getValueAsQueryToken(fhirContext()));
+					if (value.getQueryParameterQualifier() != null) {
+						qualifier = value.getQueryParameterQualifier();
+					}
+				}
+				Collections.sort(tokens);
+				parameters.add(name + qualifier + "=" + String.join(",", tokens));
+			});
+		}
+		Collections.sort(parameters);
+		String headers = theHeaders == null || theHeaders.isEmpty() ? "" : new TreeMap<>(theHeaders).toString();
+		return fhirContext().getResourceType(theResourceType) + "?" + String.join("&", parameters) + headers;
+	}
+}
@@ -1,6 +1,8 @@
 package ca.uhn.fhir.jpa.starter.cr;
 
 import ca.uhn.fhir.jpa.starter.annotations.OnR4Condition;
+import ca.uhn.fhir.jpa.starter.cr.measure.MeasureEvaluationJobConfig;
+import ca.uhn.fhir.jpa.starter.cr.measure.ParallelMeasureConfig;
 import org.opencds.cqf.fhir.cr.hapi.config.r4.ApplyOperationConfig;
 import org.opencds.cqf.fhir.cr.hapi.config.r4.CrR4Config;
 import org.opencds.cqf.fhir.cr.hapi.config.r4.DataRequirementsOperationConfig;
@@ -24,6 +26,8 @@ import org.springframework.context.annotation.Import;
 	ExtractOperationConfig.class,
 	PackageOperationConfig.class,
 	PopulateOperationConfig.class,
-	QuestionnaireOperationConfig.class
+	QuestionnaireOperationConfig.class,
+	ParallelMeasureConfig.class,
+	MeasureEvaluationJobConfig.class
 })
 public class StarterCrR4Config {}
@@ -0,0 +1,294 @@
+package ca.uhn.fhir.jpa.starter.cr.measure;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.jpa.api.dao.IFhirResourceDao;
+import ca.uhn.fhir.jpa.repository.HapiFhirRepository;
+import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.jpa.starter.cr.PatientDataSlice;
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
+import ca.uhn.fhir.rest.server.RestfulServer;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import com.google.common.collect.Lists;
+import org.apache.commons.lang3.StringUtils;
+import org.hl7.fhir.instance.model.api.IIdType;
+import org.hl7.fhir.r4.model.Binary;
+import org.hl7.fhir.r4.model.Group;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Measure;
+import org.hl7.fhir.r4.model.MeasureReport;
+import org.opencds.cqf.fhir.cr.hapi.r4.R4MeasureEvaluatorSingleFactory;
+import org.opencds.cqf.fhir.cr.measure.r4.utils.R4MeasureServiceUtils;
+import org.opencds.cqf.fhir.utility.monad.Eithers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Evaluates a measure over a patient population in chunks. Every patient is evaluated on its own, the
+ * chunks run in parallel on the CQL executor and their counts are merged as they complete. The subject
+ * level reports of a chunk are buffered and written to one NDJSON Binary instead of being collected in the
+ * summary report, so memory use is bounded by the chunk size rather than by the population.
+ */
+public class ChunkedMeasureEvaluator {
+	private static final Logger ourLog = LoggerFactory.getLogger(ChunkedMeasureEvaluator.class);
+
+	public static final String NDJSON_CONTENT_TYPE = "application/fhir+ndjson";
+
+	private final FhirContext myFhirContext;
+	private final DaoRegistry myDaoRegistry;
+	private final RestfulServer myRestfulServer;
+	private final R4MeasureEvaluatorSingleFactory myMeasureEvaluatorFactory;
+	private final ExecutorService myExecutor;
+	private final int myChunkSize;
+	private final PatientDataPrefetcher myPrefetcher;
+
+	public ChunkedMeasureEvaluator(
+			FhirContext theFhirContext,
+			DaoRegistry theDaoRegistry,
+			RestfulServer theRestfulServer,
+			R4MeasureEvaluatorSingleFactory theMeasureEvaluatorFactory,
+			ExecutorService theExecutor,
+			int theChunkSize,
+			PatientDataPrefetcher thePrefetcher) {
+		myFhirContext = theFhirContext;
+		myDaoRegistry = theDaoRegistry;
+		myRestfulServer = theRestfulServer;
+		myMeasureEvaluatorFactory = theMeasureEvaluatorFactory;
+		myExecutor = theExecutor;
+		myChunkSize = Math.max(1, theChunkSize);
+		myPrefetcher = thePrefetcher;
+	}
+
+	public int getChunkSize() {
+		return myChunkSize;
+	}
+
+	public MeasureReport evaluate(
+			IdType theMeasureId,
+			ZonedDateTime thePeriodStart,
+			ZonedDateTime thePeriodEnd,
+			String theSubject,
+			RequestDetails theRequestDetails) {
+		long start = System.currentTimeMillis();
+		Measure measure = readMeasure(theMeasureId, theRequestDetails);
+		List<String> subjects = resolveSubjects(theSubject, theRequestDetails);
+		ensureSupplementalDataSearchParameter(theRequestDetails);
+
+		CompletionService<MeasurePopulationTally> completionService = new ExecutorCompletionService<>(myExecutor);
+		List<Future<MeasurePopulationTally>> futures = new ArrayList<>();
+		for (List<String> chunk : Lists.partition(subjects, myChunkSize)) {
+			futures.add(completionService.submit(
+					() -> evaluateChunk(measure, thePeriodStart, thePeriodEnd, chunk, null, theRequestDetails)));
+		}
+
+		MeasurePopulationTally tally = new MeasurePopulationTally();
+		try {
+			for (int i = 0; i < futures.size(); i++) {
+				tally.merge(completionService.take().get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			futures.forEach(future -> future.cancel(true));
+			throw new InternalErrorException("Measure evaluation was interrupted", e);
+		} catch (ExecutionException e) {
+			futures.forEach(future -> future.cancel(true));
+			throw new InternalErrorException("Measure evaluation failed: " + e.getCause().getMessage(), e.getCause());
+		}
+
+		ourLog.info(
+				"Evaluated {} for {} subjects in {} chunks in {}ms",
+				theMeasureId.toUnqualifiedVersionless().getValue(),
+				tally.getSubjectCount(),
+				futures.size(),
+				System.currentTimeMillis() - start);
+		return toSummaryReport(measure, tally, thePeriodStart, thePeriodEnd);
+	}
+
+	/**
+	 * Builds the summary report of a measure from the merged tally of all chunks.
+	 */
+	public MeasureReport toSummaryReport(
+			Measure theMeasure,
+			MeasurePopulationTally theTally,
+			ZonedDateTime thePeriodStart,
+			ZonedDateTime thePeriodEnd) {
+		MeasureReport report = theTally.toSummaryReport(scoring(theMeasure));
+		if (!report.hasMeasure()) {
+			report.setMeasure(theMeasure.getUrl());
+		}
+		if (!report.hasPeriod()) {
+			report.getPeriod()
+					.setStart(Date.from(thePeriodStart.toInstant()))
+					.setEnd(Date.from(thePeriodEnd.toInstant()));
+		}
+		report.setImprovementNotation(theMeasure.getImprovementNotation());
+		return report;
+	}
+
+	/**
+	 * Creates the SearchParameter that CR ensures on every measure evaluation, before chunks are evaluated in
+	 * parallel. Otherwise the first evaluations on a server without it race to create it, and the subjects
+	 * of all but one fail.
+	 */
+	public void ensureSupplementalDataSearchParameter(RequestDetails theRequestDetails) {
+		HapiFhirRepository repository =
+				new HapiFhirRepository(myDaoRegistry, systemRequestDetails(theRequestDetails), myRestfulServer);
+		new R4MeasureServiceUtils(repository).ensureSupplementalDataElementSearchParameter();
+	}
+
+	public Measure readMeasure(IdType theMeasureId, RequestDetails theRequestDetails) {
+		return myDaoRegistry.getResourceDao(Measure.class).read(theMeasureId, theRequestDetails);
+	}
+
+	/**
+	 * Resolves the patients a population measure is evaluated for: all Patients if no subject is given, the
+	 * Patient members of a Group, or a single Patient.
+	 *
+	 * @return unqualified, versionless Patient ids such as {@code Patient/123}
+	 */
+	public List<String> resolveSubjects(String theSubject, RequestDetails theRequestDetails) {
+		if (StringUtils.isBlank(theSubject)) {
+			List<IIdType> ids = myDaoRegistry
+					.getResourceDao("Patient")
+					.searchForResourceIds(SearchParameterMap.newSynchronous(), theRequestDetails);
+			List<String> subjects = new ArrayList<>(ids.size());
+			for (IIdType id : ids) {
+				subjects.add(id.toUnqualifiedVersionless().getValue());
+			}
+			return subjects;
+		}
+
+		IdType subject = new IdType(theSubject);
+		if ("Patient".equals(subject.getResourceType())) {
+			return List.of(subject.toUnqualifiedVersionless().getValue());
+		}
+		if ("Group".equals(subject.getResourceType())) {
+			Group group = myDaoRegistry.getResourceDao(Group.class).read(subject, theRequestDetails);
+			List<String> subjects = new ArrayList<>();
+			for (Group.GroupMemberComponent member : group.getMember()) {
+				IIdType entity = member.getEntity().getReferenceElement();
+				if ("Patient".equals(entity.getResourceType())) {
+					subjects.add(entity.toUnqualifiedVersionless().getValue());
+				}
+			}
+			return subjects;
+		}
+		throw new InvalidRequestException("Subject must be a Patient or Group reference: " + theSubject);
+	}
+
+	/**
+	 * Evaluates one chunk of patients, each into an individual report, and writes the reports to one NDJSON
+	 * Binary. A patient that fails to evaluate is counted as failed and does not fail the chunk.
+	 *
+	 * <p>With a Binary id, see {@link #chunkBinaryId(String, String)}, the Binary is written with an update,
+	 * so a retried chunk replaces the reports of its earlier attempt instead of leaving them behind. Without
+	 * one, a new Binary is created.</p>
+	 *
+	 * <p>The chunk is evaluated with system request details for the tenant of the request, as the servlet
+	 * request details are not safe to share across threads and are gone by the time a background job runs.
+	 * If prefetching is enabled, the data of all patients of the chunk is loaded first and attached to the
+	 * request details, from which the repository of the evaluator answers the per-patient retrieves.</p>
+	 */
+	public MeasurePopulationTally evaluateChunk(
+			Measure theMeasure,
+			ZonedDateTime thePeriodStart,
+			ZonedDateTime thePeriodEnd,
+			List<String> theSubjects,
+			String theBinaryId,
+			RequestDetails theRequestDetails) {
+		SystemRequestDetails requestDetails = systemRequestDetails(theRequestDetails);
+		if (myPrefetcher != null) {
+			Set<String> resourceTypes = myPrefetcher.getResourceTypes(theMeasure, requestDetails);
+			if (!resourceTypes.isEmpty()) {
+				PatientDataSlice slice = myPrefetcher.prefetch(resourceTypes, theSubjects, requestDetails);
+				requestDetails.getUserData().put(PatientDataSlice.USER_DATA_KEY, slice);
+			}
+		}
+		var evaluator = myMeasureEvaluatorFactory.create(requestDetails);
+		IParser parser = myFhirContext.newJsonParser().setPrettyPrint(false);
+
+		MeasurePopulationTally tally = new MeasurePopulationTally();
+		StringBuilder ndjson = new StringBuilder();
+		for (String subject : theSubjects) {
+			MeasureReport report;
+			try {
+				report = evaluator.evaluate(
+						Eithers.forRight3(theMeasure),
+						thePeriodStart,
+						thePeriodEnd,
+						"subject",
+						subject,
+						null,
+						null,
+						null,
+						null,
+						null,
+						null,
+						null,
+						null);
+			} catch (RuntimeException e) {
+				ourLog.warn("Could not evaluate {} for {}: {}", theMeasure.getUrl(), subject, e.getMessage());
+				ourLog.debug("Evaluation failure", e);
+				tally.addFailedSubject();
+				continue;
+			}
+			tally.add(report);
+			ndjson.append(parser.encodeResourceToString(report)).append('\n');
+		}
+
+		if (!ndjson.isEmpty()) {
+			Binary binary = new Binary();
+			binary.setContentType(NDJSON_CONTENT_TYPE);
+			binary.setData(ndjson.toString().getBytes(StandardCharsets.UTF_8));
+			IFhirResourceDao<Binary> dao = myDaoRegistry.getResourceDao(Binary.class);
+			IIdType id;
+			if (theBinaryId != null) {
+				binary.setId(theBinaryId);
+				id = dao.update(binary, requestDetails).getId();
+			} else {
+				id = dao.create(binary, requestDetails).getId();
+			}
+			tally.addSubjectResults(id.toUnqualifiedVersionless().getValue());
+		}
+		return tally;
+	}
+
+	/**
+	 * The id of the Binary holding the reports of a work chunk. It is the same for every attempt at the
+	 * chunk, and a name based UUID keeps it within the 64 characters allowed for a resource id.
+	 */
+	public static String chunkBinaryId(String theInstanceId, String theChunkId) {
+		return "measure-"
+				+ UUID.nameUUIDFromBytes((theInstanceId + "/" + theChunkId).getBytes(StandardCharsets.UTF_8));
+	}
+
+	private SystemRequestDetails systemRequestDetails(RequestDetails theRequestDetails) {
+		SystemRequestDetails requestDetails = new SystemRequestDetails();
+		// the repository behind the evaluator takes the FHIR context and paging settings from the server
+		requestDetails.setServer(myRestfulServer);
+		if (theRequestDetails != null) {
+			requestDetails.setTenantId(theRequestDetails.getTenantId());
+		}
+		return requestDetails;
+	}
+
+	private static String scoring(Measure theMeasure) {
+		return theMeasure.hasScoring() ? theMeasure.getScoring().getCodingFirstRep().getCode() : null;
+	}
+}
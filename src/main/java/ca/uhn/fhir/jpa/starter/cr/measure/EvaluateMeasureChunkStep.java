@@ -0,0 +1,58 @@
+package ca.uhn.fhir.jpa.starter.cr.measure;
+
+import ca.uhn.fhir.batch2.api.IJobDataSink;
+import ca.uhn.fhir.batch2.api.IJobStepWorker;
+import ca.uhn.fhir.batch2.api.JobExecutionFailedException;
+import ca.uhn.fhir.batch2.api.RunOutcome;
+import ca.uhn.fhir.batch2.api.StepExecutionDetails;
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
+import jakarta.annotation.Nonnull;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Measure;
+import org.opencds.cqf.fhir.cr.hapi.common.StringTimePeriodHandler;
+
+/**
+ * Evaluates one chunk of patients. The subject level reports are written to a Binary right away and only
+ * the counts are passed on to the reduction step.
+ */
+public class EvaluateMeasureChunkStep
+		implements IJobStepWorker<MeasureEvaluationJobParameters, MeasureSubjectChunk, MeasureChunkResult> {
+
+	private final FhirContext myFhirContext;
+	private final ChunkedMeasureEvaluator myEvaluator;
+	private final StringTimePeriodHandler myStringTimePeriodHandler;
+
+	public EvaluateMeasureChunkStep(
+			FhirContext theFhirContext,
+			ChunkedMeasureEvaluator theEvaluator,
+			StringTimePeriodHandler theStringTimePeriodHandler) {
+		myFhirContext = theFhirContext;
+		myEvaluator = theEvaluator;
+		myStringTimePeriodHandler = theStringTimePeriodHandler;
+	}
+
+	@Nonnull
+	@Override
+	public RunOutcome run(
+			@Nonnull StepExecutionDetails<MeasureEvaluationJobParameters, MeasureSubjectChunk> theStepExecutionDetails,
+			@Nonnull IJobDataSink<MeasureChunkResult> theDataSink)
+			throws JobExecutionFailedException {
+		MeasureEvaluationJobParameters parameters = theStepExecutionDetails.getParameters();
+		SystemRequestDetails requestDetails = MeasureEvaluationJobConfig.requestDetails(parameters);
+		Measure measure = myEvaluator.readMeasure(new IdType(parameters.getMeasureId()), requestDetails);
+
+		MeasurePopulationTally tally = myEvaluator.evaluateChunk(
+				measure,
+				myStringTimePeriodHandler.deSerialize(parameters.getPeriodStart()),
+				myStringTimePeriodHandler.deSerialize(parameters.getPeriodEnd()),
+				theStepExecutionDetails.getData().getSubjects(),
+				ChunkedMeasureEvaluator.chunkBinaryId(
+						theStepExecutionDetails.getInstance().getInstanceId(), theStepExecutionDetails.getChunkId()),
+				requestDetails);
+
+		String report = myFhirContext.newJsonParser().encodeResourceToString(tally.toSummaryReport(null));
+		theDataSink.accept(new MeasureChunkResult(report, tally.getSubjectCount()));
+		return new RunOutcome(tally.getSubjectCount());
+	}
+}
@@ -0,0 +1,55 @@
+package ca.uhn.fhir.jpa.starter.cr.measure;
+
+import ca.uhn.fhir.batch2.api.IFirstJobStepWorker;
+import ca.uhn.fhir.batch2.api.IJobDataSink;
+import ca.uhn.fhir.batch2.api.JobExecutionFailedException;
+import ca.uhn.fhir.batch2.api.RunOutcome;
+import ca.uhn.fhir.batch2.api.StepExecutionDetails;
+import ca.uhn.fhir.batch2.api.VoidModel;
+import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
+import com.google.common.collect.Lists;
+import jakarta.annotation.Nonnull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Resolves the patient population and splits it into work chunks. Each chunk is persisted, so chunks that
+ * completed before a restart are not evaluated again.
+ */
+public class GenerateMeasureChunksStep
+		implements IFirstJobStepWorker<MeasureEvaluationJobParameters, MeasureSubjectChunk> {
+	private static final Logger ourLog = LoggerFactory.getLogger(GenerateMeasureChunksStep.class);
+
+	private final ChunkedMeasureEvaluator myEvaluator;
+
+	public GenerateMeasureChunksStep(ChunkedMeasureEvaluator theEvaluator) {
+		myEvaluator = theEvaluator;
+	}
+
+	@Nonnull
+	@Override
+	public RunOutcome run(
+			@Nonnull StepExecutionDetails<MeasureEvaluationJobParameters, VoidModel> theStepExecutionDetails,
+			@Nonnull IJobDataSink<MeasureSubjectChunk> theDataSink)
+			throws JobExecutionFailedException {
+		MeasureEvaluationJobParameters parameters = theStepExecutionDetails.getParameters();
+		SystemRequestDetails requestDetails = MeasureEvaluationJobConfig.requestDetails(parameters);
+		List<String> subjects = myEvaluator.resolveSubjects(parameters.getSubject(), requestDetails);
+		myEvaluator.ensureSupplementalDataSearchParameter(requestDetails);
+		int chunkSize = parameters.getChunkSize() > 0 ? parameters.getChunkSize() : myEvaluator.getChunkSize();
+
+		int chunks = 0;
+		for (List<String> chunk : Lists.partition(subjects, chunkSize)) {
+			theDataSink.accept(new MeasureSubjectChunk(chunk));
+			chunks++;
+		}
+		ourLog.info(
+				"Measure evaluation job {} split {} subjects into {} chunks",
+				theStepExecutionDetails.getInstance().getInstanceId(),
+				subjects.size(),
+				chunks);
+		return new RunOutcome(subjects.size());
+	}
+}
@@ -0,0 +1,32 @@
+package ca.uhn.fhir.jpa.starter.cr.measure;
+
+import ca.uhn.fhir.model.api.IModelJson;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * The counts of an evaluated chunk, as an encoded summary MeasureReport, see
+ * {@link MeasurePopulationTally#addChunkReport}.
+ */
+public class MeasureChunkResult implements IModelJson {
+
+	@JsonProperty("report")
+	private String myReport;
+
+	@JsonProperty("subjectCount")
+	private int mySubjectCount;
+
+	public MeasureChunkResult() {}
+
+	public MeasureChunkResult(String theReport, int theSubjectCount) {
+		myReport = theReport;
+		mySubjectCount = theSubjectCount;
+	}
+
+	public String getReport() {
+		return myReport;
+	}
+
+	public int getSubjectCount() {
+		return mySubjectCount;
+	}
+}
@@ -0,0 +1,185 @@
+package ca.uhn.fhir.jpa.starter.cr.measure;
+
+import ca.uhn.fhir.batch2.api.IJobCoordinator;
+import ca.uhn.fhir.batch2.model.JobInstanceStartRequest;
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.HookParams;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.api.EncodingEnum;
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.server.RestfulServerUtils;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
+import jakarta.servlet.http.HttpServletResponse;
+import org.apache.commons.lang3.StringUtils;
+import org.hl7.fhir.instance.model.api.IPrimitiveType;
+import org.hl7.fhir.r4.model.Measure;
+import org.hl7.fhir.r4.model.OperationOutcome;
+import org.hl7.fhir.r4.model.Parameters;
+import org.opencds.cqf.fhir.cr.hapi.common.StringTimePeriodHandler;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Runs {@code Measure/[id]/$evaluate-measure} and {@code $evaluate-measure-parallel} requests sent with
+ * {@code Prefer: respond-async} as a measure evaluation job. The request is answered with
+ * {@code 202 Accepted} and a {@code Content-Location} pointing to {@code $measure-poll-status}, which
+ * returns the summary MeasureReport once the job has completed.
+ * <p>
+ * The job evaluates the population of a period, optionally restricted to a Patient or Group subject, and
+ * only produces a summary report. Requests with any other parameter, or another report type, are rejected
+ * rather than answered with a report that ignores them.
+ * </p>
+ * <p>
+ * This hook runs before the request reaches its operation method, and with it the
+ * {@link Pointcut#SERVER_INCOMING_REQUEST_PRE_HANDLED} hooks of the authorization and consent interceptors.
+ * Those hooks are therefore called here before the job is started, and the Measure is read on behalf of the
+ * caller, so that an asynchronous evaluation is only started for a caller allowed to run it synchronously.
+ * </p>
+ */
+@Interceptor
+public class MeasureEvaluationAsyncInterceptor {
+
+	static final Set<String> OPERATIONS = Set.of("$evaluate-measure", "$evaluate-measure-parallel");
+	static final Set<String> SUPPORTED_PARAMETERS = Set.of("periodStart", "periodEnd", "subject", "reportType");
+	static final Set<String> SUPPORTED_REPORT_TYPES = Set.of("population", "summary");
+
+	private final IJobCoordinator myJobCoordinator;
+	private final DaoRegistry myDaoRegistry;
+	private final StringTimePeriodHandler myStringTimePeriodHandler;
+	private final int myChunkSize;
+
+	public MeasureEvaluationAsyncInterceptor(
+			IJobCoordinator theJobCoordinator,
+			DaoRegistry theDaoRegistry,
+			StringTimePeriodHandler theStringTimePeriodHandler,
+			int theChunkSize) {
+		myJobCoordinator = theJobCoordinator;
+		myDaoRegistry = theDaoRegistry;
+		myStringTimePeriodHandler = theStringTimePeriodHandler;
+		myChunkSize = theChunkSize;
+	}
+
+	@Hook(Pointcut.SERVER_INCOMING_REQUEST_POST_PROCESSED)
+	public boolean incomingRequestPostProcessed(RequestDetails theRequestDetails, HttpServletResponse theResponse)
+			throws IOException {
+		if (!"Measure".equals(theRequestDetails.getResourceName())
+				|| theRequestDetails.getOperation() == null
+				|| !OPERATIONS.contains(theRequestDetails.getOperation())
+				|| theRequestDetails.getId() == null
+				|| !theRequestDetails.getId().hasIdPart()
+				|| !RestfulServerUtils.parsePreferHeader(theRequestDetails.getHeader(Constants.HEADER_PREFER))
+						.getRespondAsync()) {
+			return true;
+		}
+
+		Map<String, String> parameters = operationParameters(theRequestDetails);
+		validate(parameters);
+		if (StringUtils.isBlank(parameters.get("periodStart")) || StringUtils.isBlank(parameters.get("periodEnd"))) {
+			throw new InvalidRequestException("periodStart and periodEnd are required for an asynchronous measure evaluation");
+		}
+		authorize(theRequestDetails);
+		MeasureEvaluationJobParameters jobParameters = new MeasureEvaluationJobParameters()
+				.setMeasureId(theRequestDetails.getId().toUnqualifiedVersionless().getValue())
+				.setPeriodStart(myStringTimePeriodHandler.serialize(myStringTimePeriodHandler.getStartZonedDateTime(
+						parameters.get("periodStart"), theRequestDetails)))
+				.setPeriodEnd(myStringTimePeriodHandler.serialize(myStringTimePeriodHandler.getEndZonedDateTime(
+						parameters.get("periodEnd"), theRequestDetails)))
+				.setSubject(parameters.get("subject"))
+				.setChunkSize(myChunkSize)
+				.setTenantId(theRequestDetails.getTenantId());
+
+		JobInstanceStartRequest request = new JobInstanceStartRequest();
+		request.setJobDefinitionId(MeasureEvaluationJobConfig.JOB_MEASURE_EVALUATION);
+		request.setParameters(jobParameters);
+		String instanceId = myJobCoordinator.startInstance(theRequestDetails, request).getInstanceId();
+
+		String pollLocation = theRequestDetails.getFhirServerBase() + "/"
+				+ MeasureEvaluationPollStatusProvider.OPERATION_POLL_STATUS + "?"
+				+ MeasureEvaluationPollStatusProvider.PARAM_JOB_ID + "=" + instanceId;
+		OperationOutcome outcome = new OperationOutcome();
+		outcome.addIssue()
+				.setSeverity(OperationOutcome.IssueSeverity.INFORMATION)
+				.setCode(OperationOutcome.IssueType.INFORMATIONAL)
+				.setDiagnostics("Started measure evaluation job " + instanceId);
+
+		EncodingEnum encoding =
+				RestfulServerUtils.determineResponseEncodingWithDefault(theRequestDetails).getEncoding();
+		theResponse.setStatus(HttpServletResponse.SC_ACCEPTED);
+		theResponse.setHeader(Constants.HEADER_CONTENT_LOCATION, pollLocation);
+		theResponse.setContentType(encoding.getResourceContentTypeNonLegacy());
+		theResponse.setCharacterEncoding(Constants.CHARSET_NAME_UTF8);
+		encoding.newParser(theRequestDetails.getFhirContext()).encodeResourceToWriter(outcome, theResponse.getWriter());
+		return false;
+	}
+
+	/**
+	 * Calls the pre-handled hooks as the operation method would, then reads the Measure as the caller.
+	 */
+	private void authorize(RequestDetails theRequestDetails) {
+		if (theRequestDetails.getInterceptorBroadcaster() != null) {
+			HookParams params = new HookParams()
+					.add(RestOperationTypeEnum.class, theRequestDetails.getRestOperationType())
+					.add(RequestDetails.class, theRequestDetails)
+					.addIfMatchesType(ServletRequestDetails.class, theRequestDetails);
+			theRequestDetails.getInterceptorBroadcaster().callHooks(Pointcut.SERVER_INCOMING_REQUEST_PRE_HANDLED, params);
+		}
+		myDaoRegistry.getResourceDao(Measure.class).read(theRequestDetails.getId(), theRequestDetails);
+	}
+
+	private static void validate(Map<String, String> theParameters) {
+		Set<String> unsupported = new TreeSet<>(theParameters.keySet());
+		unsupported.removeAll(SUPPORTED_PARAMETERS);
+		if (!unsupported.isEmpty()) {
+			throw new InvalidRequestException(
+					"Parameters not supported for an asynchronous measure evaluation: " + unsupported);
+		}
+		String reportType = theParameters.get("reportType");
+		if (reportType != null && !SUPPORTED_REPORT_TYPES.contains(reportType)) {
+			throw new InvalidRequestException("Report type " + reportType
+					+ " is not supported for an asynchronous measure evaluation, use population");
+		}
+	}
+
+	/**
+	 * Operation parameters from the query string and, for POSTs, from the Parameters body. Parameters without
+	 * a primitive value, e.g. additionalData, are returned with a {@code null} value, and the query string's
+	 * {@code _format} and other underscore parameters are left out.
+	 */
+	private static Map<String, String> operationParameters(RequestDetails theRequestDetails) {
+		Map<String, String> parameters = new HashMap<>();
+		theRequestDetails.getParameters().forEach((name, values) -> {
+			if (!name.startsWith("_") && values != null && values.length > 0) {
+				parameters.put(name, values[0]);
+			}
+		});
+
+		byte[] body = theRequestDetails.loadRequestContents();
+		if (body != null && body.length > 0) {
+			EncodingEnum encoding = EncodingEnum.forContentType(theRequestDetails.getHeader(Constants.HEADER_CONTENT_TYPE));
+			if (encoding == null) {
+				throw new InvalidRequestException("Unsupported content type for an asynchronous measure evaluation");
+			}
+			Parameters resource = encoding.newParser(theRequestDetails.getFhirContext())
+					.parseResource(Parameters.class, new String(body, Constants.CHARSET_UTF8));
+			for (Parameters.ParametersParameterComponent parameter : resource.getParameter()) {
+				if (parameter.getValue() instanceof IPrimitiveType<?> value) {
+					if (StringUtils.isNotBlank(value.getValueAsString())) {
+						parameters.put(parameter.getName(), value.getValueAsString());
+					}
+				} else {
+					parameters.put(parameter.getName(), null);
+				}
+			}
+		}
+		return parameters;
+	}
+}
@@ -0,0 +1,115 @@
+package ca.uhn.fhir.jpa.starter.cr.measure;
+
+import ca.uhn.fhir.batch2.api.IJobCoordinator;
+import ca.uhn.fhir.batch2.model.JobDefinition;
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.jpa.starter.annotations.OnR4Condition;
+import ca.uhn.fhir.jpa.starter.cr.CrConfigCondition;
+import ca.uhn.fhir.jpa.starter.cr.CrProperties;
+import ca.uhn.fhir.jpa.starter.cr.PostInitProviderRegisterer;
+import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
+import ca.uhn.fhir.rest.server.RestfulServer;
+import ca.uhn.fhir.rest.server.provider.ResourceProviderFactory;
+import org.apache.commons.lang3.StringUtils;
+import org.opencds.cqf.fhir.cr.hapi.common.StringTimePeriodHandler;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measure evaluation as a Batch2 job. The patient population is split into persisted work chunks which
+ * are evaluated by whichever node picks them up, so an evaluation survives restarts and spreads across
+ * nodes sharing the database. Progress is reported through the job instance, see
+ * {@link MeasureEvaluationPollStatusProvider} and the {@code /control/jobs} endpoint.
+ */
+@Configuration
+@Conditional({OnR4Condition.class, CrConfigCondition.class})
+public class MeasureEvaluationJobConfig {
+
+	public static final String JOB_MEASURE_EVALUATION = "MEASURE_EVALUATION";
+
+	@Bean
+	public JobDefinition<MeasureEvaluationJobParameters> measureEvaluationJobDefinition(
+			FhirContext theFhirContext,
+			DaoRegistry theDaoRegistry,
+			ChunkedMeasureEvaluator theChunkedMeasureEvaluator,
+			StringTimePeriodHandler theStringTimePeriodHandler) {
+		return JobDefinition.newBuilder()
+				.setJobDefinitionId(JOB_MEASURE_EVALUATION)
+				.setJobDescription("Evaluate a measure over a patient population")
+				.setJobDefinitionVersion(1)
+				.setParametersType(MeasureEvaluationJobParameters.class)
+				.setParametersValidator((theRequestDetails, theParameters) -> validate(theParameters))
+				.gatedExecution()
+				.addFirstStep(
+						"generate-chunks",
+						"Split the patient population into chunks",
+						MeasureSubjectChunk.class,
+						new GenerateMeasureChunksStep(theChunkedMeasureEvaluator))
+				.addIntermediateStep(
+						"evaluate-chunk",
+						"Evaluate the measure for a chunk of patients",
+						MeasureChunkResult.class,
+						new EvaluateMeasureChunkStep(
+								theFhirContext, theChunkedMeasureEvaluator, theStringTimePeriodHandler))
+				.addFinalReducerStep(
+						"create-report",
+						"Merge the chunk counts into the summary MeasureReport",
+						MeasureEvaluationJobResult.class,
+						new MeasureReportReducerStep(
+								theFhirContext, theDaoRegistry, theChunkedMeasureEvaluator, theStringTimePeriodHandler))
+				.build();
+	}
+
+	@Bean
+	public MeasureEvaluationAsyncInterceptor measureEvaluationAsyncInterceptor(
+			IJobCoordinator theJobCoordinator,
+			DaoRegistry theDaoRegistry,
+			StringTimePeriodHandler theStringTimePeriodHandler,
+			CrProperties theCrProperties,
+			RestfulServer theRestfulServer) {
+		MeasureEvaluationAsyncInterceptor interceptor = new MeasureEvaluationAsyncInterceptor(
+				theJobCoordinator,
+				theDaoRegistry,
+				theStringTimePeriodHandler,
+				theCrProperties.getMeasure().getChunkSize());
+		theRestfulServer.registerInterceptor(interceptor);
+		return interceptor;
+	}
+
+	@Bean
+	public MeasureEvaluationPollStatusProvider measureEvaluationPollStatusProvider(
+			IJobCoordinator theJobCoordinator,
+			DaoRegistry theDaoRegistry,
+			ResourceProviderFactory theResourceProviderFactory,
+			PostInitProviderRegisterer thePostInitProviderRegisterer) {
+		MeasureEvaluationPollStatusProvider provider =
+				new MeasureEvaluationPollStatusProvider(theJobCoordinator, theDaoRegistry);
+		theResourceProviderFactory.addSupplier(() -> provider);
+		return provider;
+	}
+
+	/**
+	 * Request details for the job steps, which run without a client request.
+	 */
+	static SystemRequestDetails requestDetails(MeasureEvaluationJobParameters theParameters) {
+		SystemRequestDetails requestDetails = new SystemRequestDetails();
+		requestDetails.setTenantId(theParameters.getTenantId());
+		return requestDetails;
+	}
+
+	private static List<String> validate(MeasureEvaluationJobParameters theParameters) {
+		List<String> errors = new ArrayList<>();
+		if (StringUtils.isBlank(theParameters.getMeasureId())) {
+			errors.add("A measure is required");
+		}
+		if (StringUtils.isBlank(theParameters.getPeriodStart()) || StringUtils.isBlank(theParameters.getPeriodEnd())) {
+			errors.add("A measurement period is required");
+		}
+		return errors;
+	}
+}
@@ -0,0 +1,84 @@
+package ca.uhn.fhir.jpa.starter.cr.measure;
+
+import ca.uhn.fhir.model.api.IModelJson;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Parameters of the measure evaluation job. The period is kept as serialized by the
+ * {@link org.opencds.cqf.fhir.cr.hapi.common.StringTimePeriodHandler}, so that the time zone of the
+ * original request applies.
+ */
+public class MeasureEvaluationJobParameters implements IModelJson {
+
+	@JsonProperty("measureId")
+	private String myMeasureId;
+
+	@JsonProperty("periodStart")
+	private String myPeriodStart;
+
+	@JsonProperty("periodEnd")
+	private String myPeriodEnd;
+
+	@JsonProperty("subject")
+	private String mySubject;
+
+	@JsonProperty("chunkSize")
+	private int myChunkSize;
+
+	@JsonProperty("tenantId")
+	private String myTenantId;
+
+	public String getMeasureId() {
+		return myMeasureId;
+	}
+
+	public MeasureEvaluationJobParameters setMeasureId(String theMeasureId) {
+		myMeasureId = theMeasureId;
+		return this;
+	}
+
+	public String getPeriodStart() {
+		return myPeriodStart;
+	}
+
+	public MeasureEvaluationJobParameters setPeriodStart(String thePeriodStart) {
+		myPeriodStart = thePeriodStart;
+		return this;
+	}
+
+	public String getPeriodEnd() {
+		return myPeriodEnd;
+	}
+
+	public MeasureEvaluationJobParameters setPeriodEnd(String thePeriodEnd) {
+		myPeriodEnd = thePeriodEnd;
+		return this;
+	}
+
+	public String getSubject() {
+		return mySubject;
+	}
+
+	public MeasureEvaluationJobParameters setSubject(String theSubject) {
+		mySubject = theSubject;
+		return this;
+	}
+
+	public int getChunkSize() {
+		return myChunkSize;
+	}
+
+	public MeasureEvaluationJobParameters setChunkSize(int theChunkSize) {
+		myChunkSize = theChunkSize;
+		return this;
+	}
+
+	public String getTenantId() {
+		return myTenantId;
+	}
+
+	public MeasureEvaluationJobParameters setTenantId(String theTenantId) {
+		myTenantId = theTenantId;
+		return this;
+	}
+}
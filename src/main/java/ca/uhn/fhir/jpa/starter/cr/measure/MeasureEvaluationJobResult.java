@@ -0,0 +1,39 @@
+package ca.uhn.fhir.jpa.starter.cr.measure;
+
+import ca.uhn.fhir.model.api.IModelJson;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * The report of a completed measure evaluation job, referencing the stored summary MeasureReport.
+ */
+public class MeasureEvaluationJobResult implements IModelJson {
+
+	@JsonProperty("measureReport")
+	private String myMeasureReport;
+
+	@JsonProperty("subjectCount")
+	private int mySubjectCount;
+
+	@JsonProperty("failedSubjectCount")
+	private int myFailedSubjectCount;
+
+	public MeasureEvaluationJobResult() {}
+
+	public MeasureEvaluationJobResult(String theMeasureReport, int theSubjectCount, int theFailedSubjectCount) {
+		myMeasureReport = theMeasureReport;
+		mySubjectCount = theSubjectCount;
+		myFailedSubjectCount = theFailedSubjectCount;
+	}
+
+	public String getMeasureReport() {
+		return myMeasureReport;
+	}
+
+	public int getSubjectCount() {
+		return mySubjectCount;
+	}
+
+	public int getFailedSubjectCount() {
+		return myFailedSubjectCount;
+	}
+}
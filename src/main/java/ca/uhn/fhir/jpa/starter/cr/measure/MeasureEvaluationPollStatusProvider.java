@@ -0,0 +1,92 @@
+package ca.uhn.fhir.jpa.starter.cr.measure;
+
+import ca.uhn.fhir.batch2.api.IJobCoordinator;
+import ca.uhn.fhir.batch2.model.JobInstance;
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.rest.annotation.Operation;
+import ca.uhn.fhir.rest.annotation.OperationParam;
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.api.EncodingEnum;
+import ca.uhn.fhir.rest.server.RestfulServerUtils;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
+import ca.uhn.fhir.util.JsonUtil;
+import jakarta.servlet.http.HttpServletResponse;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IPrimitiveType;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.MeasureReport;
+import org.hl7.fhir.r4.model.OperationOutcome;
+
+import java.io.IOException;
+
+/**
+ * Reports the state of a measure evaluation job started with {@code Prefer: respond-async}:
+ * {@code 202 Accepted} with an {@code X-Progress} header while it runs, the summary MeasureReport once it
+ * has completed, or an OperationOutcome if it has failed or was cancelled.
+ */
+public class MeasureEvaluationPollStatusProvider {
+
+	public static final String OPERATION_POLL_STATUS = "$measure-poll-status";
+	public static final String PARAM_JOB_ID = "_jobId";
+
+	private final IJobCoordinator myJobCoordinator;
+	private final DaoRegistry myDaoRegistry;
+
+	public MeasureEvaluationPollStatusProvider(IJobCoordinator theJobCoordinator, DaoRegistry theDaoRegistry) {
+		myJobCoordinator = theJobCoordinator;
+		myDaoRegistry = theDaoRegistry;
+	}
+
+	@Operation(name = OPERATION_POLL_STATUS, manualResponse = true, idempotent = true)
+	public void pollStatus(
+			@OperationParam(name = PARAM_JOB_ID, typeName = "string", min = 1, max = 1)
+					IPrimitiveType<String> theJobId,
+			ServletRequestDetails theRequestDetails)
+			throws IOException {
+		JobInstance instance = myJobCoordinator.getInstance(theJobId.getValueAsString());
+		if (!MeasureEvaluationJobConfig.JOB_MEASURE_EVALUATION.equals(instance.getJobDefinitionId())) {
+			throw new ResourceNotFoundException("Unknown measure evaluation job: " + theJobId.getValueAsString());
+		}
+
+		HttpServletResponse response = theRequestDetails.getServletResponse();
+		switch (instance.getStatus()) {
+			case COMPLETED -> {
+				MeasureEvaluationJobResult result =
+						JsonUtil.deserialize(instance.getReport(), MeasureEvaluationJobResult.class);
+				MeasureReport report = myDaoRegistry
+						.getResourceDao(MeasureReport.class)
+						.read(new IdType(result.getMeasureReport()), theRequestDetails);
+				write(theRequestDetails, HttpServletResponse.SC_OK, report);
+			}
+			case FAILED, CANCELLED -> {
+				OperationOutcome outcome = new OperationOutcome();
+				outcome.addIssue()
+						.setSeverity(OperationOutcome.IssueSeverity.ERROR)
+						.setCode(OperationOutcome.IssueType.PROCESSING)
+						.setDiagnostics("Measure evaluation job " + instance.getStatus() + ": "
+								+ instance.getErrorMessage());
+				write(theRequestDetails, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, outcome);
+			}
+			default -> {
+				response.setStatus(HttpServletResponse.SC_ACCEPTED);
+				response.setHeader(
+						Constants.HEADER_X_PROGRESS,
+						instance.getStatus() + ", " + Math.round(instance.getProgress() * 100) + "% complete");
+				response.setHeader(Constants.HEADER_RETRY_AFTER, "10");
+				response.getWriter().close();
+			}
+		}
+	}
+
+	private static void write(ServletRequestDetails theRequestDetails, int theStatus, IBaseResource theResource)
+			throws IOException {
+		EncodingEnum encoding =
+				RestfulServerUtils.determineResponseEncodingWithDefault(theRequestDetails).getEncoding();
+		HttpServletResponse response = theRequestDetails.getServletResponse();
+		response.setStatus(theStatus);
+		response.setContentType(encoding.getResourceContentTypeNonLegacy());
+		response.setCharacterEncoding(Constants.CHARSET_NAME_UTF8);
+		encoding.newParser(theRequestDetails.getFhirContext()).encodeResourceToWriter(theResource, response.getWriter());
+	}
+}
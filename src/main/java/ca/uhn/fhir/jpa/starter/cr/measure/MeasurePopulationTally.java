@@ -0,0 +1,314 @@
+package ca.uhn.fhir.jpa.starter.cr.measure;
+
+import org.hl7.fhir.r4.model.CodeableConcept;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.Extension;
+import org.hl7.fhir.r4.model.IntegerType;
+import org.hl7.fhir.r4.model.MeasureReport;
+import org.hl7.fhir.r4.model.MeasureReport.MeasureReportGroupComponent;
+import org.hl7.fhir.r4.model.MeasureReport.MeasureReportGroupPopulationComponent;
+import org.hl7.fhir.r4.model.MeasureReport.MeasureReportGroupStratifierComponent;
+import org.hl7.fhir.r4.model.MeasureReport.StratifierGroupComponent;
+import org.hl7.fhir.r4.model.MeasureReport.StratifierGroupPopulationComponent;
+import org.hl7.fhir.r4.model.Period;
+import org.hl7.fhir.r4.model.Quantity;
+import org.hl7.fhir.r4.model.Reference;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Population, stratum and subject counts of a measure, accumulated from individual MeasureReports one
+ * subject at a time. Tallies of separately evaluated chunks are merged into the tally of the whole
+ * population, from which the summary report is built. Subject lists are not kept, the subject level
+ * reports are referenced as NDJSON Binaries instead.
+ *
+ * <p>Not thread-safe, each chunk accumulates into its own tally.</p>
+ */
+public class MeasurePopulationTally {
+
+	public static final String EXT_SUBJECT_RESULTS =
+			"http://hapifhir.io/fhir/StructureDefinition/measurereport-subject-results";
+	public static final String EXT_FAILED_SUBJECT_COUNT =
+			"http://hapifhir.io/fhir/StructureDefinition/measurereport-failed-subject-count";
+
+	private final Map<String, Group> myGroups = new LinkedHashMap<>();
+	private final List<String> mySubjectResults = new ArrayList<>();
+	private String myMeasure;
+	private Period myPeriod;
+	private int mySubjectCount;
+	private int myFailedSubjectCount;
+
+	/**
+	 * Adds the individual report of a subject. A report in error is counted as a failed subject.
+	 */
+	public void add(MeasureReport theSubjectReport) {
+		if (theSubjectReport.getStatus() == MeasureReport.MeasureReportStatus.ERROR) {
+			addFailedSubject();
+			return;
+		}
+		mySubjectCount++;
+		addGroups(theSubjectReport);
+	}
+
+	/**
+	 * Adds the summary report of a separately evaluated chunk, as built by {@link #toSummaryReport(String)}.
+	 */
+	public void addChunkReport(MeasureReport theChunkReport, int theSubjectCount) {
+		mySubjectCount += theSubjectCount;
+		addGroups(theChunkReport);
+		for (Extension extension : theChunkReport.getExtensionsByUrl(EXT_SUBJECT_RESULTS)) {
+			addSubjectResults(((Reference) extension.getValue()).getReference());
+		}
+		for (Extension extension : theChunkReport.getExtensionsByUrl(EXT_FAILED_SUBJECT_COUNT)) {
+			myFailedSubjectCount += ((IntegerType) extension.getValue()).getValue();
+		}
+	}
+
+	public void addFailedSubject() {
+		myFailedSubjectCount++;
+	}
+
+	/**
+	 * Records a Binary holding subject level reports as NDJSON.
+	 */
+	public void addSubjectResults(String theBinaryId) {
+		mySubjectResults.add(theBinaryId);
+	}
+
+	public void merge(MeasurePopulationTally theOther) {
+		if (myMeasure == null) {
+			myMeasure = theOther.myMeasure;
+			myPeriod = theOther.myPeriod;
+		}
+		mySubjectCount += theOther.mySubjectCount;
+		myFailedSubjectCount += theOther.myFailedSubjectCount;
+		mySubjectResults.addAll(theOther.mySubjectResults);
+		theOther.myGroups.forEach((key, group) -> {
+			Group existing = myGroups.putIfAbsent(key, group);
+			if (existing != null) {
+				existing.merge(group);
+			}
+		});
+	}
+
+	public int getSubjectCount() {
+		return mySubjectCount;
+	}
+
+	public int getFailedSubjectCount() {
+		return myFailedSubjectCount;
+	}
+
+	public List<String> getSubjectResults() {
+		return mySubjectResults;
+	}
+
+	/**
+	 * @return the number of subjects in a population of a group, groups being keyed by id or else by position
+	 */
+	public int getCount(String theGroup, String thePopulation) {
+		Group group = myGroups.get(theGroup);
+		return group == null ? 0 : group.myPopulations.get(thePopulation);
+	}
+
+	/**
+	 * Builds the summary report. Proportion and ratio measures are scored from the merged counts, other
+	 * scorings are reported without a measure score.
+	 *
+	 * @param theScoring the code of the measure scoring, e.g. {@code proportion}
+	 */
+	public MeasureReport toSummaryReport(String theScoring) {
+		MeasureReport report = new MeasureReport();
+		report.setStatus(MeasureReport.MeasureReportStatus.COMPLETE);
+		report.setType(MeasureReport.MeasureReportType.SUMMARY);
+		report.setMeasure(myMeasure);
+		report.setPeriod(myPeriod);
+		report.setDate(new Date());
+		boolean scored = "proportion".equals(theScoring) || "ratio".equals(theScoring);
+		for (Group group : myGroups.values()) {
+			MeasureReportGroupComponent component = report.addGroup();
+			component.setId(group.myId);
+			component.setCode(group.myCode);
+			group.myPopulations.writeTo(component);
+			if (scored) {
+				component.setMeasureScore(group.myPopulations.score());
+			}
+			for (Stratifier stratifier : group.myStratifiers.values()) {
+				MeasureReportGroupStratifierComponent stratifierComponent =
+						component.addStratifier().setCode(stratifier.myCode);
+				stratifierComponent.setId(stratifier.myId);
+				for (Stratum stratum : stratifier.myStrata.values()) {
+					StratifierGroupComponent stratumComponent =
+							stratifierComponent.addStratum().setValue(stratum.myValue);
+					stratum.myPopulations.writeTo(stratumComponent);
+					if (scored) {
+						stratumComponent.setMeasureScore(stratum.myPopulations.score());
+					}
+				}
+			}
+		}
+		for (String binary : mySubjectResults) {
+			report.addExtension(EXT_SUBJECT_RESULTS, new Reference(binary));
+		}
+		if (myFailedSubjectCount > 0) {
+			report.addExtension(EXT_FAILED_SUBJECT_COUNT, new IntegerType(myFailedSubjectCount));
+		}
+		return report;
+	}
+
+	private void addGroups(MeasureReport theReport) {
+		if (myMeasure == null) {
+			myMeasure = theReport.getMeasure();
+			myPeriod = theReport.hasPeriod() ? theReport.getPeriod().copy() : null;
+		}
+		for (int i = 0; i < theReport.getGroup().size(); i++) {
+			MeasureReportGroupComponent group = theReport.getGroup().get(i);
+			myGroups.computeIfAbsent(key(group.getId(), i), k -> new Group(group))
+					.add(group);
+		}
+	}
+
+	private static String key(String theId, int theIndex) {
+		return theId != null ? theId : "#" + theIndex;
+	}
+
+	private static String key(CodeableConcept theConcept) {
+		if (theConcept == null) {
+			return "";
+		}
+		if (theConcept.hasText()) {
+			return theConcept.getText();
+		}
+		Coding coding = theConcept.getCodingFirstRep();
+		return coding.getSystem() + "|" + coding.getCode();
+	}
+
+	private static class Group {
+		private final String myId;
+		private final CodeableConcept myCode;
+		private final Counts myPopulations = new Counts();
+		private final Map<String, Stratifier> myStratifiers = new LinkedHashMap<>();
+
+		Group(MeasureReportGroupComponent theGroup) {
+			myId = theGroup.getId();
+			myCode = theGroup.hasCode() ? theGroup.getCode().copy() : null;
+		}
+
+		void add(MeasureReportGroupComponent theGroup) {
+			for (MeasureReportGroupPopulationComponent population : theGroup.getPopulation()) {
+				myPopulations.add(population.getId(), population.getCode(), population.getCount());
+			}
+			for (int i = 0; i < theGroup.getStratifier().size(); i++) {
+				MeasureReportGroupStratifierComponent stratifier = theGroup.getStratifier().get(i);
+				myStratifiers
+						.computeIfAbsent(key(stratifier.getId(), i), k -> new Stratifier(stratifier))
+						.add(stratifier);
+			}
+		}
+
+		void merge(Group theOther) {
+			myPopulations.merge(theOther.myPopulations);
+			theOther.myStratifiers.forEach((key, stratifier) -> {
+				Stratifier existing = myStratifiers.putIfAbsent(key, stratifier);
+				if (existing != null) {
+					existing.merge(stratifier);
+				}
+			});
+		}
+	}
+
+	private static class Stratifier {
+		private final String myId;
+		private final List<CodeableConcept> myCode = new ArrayList<>();
+		private final Map<String, Stratum> myStrata = new LinkedHashMap<>();
+
+		Stratifier(MeasureReportGroupStratifierComponent theStratifier) {
+			myId = theStratifier.getId();
+			theStratifier.getCode().forEach(code -> myCode.add(code.copy()));
+		}
+
+		void add(MeasureReportGroupStratifierComponent theStratifier) {
+			for (StratifierGroupComponent stratum : theStratifier.getStratum()) {
+				Stratum tally = myStrata.computeIfAbsent(key(stratum.getValue()), k -> new Stratum(stratum));
+				for (StratifierGroupPopulationComponent population : stratum.getPopulation()) {
+					tally.myPopulations.add(population.getId(), population.getCode(), population.getCount());
+				}
+			}
+		}
+
+		void merge(Stratifier theOther) {
+			theOther.myStrata.forEach((key, stratum) -> {
+				Stratum existing = myStrata.putIfAbsent(key, stratum);
+				if (existing != null) {
+					existing.myPopulations.merge(stratum.myPopulations);
+				}
+			});
+		}
+	}
+
+	private static class Stratum {
+		private final CodeableConcept myValue;
+		private final Counts myPopulations = new Counts();
+
+		Stratum(StratifierGroupComponent theStratum) {
+			myValue = theStratum.hasValue() ? theStratum.getValue().copy() : null;
+		}
+	}
+
+	/**
+	 * Counts keyed by the population code, e.g. {@code numerator}.
+	 */
+	private static class Counts {
+		private final Map<String, String> myIds = new LinkedHashMap<>();
+		private final Map<String, CodeableConcept> myCodes = new LinkedHashMap<>();
+		private final Map<String, Integer> myCounts = new LinkedHashMap<>();
+
+		void add(String theId, CodeableConcept theCode, int theCount) {
+			String code = theCode.getCodingFirstRep().getCode();
+			if (theId != null) {
+				myIds.putIfAbsent(code, theId);
+			}
+			myCodes.putIfAbsent(code, theCode.copy());
+			myCounts.merge(code, theCount, Integer::sum);
+		}
+
+		void merge(Counts theOther) {
+			theOther.myIds.forEach(myIds::putIfAbsent);
+			theOther.myCodes.forEach(myCodes::putIfAbsent);
+			theOther.myCounts.forEach((code, count) -> myCounts.merge(code, count, Integer::sum));
+		}
+
+		int get(String theCode) {
+			return myCounts.getOrDefault(theCode, 0);
+		}
+
+		void writeTo(MeasureReportGroupComponent theGroup) {
+			myCounts.forEach((code, count) -> theGroup.addPopulation()
+					.setCode(myCodes.get(code).copy())
+					.setCount(count)
+					.setId(myIds.get(code)));
+		}
+
+		void writeTo(StratifierGroupComponent theStratum) {
+			myCounts.forEach((code, count) -> theStratum
+					.addPopulation()
+					.setCode(myCodes.get(code).copy())
+					.setCount(count)
+					.setId(myIds.get(code)));
+		}
+
+		/**
+		 * Scores as CQF measures do, (numerator - numerator exclusions) / (denominator - denominator exclusions
+		 * - denominator exceptions), leaving the score empty for an empty denominator.
+		 */
+		Quantity score() {
+			int numerator = get("numerator") - get("numerator-exclusion");
+			int denominator = get("denominator") - get("denominator-exclusion") - get("denominator-exception");
+			return denominator > 0 ? new Quantity((double) numerator / denominator) : null;
+		}
+	}
+}
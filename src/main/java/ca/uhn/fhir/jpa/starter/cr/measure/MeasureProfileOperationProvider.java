@@ -0,0 +1,45 @@
+package ca.uhn.fhir.jpa.starter.cr.measure;
+
+import ca.uhn.fhir.rest.annotation.IdParam;
+import ca.uhn.fhir.rest.annotation.Operation;
+import ca.uhn.fhir.rest.annotation.OperationParam;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Measure;
+import org.hl7.fhir.r4.model.Parameters;
+import org.opencds.cqf.fhir.cr.hapi.common.StringTimePeriodHandler;
+
+/**
+ * Profiles the CQL of a measure for one patient, see {@link MeasureProfiler}. Returns an {@code expression}
+ * parameter per expression definition with its invocations, time and result size, and a {@code retrieve}
+ * parameter per resource type and source with the searches issued and resources returned.
+ */
+public class MeasureProfileOperationProvider {
+
+	private final MeasureProfiler myProfiler;
+	private final StringTimePeriodHandler myStringTimePeriodHandler;
+
+	public MeasureProfileOperationProvider(
+			MeasureProfiler theProfiler, StringTimePeriodHandler theStringTimePeriodHandler) {
+		myProfiler = theProfiler;
+		myStringTimePeriodHandler = theStringTimePeriodHandler;
+	}
+
+	/**
+	 * @param theSubject the Patient to evaluate the measure for
+	 */
+	@Operation(name = "$profile-measure", idempotent = true, type = Measure.class)
+	public Parameters profileMeasure(
+			@IdParam IdType theId,
+			@OperationParam(name = "periodStart") String thePeriodStart,
+			@OperationParam(name = "periodEnd") String thePeriodEnd,
+			@OperationParam(name = "subject", min = 1) String theSubject,
+			RequestDetails theRequestDetails) {
+		return myProfiler.profile(
+				theId,
+				myStringTimePeriodHandler.getStartZonedDateTime(thePeriodStart, theRequestDetails),
+				myStringTimePeriodHandler.getEndZonedDateTime(thePeriodEnd, theRequestDetails),
+				theSubject,
+				theRequestDetails);
+	}
+}
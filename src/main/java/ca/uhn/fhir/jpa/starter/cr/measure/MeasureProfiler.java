@@ -0,0 +1,242 @@
+package ca.uhn.fhir.jpa.starter.cr.measure;
+
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.jpa.starter.cr.CqlProfile;
+import ca.uhn.fhir.rest.api.server.IRepositoryFactory;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.param.TokenParam;
+import ca.uhn.fhir.rest.param.UriParam;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.commons.lang3.tuple.Pair;
+import org.cqframework.cql.cql2elm.model.CompiledLibrary;
+import org.hl7.elm.r1.Element;
+import org.hl7.elm.r1.ExpressionDef;
+import org.hl7.elm.r1.IntervalTypeSpecifier;
+import org.hl7.elm.r1.NamedTypeSpecifier;
+import org.hl7.elm.r1.ParameterDef;
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Library;
+import org.hl7.fhir.r4.model.Measure;
+import org.hl7.fhir.r4.model.Parameters;
+import org.opencds.cqf.cql.engine.exception.CqlException;
+import org.opencds.cqf.cql.engine.execution.CqlEngine;
+import org.opencds.cqf.cql.engine.execution.EvaluationResult;
+import org.opencds.cqf.cql.engine.execution.Profile;
+import org.opencds.cqf.cql.engine.runtime.Date;
+import org.opencds.cqf.cql.engine.runtime.DateTime;
+import org.opencds.cqf.cql.engine.runtime.Interval;
+import org.opencds.cqf.fhir.cql.CqlEngineOptions;
+import org.opencds.cqf.fhir.cql.CqlOptions;
+import org.opencds.cqf.fhir.cql.Engines;
+import org.opencds.cqf.fhir.cql.EvaluationSettings;
+import org.opencds.cqf.fhir.cr.measure.constant.MeasureConstants;
+import org.opencds.cqf.fhir.utility.Canonicals;
+
+import java.time.ZonedDateTime;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Evaluates the primary library of a measure for one patient with the engine's profiler enabled, using the
+ * same settings, caches and repositories as measure evaluation. CR creates its engines internally, so the
+ * profile of an {@code $evaluate-measure} call can not be captured; profiling the library's expressions
+ * directly shows where that evaluation spends its time, without scoring the measure.
+ */
+public class MeasureProfiler {
+
+	private final DaoRegistry myDaoRegistry;
+	private final IRepositoryFactory myRepositoryFactory;
+	private final EvaluationSettings myEvaluationSettings;
+	private final MeterRegistry myMeterRegistry;
+
+	/**
+	 * @param theMeterRegistry receives the aggregated timings, may be {@code null}
+	 */
+	public MeasureProfiler(
+			DaoRegistry theDaoRegistry,
+			IRepositoryFactory theRepositoryFactory,
+			EvaluationSettings theEvaluationSettings,
+			MeterRegistry theMeterRegistry) {
+		myDaoRegistry = theDaoRegistry;
+		myRepositoryFactory = theRepositoryFactory;
+		myEvaluationSettings = profiling(theEvaluationSettings);
+		myMeterRegistry = theMeterRegistry;
+	}
+
+	/**
+	 * @param thePeriodStart the start of the measurement period, the library's default is used if it or the
+	 *                       end is omitted
+	 * @param theSubject a Patient reference
+	 */
+	public Parameters profile(
+			IdType theMeasureId,
+			ZonedDateTime thePeriodStart,
+			ZonedDateTime thePeriodEnd,
+			String theSubject,
+			RequestDetails theRequestDetails) {
+		IdType subject = theSubject == null ? null : new IdType(theSubject);
+		if (subject == null || !"Patient".equals(subject.getResourceType()) || !subject.hasIdPart()) {
+			throw new InvalidRequestException("Subject must be a Patient reference: " + theSubject);
+		}
+		Measure measure = myDaoRegistry.getResourceDao(Measure.class).read(theMeasureId, theRequestDetails);
+		if (!measure.hasLibrary()) {
+			throw new InvalidRequestException("Measure " + theMeasureId.getIdPart() + " has no library");
+		}
+		Library library = resolveLibrary(measure.getLibrary().get(0).getValue(), theRequestDetails);
+		VersionedIdentifier libraryId =
+				new VersionedIdentifier().withId(library.getName()).withVersion(library.getVersion());
+
+		CqlProfile profile = new CqlProfile();
+		theRequestDetails.getUserData().put(CqlProfile.USER_DATA_KEY, profile);
+		try {
+			CqlEngine engine =
+					Engines.forRepository(myRepositoryFactory.create(theRequestDetails), myEvaluationSettings);
+			Map<String, Object> parameters = new HashMap<>();
+			if (thePeriodStart != null && thePeriodEnd != null) {
+				parameters.put(
+						MeasureConstants.MEASUREMENT_PERIOD_PARAMETER_NAME,
+						measurementPeriod(engine, libraryId, thePeriodStart, thePeriodEnd));
+			}
+			EvaluationResult result =
+					engine.evaluate(libraryId, Pair.of("Patient", subject.getIdPart()), parameters);
+
+			addNode(profile, result.getDebugResult().getProfile().getTree(), definingLibraries(engine));
+			result.expressionResults.forEach(
+					(name, value) -> profile.setResultSize(libraryId.getId(), name, size(value.value())));
+		} catch (CqlException e) {
+			throw new InternalErrorException(
+					"Profiled evaluation of " + libraryId.getId() + " failed: " + e.getMessage(), e);
+		} finally {
+			theRequestDetails.getUserData().remove(CqlProfile.USER_DATA_KEY);
+		}
+
+		if (myMeterRegistry != null) {
+			profile.publish(myMeterRegistry);
+		}
+		return profile.toParameters();
+	}
+
+	private Library resolveLibrary(String theCanonical, RequestDetails theRequestDetails) {
+		SearchParameterMap map =
+				SearchParameterMap.newSynchronous("url", new UriParam(Canonicals.getUrl(theCanonical)));
+		String version = Canonicals.getVersion(theCanonical);
+		if (version != null) {
+			map.add("version", new TokenParam(version));
+		}
+		List<Library> libraries =
+				myDaoRegistry.getResourceDao(Library.class).searchForResources(map, theRequestDetails);
+		if (libraries.isEmpty()) {
+			throw new ResourceNotFoundException("Library " + theCanonical + " not found");
+		}
+		return libraries.get(0);
+	}
+
+	/**
+	 * @return the measurement period with the point type the library declares, Date or DateTime
+	 */
+	private static Interval measurementPeriod(
+			CqlEngine theEngine, VersionedIdentifier theLibraryId, ZonedDateTime theStart, ZonedDateTime theEnd) {
+		ParameterDef parameter = theEngine
+				.getEnvironment()
+				.getLibraryManager()
+				.resolveLibrary(theLibraryId)
+				.resolveParameterRef(MeasureConstants.MEASUREMENT_PERIOD_PARAMETER_NAME);
+		if (parameter != null
+				&& parameter.getParameterTypeSpecifier() instanceof IntervalTypeSpecifier interval
+				&& interval.getPointType() instanceof NamedTypeSpecifier point
+				&& "Date".equals(point.getName().getLocalPart())) {
+			return new Interval(new Date(theStart.toLocalDate()), true, new Date(theEnd.toLocalDate()), true);
+		}
+		return new Interval(
+				new DateTime(theStart.toOffsetDateTime()), true, new DateTime(theEnd.toOffsetDateTime()), true);
+	}
+
+	/**
+	 * Records the expression definitions of a profile tree, their self time being the time not spent in the
+	 * definitions they reference.
+	 */
+	private static void addNode(CqlProfile theProfile, Profile.Node theNode, Map<Element, String> theLibraries) {
+		long childTime = 0;
+		for (IdentityHashMap<Element, Profile.Node> children : theNode.children.values()) {
+			for (Profile.Node child : children.values()) {
+				childTime += child.time;
+				addNode(theProfile, child, theLibraries);
+			}
+		}
+		if (theNode.expression instanceof ExpressionDef definition) {
+			theProfile.addExpression(
+					theLibraries.getOrDefault(definition, "?"),
+					definition.getName(),
+					theNode.count,
+					theNode.time,
+					Math.max(0, theNode.time - childTime));
+		}
+	}
+
+	private static Map<Element, String> definingLibraries(CqlEngine theEngine) {
+		Map<Element, String> libraries = new IdentityHashMap<>();
+		for (CompiledLibrary library :
+				theEngine.getEnvironment().getLibraryManager().getCompiledLibraries().values()) {
+			if (library.getLibrary().getStatements() != null) {
+				for (ExpressionDef definition : library.getLibrary().getStatements().getDef()) {
+					libraries.put(definition, library.getIdentifier().getId());
+				}
+			}
+		}
+		return libraries;
+	}
+
+	private static int size(Object theValue) {
+		if (theValue == null) {
+			return 0;
+		}
+		if (theValue instanceof Iterable<?> iterable) {
+			int size = 0;
+			for (Object ignored : iterable) {
+				size++;
+			}
+			return size;
+		}
+		return 1;
+	}
+
+	/**
+	 * @return a copy of the settings with the engine's profiler enabled. The options are shared with all
+	 * other evaluations and copied, the copy constructor copies the caches, which are shared again.
+	 */
+	private static EvaluationSettings profiling(EvaluationSettings theSettings) {
+		CqlEngineOptions base = theSettings.getCqlOptions().getCqlEngineOptions();
+		CqlEngineOptions engineOptions = new CqlEngineOptions();
+		Set<CqlEngine.Options> options = EnumSet.noneOf(CqlEngine.Options.class);
+		options.addAll(base.getOptions());
+		options.add(CqlEngine.Options.EnableProfiling);
+		engineOptions.setOptions(options);
+		engineOptions.setDebugLoggingEnabled(base.isDebugLoggingEnabled());
+		engineOptions.setShouldExpandValueSets(base.shouldExpandValueSets());
+		engineOptions.setPageSize(base.getPageSize());
+		engineOptions.setMaxCodesPerQuery(base.getMaxCodesPerQuery());
+		engineOptions.setQueryBatchThreshold(base.getQueryBatchThreshold());
+		engineOptions.setEnableHedisCompatibilityMode(base.isEnableHedisCompatibilityMode());
+
+		CqlOptions cqlOptions = new CqlOptions();
+		cqlOptions.setCqlCompilerOptions(theSettings.getCqlOptions().getCqlCompilerOptions());
+		cqlOptions.setUseEmbeddedLibraries(theSettings.getCqlOptions().useEmbeddedLibraries());
+		cqlOptions.setCqlEngineOptions(engineOptions);
+
+		EvaluationSettings settings = new EvaluationSettings(theSettings);
+		settings.setCqlOptions(cqlOptions);
+		settings.setLibraryCache(theSettings.getLibraryCache());
+		settings.setModelCache(theSettings.getModelCache());
+		settings.setValueSetCache(theSettings.getValueSetCache());
+		return settings;
+	}
+}
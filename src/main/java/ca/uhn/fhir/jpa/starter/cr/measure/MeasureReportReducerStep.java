@@ -0,0 +1,86 @@
+package ca.uhn.fhir.jpa.starter.cr.measure;
+
+import ca.uhn.fhir.batch2.api.ChunkExecutionDetails;
+import ca.uhn.fhir.batch2.api.IJobDataSink;
+import ca.uhn.fhir.batch2.api.IReductionStepWorker;
+import ca.uhn.fhir.batch2.api.JobExecutionFailedException;
+import ca.uhn.fhir.batch2.api.RunOutcome;
+import ca.uhn.fhir.batch2.api.StepExecutionDetails;
+import ca.uhn.fhir.batch2.model.ChunkOutcome;
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
+import jakarta.annotation.Nonnull;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Measure;
+import org.hl7.fhir.r4.model.MeasureReport;
+import org.opencds.cqf.fhir.cr.hapi.common.StringTimePeriodHandler;
+
+/**
+ * Merges the counts of all chunks and stores the summary MeasureReport. Holds the merged tally, so every
+ * job instance gets its own reducer.
+ */
+public class MeasureReportReducerStep
+		implements IReductionStepWorker<MeasureEvaluationJobParameters, MeasureChunkResult, MeasureEvaluationJobResult> {
+
+	private final FhirContext myFhirContext;
+	private final DaoRegistry myDaoRegistry;
+	private final ChunkedMeasureEvaluator myEvaluator;
+	private final StringTimePeriodHandler myStringTimePeriodHandler;
+	private final MeasurePopulationTally myTally = new MeasurePopulationTally();
+
+	public MeasureReportReducerStep(
+			FhirContext theFhirContext,
+			DaoRegistry theDaoRegistry,
+			ChunkedMeasureEvaluator theEvaluator,
+			StringTimePeriodHandler theStringTimePeriodHandler) {
+		myFhirContext = theFhirContext;
+		myDaoRegistry = theDaoRegistry;
+		myEvaluator = theEvaluator;
+		myStringTimePeriodHandler = theStringTimePeriodHandler;
+	}
+
+	@Override
+	public IReductionStepWorker<MeasureEvaluationJobParameters, MeasureChunkResult, MeasureEvaluationJobResult>
+			newInstance() {
+		return new MeasureReportReducerStep(myFhirContext, myDaoRegistry, myEvaluator, myStringTimePeriodHandler);
+	}
+
+	@Nonnull
+	@Override
+	public ChunkOutcome consume(
+			ChunkExecutionDetails<MeasureEvaluationJobParameters, MeasureChunkResult> theChunkDetails) {
+		MeasureChunkResult result = theChunkDetails.getData();
+		MeasureReport report =
+				myFhirContext.newJsonParser().parseResource(MeasureReport.class, result.getReport());
+		myTally.addChunkReport(report, result.getSubjectCount());
+		return ChunkOutcome.SUCCESS();
+	}
+
+	@Nonnull
+	@Override
+	public RunOutcome run(
+			@Nonnull StepExecutionDetails<MeasureEvaluationJobParameters, MeasureChunkResult> theStepExecutionDetails,
+			@Nonnull IJobDataSink<MeasureEvaluationJobResult> theDataSink)
+			throws JobExecutionFailedException {
+		MeasureEvaluationJobParameters parameters = theStepExecutionDetails.getParameters();
+		SystemRequestDetails requestDetails = MeasureEvaluationJobConfig.requestDetails(parameters);
+		Measure measure = myEvaluator.readMeasure(new IdType(parameters.getMeasureId()), requestDetails);
+
+		MeasureReport report = myEvaluator.toSummaryReport(
+				measure,
+				myTally,
+				myStringTimePeriodHandler.deSerialize(parameters.getPeriodStart()),
+				myStringTimePeriodHandler.deSerialize(parameters.getPeriodEnd()));
+		String id = myDaoRegistry
+				.getResourceDao(MeasureReport.class)
+				.create(report, requestDetails)
+				.getId()
+				.toUnqualifiedVersionless()
+				.getValue();
+
+		theDataSink.accept(
+				new MeasureEvaluationJobResult(id, myTally.getSubjectCount(), myTally.getFailedSubjectCount()));
+		return new RunOutcome(myTally.getSubjectCount());
+	}
+}
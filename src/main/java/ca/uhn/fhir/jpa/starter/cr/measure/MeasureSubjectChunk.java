@@ -0,0 +1,26 @@
+package ca.uhn.fhir.jpa.starter.cr.measure;
+
+import ca.uhn.fhir.model.api.IModelJson;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A chunk of patients evaluated together, as a Batch2 work chunk.
+ */
+public class MeasureSubjectChunk implements IModelJson {
+
+	@JsonProperty("subjects")
+	private List<String> mySubjects = new ArrayList<>();
+
+	public MeasureSubjectChunk() {}
+
+	public MeasureSubjectChunk(List<String> theSubjects) {
+		mySubjects = new ArrayList<>(theSubjects);
+	}
+
+	public List<String> getSubjects() {
+		return mySubjects;
+	}
+}
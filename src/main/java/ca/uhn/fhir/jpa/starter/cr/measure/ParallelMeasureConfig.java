@@ -0,0 +1,105 @@
+package ca.uhn.fhir.jpa.starter.cr.measure;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.jpa.searchparam.matcher.SearchParamMatcher;
+import ca.uhn.fhir.jpa.starter.annotations.OnR4Condition;
+import ca.uhn.fhir.jpa.starter.cr.CrConfigCondition;
+import ca.uhn.fhir.jpa.starter.cr.CrProperties;
+import ca.uhn.fhir.jpa.starter.cr.MeasureEvaluationProperties;
+import ca.uhn.fhir.jpa.starter.cr.PostInitProviderRegisterer;
+import ca.uhn.fhir.rest.api.server.IRepositoryFactory;
+import ca.uhn.fhir.rest.server.RestfulServer;
+import ca.uhn.fhir.rest.server.provider.ResourceProviderFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.opencds.cqf.fhir.cql.EvaluationSettings;
+import org.opencds.cqf.fhir.cr.hapi.common.StringTimePeriodHandler;
+import org.opencds.cqf.fhir.cr.hapi.r4.R4MeasureEvaluatorSingleFactory;
+import org.opencds.cqf.fhir.cr.measure.MeasureEvaluationOptions;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+
+@Configuration
+@Conditional({OnR4Condition.class, CrConfigCondition.class})
+public class ParallelMeasureConfig {
+
+	@Bean
+	public PatientDataPrefetcher patientDataPrefetcher(
+			FhirContext theFhirContext,
+			DaoRegistry theDaoRegistry,
+			SearchParamMatcher theSearchParamMatcher,
+			IRepositoryFactory theRepositoryFactory,
+			MeasureEvaluationOptions theMeasureEvaluationOptions) {
+		return new PatientDataPrefetcher(
+				theFhirContext,
+				theDaoRegistry,
+				theSearchParamMatcher,
+				theRepositoryFactory,
+				theMeasureEvaluationOptions);
+	}
+
+	@Bean
+	public ChunkedMeasureEvaluator chunkedMeasureEvaluator(
+			FhirContext theFhirContext,
+			DaoRegistry theDaoRegistry,
+			RestfulServer theRestfulServer,
+			R4MeasureEvaluatorSingleFactory theMeasureEvaluatorFactory,
+			ExecutorService theCqlExecutor,
+			CrProperties theCrProperties,
+			PatientDataPrefetcher thePatientDataPrefetcher) {
+		MeasureEvaluationProperties properties = theCrProperties.getMeasure();
+		return new ChunkedMeasureEvaluator(
+				theFhirContext,
+				theDaoRegistry,
+				theRestfulServer,
+				theMeasureEvaluatorFactory,
+				theCqlExecutor,
+				properties.getChunkSize(),
+				properties.isPrefetchEnabled() ? thePatientDataPrefetcher : null);
+	}
+
+	/**
+	 * Depends on the {@link PostInitProviderRegisterer} so that the provider is registered with the server
+	 * whether or not the server has already been initialized.
+	 */
+	@Bean
+	public ParallelMeasureOperationProvider parallelMeasureOperationProvider(
+			ChunkedMeasureEvaluator theChunkedMeasureEvaluator,
+			StringTimePeriodHandler theStringTimePeriodHandler,
+			ResourceProviderFactory theResourceProviderFactory,
+			PostInitProviderRegisterer thePostInitProviderRegisterer) {
+		ParallelMeasureOperationProvider provider =
+				new ParallelMeasureOperationProvider(theChunkedMeasureEvaluator, theStringTimePeriodHandler);
+		theResourceProviderFactory.addSupplier(() -> provider);
+		return provider;
+	}
+
+	@Bean
+	@ConditionalOnProperty(prefix = "hapi.fhir.cr.cql.runtime", name = "profiling_enabled", havingValue = "true")
+	public MeasureProfiler measureProfiler(
+			DaoRegistry theDaoRegistry,
+			IRepositoryFactory theRepositoryFactory,
+			EvaluationSettings theEvaluationSettings,
+			ObjectProvider<MeterRegistry> theMeterRegistry) {
+		return new MeasureProfiler(
+				theDaoRegistry, theRepositoryFactory, theEvaluationSettings, theMeterRegistry.getIfAvailable());
+	}
+
+	@Bean
+	@ConditionalOnProperty(prefix = "hapi.fhir.cr.cql.runtime", name = "profiling_enabled", havingValue = "true")
+	public MeasureProfileOperationProvider measureProfileOperationProvider(
+			MeasureProfiler theMeasureProfiler,
+			StringTimePeriodHandler theStringTimePeriodHandler,
+			ResourceProviderFactory theResourceProviderFactory,
+			PostInitProviderRegisterer thePostInitProviderRegisterer) {
+		MeasureProfileOperationProvider provider =
+				new MeasureProfileOperationProvider(theMeasureProfiler, theStringTimePeriodHandler);
+		theResourceProviderFactory.addSupplier(() -> provider);
+		return provider;
+	}
+}
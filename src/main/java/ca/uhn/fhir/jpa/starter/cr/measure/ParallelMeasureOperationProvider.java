@@ -0,0 +1,45 @@
+package ca.uhn.fhir.jpa.starter.cr.measure;
+
+import ca.uhn.fhir.rest.annotation.IdParam;
+import ca.uhn.fhir.rest.annotation.Operation;
+import ca.uhn.fhir.rest.annotation.OperationParam;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Measure;
+import org.hl7.fhir.r4.model.MeasureReport;
+import org.opencds.cqf.fhir.cr.hapi.common.StringTimePeriodHandler;
+
+/**
+ * Population measure evaluation for large populations, see {@link ChunkedMeasureEvaluator}. Unlike
+ * {@code $evaluate-measure} the summary report carries counts and scores only, subject level reports are
+ * linked as NDJSON Binaries through the {@value MeasurePopulationTally#EXT_SUBJECT_RESULTS} extension.
+ */
+public class ParallelMeasureOperationProvider {
+
+	private final ChunkedMeasureEvaluator myEvaluator;
+	private final StringTimePeriodHandler myStringTimePeriodHandler;
+
+	public ParallelMeasureOperationProvider(
+			ChunkedMeasureEvaluator theEvaluator, StringTimePeriodHandler theStringTimePeriodHandler) {
+		myEvaluator = theEvaluator;
+		myStringTimePeriodHandler = theStringTimePeriodHandler;
+	}
+
+	/**
+	 * @param theSubject a Patient or Group reference, all Patients are evaluated if omitted
+	 */
+	@Operation(name = "$evaluate-measure-parallel", idempotent = true, type = Measure.class)
+	public MeasureReport evaluateMeasureParallel(
+			@IdParam IdType theId,
+			@OperationParam(name = "periodStart") String thePeriodStart,
+			@OperationParam(name = "periodEnd") String thePeriodEnd,
+			@OperationParam(name = "subject") String theSubject,
+			RequestDetails theRequestDetails) {
+		return myEvaluator.evaluate(
+				theId,
+				myStringTimePeriodHandler.getStartZonedDateTime(thePeriodStart, theRequestDetails),
+				myStringTimePeriodHandler.getEndZonedDateTime(thePeriodEnd, theRequestDetails),
+				theSubject,
+				theRequestDetails);
+	}
+}
@@ -0,0 +1,175 @@
+package ca.uhn.fhir.jpa.starter.cr.measure;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.RuntimeResourceDefinition;
+import ca.uhn.fhir.context.RuntimeSearchParam;
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.jpa.api.dao.IFhirResourceDao;
+import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.jpa.searchparam.matcher.SearchParamMatcher;
+import ca.uhn.fhir.jpa.starter.cr.PatientDataSlice;
+import ca.uhn.fhir.model.api.IQueryParameterOr;
+import ca.uhn.fhir.rest.api.SortSpec;
+import ca.uhn.fhir.rest.api.server.IRepositoryFactory;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.param.ReferenceOrListParam;
+import ca.uhn.fhir.rest.param.ReferenceParam;
+import ca.uhn.fhir.rest.param.TokenOrListParam;
+import ca.uhn.fhir.util.FhirTerser;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IIdType;
+import org.hl7.fhir.r4.model.DataRequirement;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Library;
+import org.hl7.fhir.r4.model.Measure;
+import org.opencds.cqf.fhir.cr.measure.MeasureEvaluationOptions;
+import org.opencds.cqf.fhir.cr.measure.r4.R4DataRequirementsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Loads the data a measure needs for a chunk of patients before the chunk is evaluated. The resource
+ * types are taken from the data requirements of the measure's libraries, and each type is loaded for all
+ * patients of the chunk with one paged query per Patient compartment search parameter, instead of one
+ * query per patient and retrieve during evaluation. Types outside the Patient compartment, e.g.
+ * Medication, are left to the evaluation.
+ */
+public class PatientDataPrefetcher {
+	private static final Logger ourLog = LoggerFactory.getLogger(PatientDataPrefetcher.class);
+
+	static final int PAGE_SIZE = 1000;
+
+	private final FhirContext myFhirContext;
+	private final DaoRegistry myDaoRegistry;
+	private final SearchParamMatcher mySearchParamMatcher;
+	private final IRepositoryFactory myRepositoryFactory;
+	private final MeasureEvaluationOptions myMeasureEvaluationOptions;
+	private final Cache<String, Set<String>> myResourceTypes =
+			Caffeine.newBuilder().maximumSize(100).build();
+
+	public PatientDataPrefetcher(
+			FhirContext theFhirContext,
+			DaoRegistry theDaoRegistry,
+			SearchParamMatcher theSearchParamMatcher,
+			IRepositoryFactory theRepositoryFactory,
+			MeasureEvaluationOptions theMeasureEvaluationOptions) {
+		myFhirContext = theFhirContext;
+		myDaoRegistry = theDaoRegistry;
+		mySearchParamMatcher = theSearchParamMatcher;
+		myRepositoryFactory = theRepositoryFactory;
+		myMeasureEvaluationOptions = theMeasureEvaluationOptions;
+	}
+
+	/**
+	 * @return the Patient compartment resource types the measure retrieves, empty if its data requirements
+	 * can not be determined. Cached by measure version.
+	 */
+	public Set<String> getResourceTypes(Measure theMeasure, RequestDetails theRequestDetails) {
+		return myResourceTypes.get(
+				theMeasure.getIdElement().toUnqualified().getValue(),
+				k -> analyzeResourceTypes(theMeasure, theRequestDetails));
+	}
+
+	private Set<String> analyzeResourceTypes(Measure theMeasure, RequestDetails theRequestDetails) {
+		Library requirements;
+		try {
+			requirements = new R4DataRequirementsService(
+							myRepositoryFactory.create(theRequestDetails), myMeasureEvaluationOptions)
+					.dataRequirements(theMeasure.getIdElement().toUnqualifiedVersionless(), null, null);
+		} catch (RuntimeException e) {
+			ourLog.warn(
+					"Could not determine the data requirements of {}, its data is not prefetched: {}",
+					theMeasure.getUrl(),
+					e.getMessage());
+			return Set.of();
+		}
+
+		Set<String> types = new TreeSet<>();
+		types.add("Patient");
+		for (DataRequirement requirement : requirements.getDataRequirement()) {
+			String type = requirement.getType();
+			RuntimeResourceDefinition definition = type == null ? null : myFhirContext.getResourceDefinition(type);
+			if (definition != null && !definition.getSearchParamsForCompartmentName("Patient").isEmpty()) {
+				types.add(type);
+			}
+		}
+		ourLog.info("Prefetching {} for evaluations of {}", types, theMeasure.getUrl());
+		return types;
+	}
+
+	/**
+	 * Loads the resources of the given types for the patients.
+	 *
+	 * @param thePatients ids such as {@code Patient/123}
+	 */
+	public PatientDataSlice prefetch(
+			Set<String> theResourceTypes, List<String> thePatients, RequestDetails theRequestDetails) {
+		long start = System.currentTimeMillis();
+		PatientDataSlice slice =
+				new PatientDataSlice(myFhirContext, mySearchParamMatcher, theResourceTypes, thePatients);
+		FhirTerser terser = myFhirContext.newTerser();
+		int count = 0;
+		for (String type : theResourceTypes) {
+			if ("Patient".equals(type)) {
+				TokenOrListParam ids = new TokenOrListParam();
+				thePatients.forEach(patient -> ids.add(new IdType(patient).getIdPart()));
+				for (IBaseResource patient : search(type, "_id", ids, theRequestDetails)) {
+					slice.add(patient.getIdElement().getIdPart(), patient);
+					count++;
+				}
+				continue;
+			}
+
+			ReferenceOrListParam references = new ReferenceOrListParam();
+			thePatients.forEach(patient -> references.addOr(new ReferenceParam(patient)));
+			for (RuntimeSearchParam param :
+					myFhirContext.getResourceDefinition(type).getSearchParamsForCompartmentName("Patient")) {
+				for (IBaseResource resource : search(type, param.getName(), references, theRequestDetails)) {
+					for (IIdType owner : terser.getCompartmentOwnersForResource("Patient", resource, Set.of())) {
+						slice.add(owner.getIdPart(), resource);
+					}
+					count++;
+				}
+			}
+		}
+		ourLog.debug(
+				"Prefetched {} resources for {} patients in {}ms",
+				count,
+				thePatients.size(),
+				System.currentTimeMillis() - start);
+		return slice;
+	}
+
+	/**
+	 * Loads all matching resources page by page. A synchronous search returns at most the server's internal
+	 * synchronous search size, or a lower fetch size maximum, and a truncated result would make the slice
+	 * report the missing resources as absent. Pages are requested by offset in {@code _id} order until one
+	 * comes back empty, as the server may cap a page below the requested size.
+	 */
+	private List<IBaseResource> search(
+			String theResourceType,
+			String theParameter,
+			IQueryParameterOr<?> theValues,
+			RequestDetails theRequestDetails) {
+		IFhirResourceDao<?> dao = myDaoRegistry.getResourceDao(theResourceType);
+		List<IBaseResource> resources = new ArrayList<>();
+		while (true) {
+			SearchParameterMap map = SearchParameterMap.newSynchronous().add(theParameter, theValues);
+			map.setSort(new SortSpec("_id"));
+			map.setOffset(resources.size());
+			map.setCount(PAGE_SIZE);
+			List<? extends IBaseResource> page = dao.searchForResources(map, theRequestDetails);
+			if (page.isEmpty()) {
+				return resources;
+			}
+			resources.addAll(page);
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package de.gematik.interceptor;
+
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.IInterceptorService;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.jpa.subscription.model.CanonicalSubscription;
+import ca.uhn.fhir.jpa.subscription.model.ResourceDeliveryMessage;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Interceptor that measures the latency of REST-hook deliveries to subscriber endpoints.
+ * <p>
+ * Each delivery is recorded in the {@code gematik.subscription.delivery} timer, tagged with
+ * the endpoint host (not the full URL, to keep the tag cardinality low) and the outcome.
+ * Delivery runs synchronously on the delivering thread, so the start time is kept thread-local
+ * between the before and after hooks. It is cleared when the delivery ends, whatever its outcome,
+ * so a delivery that is aborted between the hooks does not leave a start time on the pooled thread.
+ * </p>
+ * <p>
+ * The subscription pointcuts are only invoked on the JPA interceptor service, so the interceptor
+ * registers itself there rather than on the RESTful server.
+ * </p>
+ */
+@Component
+@Interceptor
+@RequiredArgsConstructor
+public class SubscriptionDeliveryMetricsInterceptor {
+
+	/**
+	 * Start time (nanos) of the delivery running on the current thread.
+	 */
+	private static final ThreadLocal<DeliveryStart> TL_START = new ThreadLocal<>();
+
+	/**
+	 * Registry for delivery metrics.
+	 */
+	private final MeterRegistry meterRegistry;
+
+	/**
+	 * JPA interceptor service invoking the subscription pointcuts.
+	 */
+	private final IInterceptorService interceptorService;
+
+	/**
+	 * Registers the interceptor with the JPA interceptor service.
+	 */
+	@PostConstruct
+	void register() {
+		interceptorService.registerInterceptor(this);
+	}
+
+	/**
+	 * Remembers the start of a REST-hook delivery.
+	 *
+	 * @param subscription the subscription being delivered to
+	 * @param message the delivery message
+	 * @return always true, delivery proceeds
+	 */
+	@Hook(Pointcut.SUBSCRIPTION_BEFORE_REST_HOOK_DELIVERY)
+	public boolean beforeDelivery(CanonicalSubscription subscription, ResourceDeliveryMessage message) {
+		TL_START.set(new DeliveryStart(message, System.nanoTime()));
+		return true;
+	}
+
+	/**
+	 * Records a successful REST-hook delivery.
+	 *
+	 * @param subscription the subscription delivered to
+	 * @param message the delivery message
+	 */
+	@Hook(Pointcut.SUBSCRIPTION_AFTER_REST_HOOK_DELIVERY)
+	public void afterDelivery(CanonicalSubscription subscription, ResourceDeliveryMessage message) {
+		record(subscription, message, "success");
+	}
+
+	/**
+	 * Records a failed delivery.
+	 *
+	 * @param message the delivery message
+	 * @param exception the delivery failure
+	 * @return always true, so the regular failure handling (retry) continues
+	 */
+	@Hook(Pointcut.SUBSCRIPTION_AFTER_DELIVERY_FAILED)
+	public boolean afterDeliveryFailed(ResourceDeliveryMessage message, Exception exception) {
+		record(message.getSubscription(), message, "failure");
+		return true;
+	}
+
+	/**
+	 * Clears the measurement of the current thread once a delivery has ended. This is reached
+	 * without the REST-hook after hook if another interceptor vetoed the delivery.
+	 *
+	 * @param subscription the subscription delivered to
+	 * @param message the delivery message
+	 */
+	@Hook(Pointcut.SUBSCRIPTION_AFTER_DELIVERY)
+	public void deliveryEnded(CanonicalSubscription subscription, ResourceDeliveryMessage message) {
+		TL_START.remove();
+	}
+
+	/**
+	 * Stops the running measurement of the current thread and records it, if it was started
+	 * for the given message.
+	 *
+	 * @param subscription the subscription delivered to
+	 * @param message the delivery message
+	 * @param outcome {@code success} or {@code failure}
+	 */
+	private void record(CanonicalSubscription subscription, ResourceDeliveryMessage message, String outcome) {
+		DeliveryStart start = TL_START.get();
+		TL_START.remove();
+		if (start == null || start.message() != message) {
+			return;
+		}
+		Timer.builder("gematik.subscription.delivery")
+				.description("Latency of REST-hook deliveries per endpoint host")
+				.tag("endpoint", endpointHost(subscription))
+				.tag("outcome", outcome)
+				.publishPercentileHistogram()
+				.register(meterRegistry)
+				.record(System.nanoTime() - start.nanos(), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Reduces the subscription endpoint to {@code host[:port]}.
+	 *
+	 * @param subscription the subscription
+	 * @return the endpoint host, or {@code unknown}
+	 */
+	private static String endpointHost(CanonicalSubscription subscription) {
+		try {
+			URI uri = URI.create(subscription.getEndpointUrl());
+			if (uri.getHost() == null) {
+				return "unknown";
+			}
+			return uri.getPort() == -1 ? uri.getHost() : uri.getHost() + ":" + uri.getPort();
+		} catch (RuntimeException e) {
+			return "unknown";
+		}
+	}
+
+	/**
+	 * Start of the delivery of a message.
+	 *
+	 * @param message the delivery message
+	 * @param nanos the start time
+	 */
+	private record DeliveryStart(ResourceDeliveryMessage message, long nanos) {}
+}
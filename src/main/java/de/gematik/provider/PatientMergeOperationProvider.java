@@ -7,6 +7,8 @@ import ca.uhn.fhir.rest.annotation.Operation;
 import ca.uhn.fhir.rest.annotation.OperationParam;
 import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
 import ca.uhn.fhir.rest.server.exceptions.PreconditionFailedException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.hl7.fhir.r4.model.IdType;
 import org.hl7.fhir.r4.model.Identifier;
 import org.hl7.fhir.r4.model.OperationOutcome;
@@ -28,6 +30,7 @@ import java.util.Optional;
  * to the source's identifier. It also dispatches a notification to the patient-merge
  * subscription topic.
  * </p>
+ * Read, update and dispatch phases are timed separately as {@code gematik.patient.merge}.
  * <ul>
  *   <li>Deactivates the source patient and links it as replaced by the target.</li>
  *   <li>Adds a "replaces" link from the target to the source's identifier.</li>
@@ -54,16 +57,37 @@ public class PatientMergeOperationProvider {
 	 */
 	private final SubscriptionTopicDispatcher subscriptionTopicDispatcher;
 
+	/**
+	 * Registry whose clock times the merge phases.
+	 */
+	private final MeterRegistry meterRegistry;
+
+	/**
+	 * Timers for the read, update and dispatch phases of a merge.
+	 */
+	private final Timer readTimer;
+
+	private final Timer updateTimer;
+
+	private final Timer dispatchTimer;
+
 	/**
 	 * Constructs a new PatientMergeOperationProvider.
 	 *
 	 * @param daoRegistry the DAO registry for FHIR resources
 	 * @param subscriptionTopicDispatcher the dispatcher for subscription topic notifications
+	 * @param meterRegistry the registry for merge latency metrics
 	 */
 	public PatientMergeOperationProvider(
-			DaoRegistry daoRegistry, SubscriptionTopicDispatcher subscriptionTopicDispatcher) {
+			DaoRegistry daoRegistry,
+			SubscriptionTopicDispatcher subscriptionTopicDispatcher,
+			MeterRegistry meterRegistry) {
 		this.daoRegistry = daoRegistry;
 		this.subscriptionTopicDispatcher = subscriptionTopicDispatcher;
+		this.meterRegistry = meterRegistry;
+		this.readTimer = mergeTimer(meterRegistry, "read");
+		this.updateTimer = mergeTimer(meterRegistry, "update");
+		this.dispatchTimer = mergeTimer(meterRegistry, "dispatch");
 	}
 
 	/**
@@ -86,8 +110,10 @@ public class PatientMergeOperationProvider {
 
 		IFhirResourceDao patientDao = daoRegistry.getResourceDao(ResourceType.Patient.name());
 
+		Timer.Sample read = Timer.start(meterRegistry);
 		Patient sourcePatient = (Patient) patientDao.read(new IdType(sourcePatientRef.getReference()));
 		Patient targetPatient = (Patient) patientDao.read(new IdType(targetPatientRef.getReference()));
+		read.stop(readTimer);
 
 		// Deactivate source patient and link as replaced by target
 		sourcePatient.setActive(false);
@@ -107,16 +133,33 @@ public class PatientMergeOperationProvider {
 		targetPatient.addLink().setType(LinkType.REPLACES).getOther().setIdentifier(pid.get());
 
 		// Update both patients in the repository
-		patientDao.update(sourcePatient);
-		patientDao.update(targetPatient);
+		updateTimer.record(() -> {
+			patientDao.update(sourcePatient);
+			patientDao.update(targetPatient);
+		});
 
 		// Dispatch patient-merge subscription topic notification
-		subscriptionTopicDispatcher.dispatch(
-				MERGE_TOPIC_CRITERIA, List.of(targetPatient), RestOperationTypeEnum.UPDATE);
+		dispatchTimer.record(() -> subscriptionTopicDispatcher.dispatch(
+				MERGE_TOPIC_CRITERIA, List.of(targetPatient), RestOperationTypeEnum.UPDATE));
 
 		// Return OperationOutcome indicating success
 		OperationOutcome operationOutcome = new OperationOutcome();
 		operationOutcome.addIssue().setSeverity(IssueSeverity.INFORMATION).setDiagnostics("Patient merge successful");
 		return operationOutcome;
 	}
+
+	/**
+	 * Registers the merge latency timer for one phase.
+	 *
+	 * @param meterRegistry the meter registry
+	 * @param phase the merge phase ({@code read}, {@code update} or {@code dispatch})
+	 * @return the timer
+	 */
+	private static Timer mergeTimer(MeterRegistry meterRegistry, String phase) {
+		return Timer.builder("gematik.patient.merge")
+				.description("Latency of the $patient-merge operation per phase")
+				.tag("phase", phase)
+				.publishPercentileHistogram()
+				.register(meterRegistry);
+	}
 }
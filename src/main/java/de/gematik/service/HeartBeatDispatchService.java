@@ -1,17 +1,35 @@
 package de.gematik.service;
 
-import ca.uhn.fhir.jpa.topic.SubscriptionTopicDispatcher;
+import ca.uhn.fhir.jpa.searchparam.matcher.InMemoryMatchResult;
+import ca.uhn.fhir.jpa.subscription.match.matcher.subscriber.SubscriptionDeliveryRequest;
+import ca.uhn.fhir.jpa.subscription.match.matcher.subscriber.SubscriptionMatchDeliverer;
+import ca.uhn.fhir.jpa.subscription.match.registry.ActiveSubscription;
+import ca.uhn.fhir.jpa.subscription.match.registry.SubscriptionRegistry;
+import ca.uhn.fhir.jpa.topic.SubscriptionTopicDispatchRequest;
+import ca.uhn.fhir.jpa.topic.SubscriptionTopicPayloadBuilder;
 import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.IdType;
 import org.springframework.stereotype.Service;
 
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Service for dispatching heartbeat notifications using a {@link SubscriptionTopicDispatcher}.
+ * Service for dispatching heartbeat notifications directly to a single subscription via the
+ * {@link SubscriptionMatchDeliverer}.
  * Maintains a thread-local notification type to track the context of the current dispatch operation.
  */
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class HeartBeatDispatchService {
@@ -29,19 +47,99 @@ public class HeartBeatDispatchService {
 	 */
 	private static final ThreadLocal<NotificationType> TL_TYPE = new ThreadLocal<>();
 
-	private final SubscriptionTopicDispatcher dispatcher;
+	/**
+	 * Registry of the currently active (in-memory) subscriptions.
+	 */
+	private final SubscriptionRegistry subscriptionRegistry;
+
+	/**
+	 * Builder for notification bundles; resolves to the heartbeat-aware builder.
+	 */
+	private final SubscriptionTopicPayloadBuilder payloadBuilder;
+
+	/**
+	 * Delivers a payload to the channel of a single subscription.
+	 */
+	private final SubscriptionMatchDeliverer deliverer;
+
+	/**
+	 * Prebuilt heartbeat bundles per subscription (by ID), reused until the subscription is re-registered.
+	 */
+	private final Map<String, HeartbeatTemplate> templates = new ConcurrentHashMap<>();
+
+	/**
+	 * Registry for dispatch metrics.
+	 */
+	private final MeterRegistry meterRegistry;
+
+	/**
+	 * Dispatches a heartbeat notification to a single subscription only.
+	 * The heartbeat bundle is built once per registered subscription and afterwards copied
+	 * with a fresh ID and timestamp for every heartbeat.
+	 *
+	 * @param topicUrl the URL of the topic the subscription is subscribed to
+	 * @param subscriptionId the unqualified, versionless ID of the subscription (e.g. {@code Subscription/123})
+	 * @return true if the heartbeat was handed to the delivery channel, false otherwise
+	 */
+	public boolean dispatchHeartbeat(String topicUrl, String subscriptionId) {
+		Timer.Sample sample = Timer.start(meterRegistry);
+		boolean queued = deliverHeartbeat(topicUrl, subscriptionId);
+		sample.stop(meterRegistry.timer("gematik.heartbeat.dispatch", "outcome", queued ? "queued" : "skipped"));
+		return queued;
+	}
 
 	/**
-	 * Dispatches a heartbeat notification for the given topic URL.
-	 * Sets the thread-local notification type to HEARTBEAT for the duration of the dispatch.
+	 * Builds (or copies) the heartbeat bundle of a subscription and hands it to its delivery channel.
 	 *
-	 * @param topicUrl the URL of the topic to dispatch the heartbeat to
-	 * @return the number of notifications dispatched
+	 * @param topicUrl the topic URL
+	 * @param subscriptionId the subscription ID
+	 * @return true if the heartbeat was handed to the delivery channel
 	 */
-	public int dispatchHeartbeat(String topicUrl) {
+	private boolean deliverHeartbeat(String topicUrl, String subscriptionId) {
+		ActiveSubscription activeSub = subscriptionRegistry.get(new IdType(subscriptionId).getIdPart());
+		if (activeSub == null) {
+			log.debug("Heartbeat skipped – {} is not registered", subscriptionId);
+			return false;
+		}
+
+		HeartbeatTemplate template = templates.compute(
+				subscriptionId,
+				(id, existing) -> existing != null && existing.activeSub() == activeSub
+						? existing
+						: new HeartbeatTemplate(activeSub, buildHeartbeatPayload(topicUrl, activeSub)));
+
+		Bundle payload = template.bundle().copy();
+		payload.setId(UUID.randomUUID().toString());
+		payload.setTimestamp(new Date());
+
+		SubscriptionTopicDispatchRequest request = new SubscriptionTopicDispatchRequest(
+				topicUrl, List.of(), (f, r) -> InMemoryMatchResult.successfulMatch(), RestOperationTypeEnum.UPDATE,
+				null, null, null);
+		return deliverer
+				.deliverPayload(new SubscriptionDeliveryRequest(payload, activeSub, request), null)
+				.isSuccessful();
+	}
+
+	/**
+	 * Drops prebuilt heartbeat bundles of subscriptions that are no longer scheduled.
+	 *
+	 * @param subscriptionIds IDs of subscriptions whose templates should be kept
+	 */
+	public void retainTemplates(Set<String> subscriptionIds) {
+		templates.keySet().removeIf(id -> !subscriptionIds.contains(id));
+	}
+
+	/**
+	 * Builds the heartbeat bundle for a subscription through the heartbeat-aware payload builder.
+	 *
+	 * @param topicUrl the topic URL
+	 * @param activeSub the active subscription
+	 * @return the heartbeat bundle
+	 */
+	private Bundle buildHeartbeatPayload(String topicUrl, ActiveSubscription activeSub) {
 		TL_TYPE.set(NotificationType.HEARTBEAT);
 		try {
-			return dispatcher.dispatch(topicUrl, List.of(), RestOperationTypeEnum.UPDATE);
+			return (Bundle) payloadBuilder.buildPayload(List.of(), activeSub, topicUrl, RestOperationTypeEnum.UPDATE);
 		} finally {
 			TL_TYPE.remove();
 		}
@@ -55,4 +153,12 @@ public class HeartBeatDispatchService {
 	static NotificationType currentTypeOrDefault() {
 		return Optional.ofNullable(TL_TYPE.get()).orElse(NotificationType.EVENT_NOTIFICATION);
 	}
+
+	/**
+	 * Prebuilt heartbeat bundle bound to the registered subscription instance it was built for.
+	 *
+	 * @param activeSub the registered subscription
+	 * @param bundle the heartbeat bundle
+	 */
+	private record HeartbeatTemplate(ActiveSubscription activeSub, Bundle bundle) {}
 }
@@ -0,0 +1,182 @@
+package de.gematik.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.UUID;
+import javax.sql.DataSource;
+
+/**
+ * Elects a single heartbeat leader among all replicas sharing the same database.
+ * <p>
+ * In {@code lease} coordination mode, every node periodically tries to take or renew a lease row
+ * in {@value #TABLE}. A node is leader while it holds an unexpired lease; only the leader schedules
+ * and sends heartbeats, so subscribers receive one heartbeat per period regardless of the replica count.
+ * If the leader dies, another node takes over once the lease has expired.
+ * </p>
+ * In the default {@code local} mode no lease is used and every node considers itself leader.
+ */
+@Slf4j
+@Service
+public class HeartbeatLeaseService {
+
+	/**
+	 * Table holding the lease rows.
+	 */
+	static final String TABLE = "GMTK_HEARTBEAT_LEASE";
+
+	/**
+	 * Name of the heartbeat lease row.
+	 */
+	private static final String LEASE_NAME = "subscription-heartbeat";
+
+	private final JdbcTemplate jdbc;
+
+	/**
+	 * Whether lease-based coordination is enabled ({@code gematik.heartbeat.coordination=lease}).
+	 */
+	private final boolean leaseMode;
+
+	/**
+	 * How long an acquired lease stays valid without renewal.
+	 */
+	private final Duration leaseTtl;
+
+	/**
+	 * Identity of this node in the lease row.
+	 */
+	private final String nodeId;
+
+	/**
+	 * Local time (epoch millis) until which this node holds the lease.
+	 */
+	private volatile long leaseValidUntil;
+
+	/**
+	 * Constructs a new HeartbeatLeaseService.
+	 *
+	 * @param dataSource the application data source
+	 * @param coordination the coordination mode, {@code local} or {@code lease}
+	 * @param leaseTtl validity of an acquired lease; should be a multiple of the renew interval
+	 * @param nodeId identity of this node; defaults to the host name, or a random ID if unset
+	 */
+	public HeartbeatLeaseService(
+			DataSource dataSource,
+			@Value("${gematik.heartbeat.coordination:local}") String coordination,
+			@Value("${gematik.heartbeat.lease-ttl:PT30S}") Duration leaseTtl,
+			@Value("${gematik.heartbeat.node-id:${HOSTNAME:}}") String nodeId) {
+		this.jdbc = new JdbcTemplate(dataSource);
+		this.leaseMode = "lease".equalsIgnoreCase(coordination);
+		this.leaseTtl = leaseTtl;
+		this.nodeId = nodeId == null || nodeId.isBlank() ? UUID.randomUUID().toString() : nodeId;
+	}
+
+	/**
+	 * Creates the lease table if it does not exist yet and tries to take the lease.
+	 */
+	@PostConstruct
+	void init() {
+		if (!leaseMode) {
+			return;
+		}
+		JdbcTables.createIfMissing(
+				jdbc,
+				TABLE,
+				"LEASE_NAME VARCHAR(64) NOT NULL PRIMARY KEY, OWNER_ID VARCHAR(200) NOT NULL, EXPIRES_AT BIGINT NOT NULL");
+		log.info("Heartbeat coordination via DB lease, node-id={}", nodeId);
+		renew();
+	}
+
+	/**
+	 * Returns whether this node is currently responsible for sending heartbeats.
+	 *
+	 * @return true in local mode, or while this node holds an unexpired lease
+	 */
+	public boolean isLeader() {
+		return !leaseMode || System.currentTimeMillis() < leaseValidUntil;
+	}
+
+	/**
+	 * Takes over an expired lease or renews the lease held by this node.
+	 * Database errors are treated as loss of the lease.
+	 */
+	@Scheduled(fixedDelayString = "${gematik.heartbeat.lease-renew-interval:PT10S}")
+	public void renew() {
+		if (!leaseMode) {
+			return;
+		}
+		boolean wasLeader = isLeader();
+		long now = System.currentTimeMillis();
+		long expiresAt = now + leaseTtl.toMillis();
+		try {
+			if (tryAcquire(now, expiresAt)) {
+				leaseValidUntil = expiresAt;
+			} else {
+				leaseValidUntil = 0;
+			}
+		} catch (DataAccessException e) {
+			log.warn("Heartbeat lease renewal failed on node {}", nodeId, e);
+			leaseValidUntil = 0;
+		}
+		if (wasLeader != isLeader()) {
+			log.info("Heartbeat leadership {} on node {}", isLeader() ? "acquired" : "lost", nodeId);
+		}
+	}
+
+	/**
+	 * Releases the lease on shutdown so another node can take over without waiting for expiry.
+	 */
+	@PreDestroy
+	void release() {
+		if (!leaseMode || !isLeader()) {
+			return;
+		}
+		leaseValidUntil = 0;
+		try {
+			jdbc.update(
+					"UPDATE " + TABLE + " SET EXPIRES_AT = 0 WHERE LEASE_NAME = ? AND OWNER_ID = ?", LEASE_NAME, nodeId);
+		} catch (DataAccessException e) {
+			log.debug("Heartbeat lease release failed: {}", e.getMessage());
+		}
+	}
+
+	/**
+	 * Atomically takes the lease row if it is expired or already owned by this node,
+	 * inserting it if it does not exist yet.
+	 *
+	 * @param now current time in epoch millis
+	 * @param expiresAt new expiry in epoch millis
+	 * @return true if this node holds the lease afterwards
+	 */
+	private boolean tryAcquire(long now, long expiresAt) {
+		int updated = jdbc.update(
+				"UPDATE " + TABLE + " SET OWNER_ID = ?, EXPIRES_AT = ? WHERE LEASE_NAME = ? AND (OWNER_ID = ? OR EXPIRES_AT < ?)",
+				nodeId,
+				expiresAt,
+				LEASE_NAME,
+				nodeId,
+				now);
+		if (updated > 0) {
+			return true;
+		}
+		try {
+			jdbc.update(
+					"INSERT INTO " + TABLE + " (LEASE_NAME, OWNER_ID, EXPIRES_AT) VALUES (?, ?, ?)",
+					LEASE_NAME,
+					nodeId,
+					expiresAt);
+			return true;
+		} catch (DataIntegrityViolationException e) {
+			// row exists and is held by another node
+			return false;
+		}
+	}
+}
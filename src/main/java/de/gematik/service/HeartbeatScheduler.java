@@ -0,0 +1,190 @@
+package de.gematik.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Deadline-driven timer for heartbeat notifications.
+ * Every scheduled subscription owns exactly one pending one-shot task on a single timer thread,
+ * whose delay queue keeps all pending heartbeats ordered by their next-due instant.
+ * When a heartbeat fires, the following one is armed one period after the previous deadline,
+ * so each subscription fires at its own period and nothing runs while no heartbeat is due.
+ */
+@Slf4j
+@Component
+public class HeartbeatScheduler implements DisposableBean {
+
+	/**
+	 * Single timer thread; its delay queue is the priority queue keyed by next-due instant.
+	 */
+	private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "heartbeat-timer");
+		t.setDaemon(true);
+		return t;
+	});
+
+	/**
+	 * Currently armed slot per subscription (by ID).
+	 */
+	private final Map<String, Slot> slots = new ConcurrentHashMap<>();
+
+	/**
+	 * Schedules heartbeats for a subscription, or keeps the existing schedule if topic and period are unchanged.
+	 * If the subscription was already scheduled with a different topic or period, the old schedule is replaced.
+	 *
+	 * @param subscriptionId the unqualified, versionless subscription ID
+	 * @param topic the canonical topic URL
+	 * @param periodSeconds the heartbeat period in seconds (must be positive)
+	 * @param firstDue the instant at which the first heartbeat is due; past instants fire immediately
+	 * @param action callback invoked on the timer thread whenever a heartbeat is due
+	 */
+	public void schedule(
+			String subscriptionId, String topic, long periodSeconds, Instant firstDue, Consumer<Deadline> action) {
+		Slot existing = slots.get(subscriptionId);
+		if (existing != null
+				&& existing.deadline.topic().equals(topic)
+				&& existing.deadline.periodSeconds() == periodSeconds) {
+			return;
+		}
+		Slot slot = new Slot(new Deadline(subscriptionId, topic, periodSeconds, firstDue), action);
+		Slot previous = slots.put(subscriptionId, slot);
+		if (previous != null) {
+			previous.cancel();
+		}
+		arm(slot);
+	}
+
+	/**
+	 * Cancels all scheduled heartbeats whose subscription ID is not contained in the given set.
+	 *
+	 * @param activeIds IDs of subscriptions that should stay scheduled
+	 */
+	public void retainAll(Set<String> activeIds) {
+		slots.keySet().stream().filter(id -> !activeIds.contains(id)).toList().forEach(this::cancel);
+	}
+
+	/**
+	 * Cancels the scheduled heartbeats of a subscription, if any.
+	 *
+	 * @param subscriptionId the subscription ID
+	 */
+	public void cancel(String subscriptionId) {
+		Slot slot = slots.remove(subscriptionId);
+		if (slot != null) {
+			slot.cancel();
+		}
+	}
+
+	/**
+	 * Returns the currently pending deadlines.
+	 *
+	 * @return snapshot of the pending deadlines
+	 */
+	public Collection<Deadline> pending() {
+		return slots.values().stream().map(s -> s.deadline).toList();
+	}
+
+	/**
+	 * Returns the number of pending deadlines.
+	 *
+	 * @return number of scheduled subscriptions
+	 */
+	public int size() {
+		return slots.size();
+	}
+
+	/**
+	 * Stops the timer thread on context shutdown.
+	 */
+	@Override
+	public void destroy() {
+		timer.shutdownNow();
+	}
+
+	/**
+	 * Arms the one-shot timer task for the given slot.
+	 *
+	 * @param slot the slot to arm
+	 */
+	private void arm(Slot slot) {
+		long delayMillis = Math.max(0, Duration.between(Instant.now(), slot.deadline.due()).toMillis());
+		slot.future = timer.schedule(() -> fire(slot), delayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Runs the heartbeat action for a due slot and arms the next deadline.
+	 * If the deadline was missed by more than one period, the next one is placed one period after now
+	 * instead of catching up with a burst of heartbeats.
+	 *
+	 * @param slot the slot that became due
+	 */
+	private void fire(Slot slot) {
+		if (slots.get(slot.deadline.subscriptionId()) != slot) {
+			return; // cancelled or replaced in the meantime
+		}
+		try {
+			slot.action.accept(slot.deadline);
+		} catch (RuntimeException e) {
+			log.warn("Heartbeat for {} failed", slot.deadline.subscriptionId(), e);
+		}
+
+		Instant now = Instant.now();
+		Instant next = slot.deadline.due().plusSeconds(slot.deadline.periodSeconds());
+		if (next.isBefore(now)) {
+			next = now.plusSeconds(slot.deadline.periodSeconds());
+		}
+		Slot nextSlot = new Slot(slot.deadline.withDue(next), slot.action);
+		if (slots.replace(slot.deadline.subscriptionId(), slot, nextSlot)) {
+			arm(nextSlot);
+		}
+	}
+
+	/**
+	 * A pending heartbeat deadline of one subscription.
+	 *
+	 * @param subscriptionId the subscription ID
+	 * @param topic the canonical topic URL
+	 * @param periodSeconds the heartbeat period in seconds
+	 * @param due the instant at which the heartbeat is due
+	 */
+	public record Deadline(String subscriptionId, String topic, long periodSeconds, Instant due) {
+
+		Deadline withDue(Instant newDue) {
+			return new Deadline(subscriptionId, topic, periodSeconds, newDue);
+		}
+	}
+
+	/**
+	 * Armed deadline together with its action and timer future.
+	 */
+	private static final class Slot {
+		private final Deadline deadline;
+		private final Consumer<Deadline> action;
+		private volatile ScheduledFuture<?> future;
+
+		private Slot(Deadline deadline, Consumer<Deadline> action) {
+			this.deadline = deadline;
+			this.action = action;
+		}
+
+		private void cancel() {
+			ScheduledFuture<?> f = future;
+			if (f != null) {
+				f.cancel(false);
+			}
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package de.gematik.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.sql.DataSource;
+
+/**
+ * Persists the last heartbeat sent time per subscription in {@value #TABLE}, so that a restarted
+ * node (or a newly elected heartbeat leader) continues the existing heartbeat schedule instead of
+ * treating every subscription as due.
+ * <p>
+ * Sent times are buffered in memory and written in periodic JDBC batches; repeated heartbeats of
+ * the same subscription between two flushes collapse into a single row update.
+ * </p>
+ */
+@Slf4j
+@Service
+public class HeartbeatStateStore {
+
+	/**
+	 * Table holding the last sent instant per subscription.
+	 */
+	static final String TABLE = "GMTK_HEARTBEAT_STATE";
+
+	private final JdbcTemplate jdbc;
+
+	/**
+	 * Sent times not yet written, latest per subscription (by ID).
+	 */
+	private final Map<String, Instant> pendingWrites = new ConcurrentHashMap<>();
+
+	/**
+	 * Subscription IDs whose rows are to be deleted on the next flush.
+	 */
+	private final Set<String> pendingDeletes = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Constructs a new HeartbeatStateStore.
+	 *
+	 * @param dataSource the application data source
+	 */
+	public HeartbeatStateStore(DataSource dataSource) {
+		this.jdbc = new JdbcTemplate(dataSource);
+	}
+
+	/**
+	 * Creates the state table if it does not exist yet.
+	 */
+	@PostConstruct
+	void init() {
+		JdbcTables.createIfMissing(
+				jdbc, TABLE, "SUBSCRIPTION_ID VARCHAR(200) NOT NULL PRIMARY KEY, LAST_SENT BIGINT NOT NULL");
+	}
+
+	/**
+	 * Loads all persisted sent times, overlaid with the ones not yet flushed.
+	 *
+	 * @return last sent instant per subscription ID; empty if the table cannot be read
+	 */
+	public Map<String, Instant> loadAll() {
+		Map<String, Instant> result = new HashMap<>();
+		try {
+			jdbc.query(
+					"SELECT SUBSCRIPTION_ID, LAST_SENT FROM " + TABLE,
+					rs -> {
+						result.put(rs.getString(1), Instant.ofEpochMilli(rs.getLong(2)));
+					});
+		} catch (DataAccessException e) {
+			log.warn("Could not load heartbeat state", e);
+		}
+		pendingDeletes.forEach(result::remove);
+		result.putAll(pendingWrites);
+		return result;
+	}
+
+	/**
+	 * Returns the number of buffered changes not yet written.
+	 *
+	 * @return number of pending writes and deletes
+	 */
+	public int pendingCount() {
+		return pendingWrites.size() + pendingDeletes.size();
+	}
+
+	/**
+	 * Records a sent heartbeat; written on the next flush.
+	 *
+	 * @param subscriptionId the subscription ID
+	 * @param sentAt the instant the heartbeat was sent
+	 */
+	public void markSent(String subscriptionId, Instant sentAt) {
+		pendingDeletes.remove(subscriptionId);
+		pendingWrites.put(subscriptionId, sentAt);
+	}
+
+	/**
+	 * Forgets the state of subscriptions that are no longer active; deleted on the next flush.
+	 *
+	 * @param subscriptionIds the subscription IDs
+	 */
+	public void forget(Collection<String> subscriptionIds) {
+		subscriptionIds.forEach(pendingWrites::remove);
+		pendingDeletes.addAll(subscriptionIds);
+	}
+
+	/**
+	 * Writes all buffered changes as JDBC batches: updates first, inserts for rows that did not exist yet,
+	 * then deletes. Changes that fail to be written are kept for the next flush unless superseded.
+	 */
+	@PreDestroy
+	@Scheduled(fixedDelayString = "${gematik.heartbeat.state-flush-interval:PT30S}")
+	public void flush() {
+		Map<String, Instant> writes = new HashMap<>(pendingWrites);
+		writes.forEach(pendingWrites::remove);
+		List<String> deletes = new ArrayList<>(pendingDeletes);
+		pendingDeletes.removeAll(deletes);
+		if (writes.isEmpty() && deletes.isEmpty()) {
+			return;
+		}
+
+		try {
+			List<Object[]> rows = writes.entrySet().stream()
+					.map(e -> new Object[] {e.getValue().toEpochMilli(), e.getKey()})
+					.toList();
+			int[] updated = jdbc.batchUpdate("UPDATE " + TABLE + " SET LAST_SENT = ? WHERE SUBSCRIPTION_ID = ?", rows);
+
+			List<Object[]> inserts = new ArrayList<>();
+			for (int i = 0; i < updated.length; i++) {
+				if (updated[i] == 0) {
+					inserts.add(new Object[] {rows.get(i)[1], rows.get(i)[0]});
+				}
+			}
+			if (!inserts.isEmpty()) {
+				jdbc.batchUpdate("INSERT INTO " + TABLE + " (SUBSCRIPTION_ID, LAST_SENT) VALUES (?, ?)", inserts);
+			}
+			if (!deletes.isEmpty()) {
+				jdbc.batchUpdate(
+						"DELETE FROM " + TABLE + " WHERE SUBSCRIPTION_ID = ?",
+						deletes.stream().map(id -> new Object[] {id}).toList());
+			}
+			log.debug("Heartbeat state flushed: {} written, {} deleted", writes.size(), deletes.size());
+		} catch (DataAccessException e) {
+			log.warn("Heartbeat state flush failed, retrying on next flush", e);
+			writes.forEach(pendingWrites::putIfAbsent);
+			deletes.stream().filter(id -> !pendingWrites.containsKey(id)).forEach(pendingDeletes::add);
+		}
+	}
+}
@@ -0,0 +1,37 @@
+package de.gematik.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Helper for the small bookkeeping tables the heartbeat services keep next to the HAPI schema.
+ * The tables are created on first use with portable column types, since they are not part of the
+ * HAPI schema migrations.
+ */
+@Slf4j
+final class JdbcTables {
+
+	private JdbcTables() {}
+
+	/**
+	 * Creates the table if it cannot be queried yet. Failures to create it are tolerated,
+	 * as another node may create the same table concurrently.
+	 *
+	 * @param jdbc the JDBC template
+	 * @param table the table name
+	 * @param columns the column definitions, without surrounding parentheses
+	 */
+	static void createIfMissing(JdbcTemplate jdbc, String table, String columns) {
+		try {
+			jdbc.queryForObject("SELECT COUNT(*) FROM " + table, Integer.class);
+		} catch (DataAccessException e) {
+			try {
+				jdbc.execute("CREATE TABLE " + table + " (" + columns + ")");
+				log.info("Created table {}", table);
+			} catch (DataAccessException ce) {
+				log.debug("Table {} not created: {}", table, ce.getMessage());
+			}
+		}
+	}
+}
@@ -5,6 +5,10 @@ import ca.uhn.fhir.jpa.api.dao.IFhirResourceDao;
 import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
 import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
 import ca.uhn.fhir.rest.param.TokenParam;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.hl7.fhir.instance.model.api.IBaseResource;
@@ -18,11 +22,15 @@ import org.springframework.web.client.RestTemplate;
 import java.util.Date;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Service responsible for performing a handshake with a FHIR Subscription endpoint.
  * Finds subscriptions by marker, builds handshake bundles, sends them to the endpoint,
  * and finalizes the subscription status asynchronously.
+ * Handshake latency and outcome are reported as {@code gematik.handshake}.
  */
 @Slf4j
 @Service
@@ -44,10 +52,16 @@ public class SubscriptionHandshakeSender {
 	 */
 	private final SubscriptionHandshakeFinalizer finalizer;
 
+	/**
+	 * Registry for handshake metrics.
+	 */
+	private final MeterRegistry meterRegistry;
+
 	/**
 	 * Executor for running the finalizer off-thread, outside the request context.
 	 */
-	private final java.util.concurrent.Executor exec = java.util.concurrent.Executors.newSingleThreadExecutor();
+	private final ThreadPoolExecutor exec =
+			new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
 
 	/**
 	 * Creates a RestTemplate with sensible timeouts for HTTP requests.
@@ -72,6 +86,16 @@ public class SubscriptionHandshakeSender {
 	@Value("${fhir.server.base:http://localhost:8080/fhir}")
 	private String serverBaseUrl;
 
+	/**
+	 * Registers a gauge for the number of finalizations waiting for the executor.
+	 */
+	@PostConstruct
+	void registerGauges() {
+		Gauge.builder("gematik.handshake.finalize.queue", exec, e -> e.getQueue().size())
+				.description("Handshake finalizations waiting to be executed")
+				.register(meterRegistry);
+	}
+
 	/**
 	 * Finds a Subscription by marker (system and code) and attempts a handshake.
 	 * If found, initiates the handshake and finalizes the status.
@@ -134,6 +158,7 @@ public class SubscriptionHandshakeSender {
 		}
 
 		boolean ok;
+		Timer.Sample sample = Timer.start(meterRegistry);
 		try {
 			Bundle handshake = buildHandshakeBundle(sub);
 			String json = fhirContext.newJsonParser().encodeResourceToString(handshake);
@@ -156,6 +181,11 @@ public class SubscriptionHandshakeSender {
 					e);
 			ok = false;
 		}
+		sample.stop(Timer.builder("gematik.handshake")
+				.description("Latency of handshake notifications by outcome")
+				.tag("outcome", ok ? "success" : "failure")
+				.publishPercentileHistogram()
+				.register(meterRegistry));
 
 		// IMPORTANT: finalize in a separate bean & thread (REQUIRES_NEW tx inside)
 		boolean finalOk = ok;
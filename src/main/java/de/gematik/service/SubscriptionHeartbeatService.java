@@ -5,10 +5,15 @@ import ca.uhn.fhir.jpa.api.dao.IFhirResourceDao;
 import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
 import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
 import ca.uhn.fhir.rest.param.TokenParam;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.r4.model.*;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -18,13 +23,17 @@ import java.net.URISyntaxException;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.Collectors;
 import java.util.*;
 
 /**
- * Service responsible for periodically sending heartbeat notifications for active FHIR Subscriptions.
- * Determines which subscriptions are due for a heartbeat based on their configured interval,
- * dispatches heartbeats per topic, and maintains the last sent time for each subscription.
+ * Service responsible for sending heartbeat notifications for active FHIR Subscriptions.
+ * Periodically synchronizes the active subscriptions into the {@link HeartbeatScheduler},
+ * which fires each subscription exactly at its configured interval, and maintains the
+ * last sent time for each subscription. Last sent times are persisted via the
+ * {@link HeartbeatStateStore}, so restarts continue the existing schedule.
+ * Reports heartbeat lag, sent heartbeats and queue depths under {@code gematik.heartbeat.*}.
  */
 @Slf4j
 @Service
@@ -47,19 +56,80 @@ public class SubscriptionHeartbeatService {
 	 */
 	private final HeartBeatDispatchService topicNotifyService;
 
+	/**
+	 * Timer holding the next heartbeat deadline of every scheduled subscription.
+	 */
+	private final HeartbeatScheduler heartbeatScheduler;
+
+	/**
+	 * Decides whether this node sends heartbeats when several replicas share the database.
+	 */
+	private final HeartbeatLeaseService leaseService;
+
+	/**
+	 * Persistent store of the last sent times.
+	 */
+	private final HeartbeatStateStore stateStore;
+
+	/**
+	 * Registry for heartbeat metrics.
+	 */
+	private final MeterRegistry meterRegistry;
+
 	/**
 	 * Stores the last heartbeat sent time for each subscription (by ID).
 	 */
 	private final Map<String, Instant> lastSent = new ConcurrentHashMap<>();
 
 	/**
-	 * Periodically checks all active subscriptions and sends heartbeat notifications
-	 * for those that are due, based on their configured heartbeat period.
-	 * Runs every 60 seconds; actual dispatch depends on each subscription's interval.
+	 * Whether {@link #lastSent} has been restored from the state store since this node became leader.
+	 */
+	private volatile boolean stateRestored;
+
+	/**
+	 * Upper bound for spreading the first heartbeat of overdue or never-sent subscriptions.
+	 */
+	@Value("${gematik.heartbeat.startup-spread:PT60S}")
+	private Duration startupSpread;
+
+	/**
+	 * Registers gauges for the number of scheduled heartbeats and unwritten heartbeat state.
+	 */
+	@PostConstruct
+	void registerGauges() {
+		Gauge.builder("gematik.heartbeat.scheduled", heartbeatScheduler, HeartbeatScheduler::size)
+				.description("Subscriptions with a pending heartbeat deadline")
+				.register(meterRegistry);
+		Gauge.builder("gematik.heartbeat.state.pending", stateStore, HeartbeatStateStore::pendingCount)
+				.description("Heartbeat state changes not yet written to the database")
+				.register(meterRegistry);
+	}
+
+	/**
+	 * Periodically loads all active subscriptions and synchronizes their heartbeat deadlines
+	 * with the scheduler. New subscriptions are scheduled relative to their last sent time,
+	 * changed periods or topics are rescheduled, and inactive subscriptions are cancelled.
+	 * The sync interval only bounds how quickly subscription changes are picked up;
+	 * heartbeats themselves are sent by the scheduler at each subscription's own period.
+	 * On replicas that are not the heartbeat leader, all schedules are cancelled instead.
 	 */
-	@Scheduled(fixedDelayString = "PT60S")
+	@Scheduled(fixedDelayString = "${gematik.heartbeat.sync-interval:PT60S}")
 	@Transactional
 	public void run() {
+		// 0) Only the heartbeat leader schedules heartbeats; other replicas stay idle
+		if (!leaseService.isLeader()) {
+			heartbeatScheduler.retainAll(Set.of());
+			lastSent.clear();
+			stateRestored = false;
+			return;
+		}
+
+		// 0b) Continue the persisted schedule after a restart or leader change
+		if (!stateRestored) {
+			lastSent.putAll(stateStore.loadAll());
+			stateRestored = true;
+		}
+
 		// 1) Load active subscriptions
 		IFhirResourceDao<Subscription> subDao = daoRegistry.getResourceDao(Subscription.class);
 		SystemRequestDetails srd = new SystemRequestDetails();
@@ -68,54 +138,68 @@ public class SubscriptionHeartbeatService {
 
 		List<IBaseResource> resources = subDao.search(map, srd).getAllResources();
 
-		// 2) For each subscription, read topic and heartbeat period, collect due subscriptions per topic
-		Map<String, List<Subscription>> dueByTopic = resources.stream()
+		// 2) For each subscription, read topic and heartbeat period and (re)schedule its next deadline
+		resources.stream()
 				.map(r -> (Subscription) r)
 				.map(sub -> new SubWithMeta(
 						sub, extractBackportCanonicalOrNull(sub.getCriteria()), readHeartbeatPeriodSeconds(sub)))
 				.filter(m -> m.topic() != null && m.periodSeconds() != null && m.periodSeconds() > 0)
-				.filter(this::isDue)
-				.collect(Collectors.groupingBy(
-						SubWithMeta::topic, Collectors.mapping(SubWithMeta::sub, Collectors.toList())));
-
-		// 3) For each topic, dispatch a single heartbeat (empty resource list)
-		Instant now = Instant.now();
-		for (Map.Entry<String, List<Subscription>> entry : dueByTopic.entrySet()) {
-			String topic = entry.getKey();
-			List<Subscription> dueSubs = entry.getValue();
-			if (dueSubs.isEmpty()) continue;
-
-			int queued = topicNotifyService.dispatchHeartbeat(topic);
-
-			// 4) If a heartbeat was dispatched, update lastSent for the due subscriptions
-			if (queued > 0) {
-				for (Subscription s : dueSubs) {
-					String key = s.getIdElement().toUnqualifiedVersionless().getValue();
-					lastSent.put(key, now);
-				}
-			}
-		}
+				.forEach(this::schedule);
 
-		// 5) Cleanup: remove entries for subscriptions that are no longer active
+		// 3) Cleanup: cancel and forget subscriptions that are no longer active
 		cleanupStaleEntries(resources);
 	}
 
 	/**
-	 * Determines if a subscription is due for a heartbeat based on its last sent time and period.
+	 * Hands a subscription to the scheduler. The first deadline is one period after the last
+	 * heartbeat sent for it. If none was sent yet or that deadline has already passed (e.g. during
+	 * downtime), the first deadline is placed at a random point within the next period, capped by
+	 * {@code gematik.heartbeat.startup-spread}, so that a restart does not send all heartbeats at once.
 	 *
 	 * @param m subscription metadata
-	 * @return true if the subscription is due for a heartbeat, false otherwise
 	 */
-	private boolean isDue(SubWithMeta m) {
+	private void schedule(SubWithMeta m) {
 		String key = m.sub().getIdElement().toUnqualifiedVersionless().getValue();
-		Instant last = lastSent.getOrDefault(key, Instant.EPOCH);
-		long elapsed = Duration.between(last, Instant.now()).getSeconds();
-		// Add a small grace period (2s) to account for scheduler drift
-		return elapsed + 2 >= m.periodSeconds();
+		Instant now = Instant.now();
+		Instant last = lastSent.get(key);
+		Instant firstDue = last != null ? last.plusSeconds(m.periodSeconds()) : null;
+		if (firstDue == null || firstDue.isBefore(now)) {
+			long spreadMillis = Math.min(m.periodSeconds() * 1000L, startupSpread.toMillis());
+			firstDue = now.plusMillis(ThreadLocalRandom.current().nextLong(spreadMillis + 1));
+		}
+		heartbeatScheduler.schedule(key, m.topic(), m.periodSeconds(), firstDue, this::sendHeartbeat);
+	}
+
+	/**
+	 * Dispatches a heartbeat to exactly the due subscription (not to the whole topic) and records the sent time.
+	 * Invoked by the {@link HeartbeatScheduler} on its timer thread.
+	 *
+	 * @param deadline the deadline that became due
+	 */
+	private void sendHeartbeat(HeartbeatScheduler.Deadline deadline) {
+		if (!leaseService.isLeader()) {
+			return; // leadership lost since the last sync
+		}
+		Timer.builder("gematik.heartbeat.lag")
+				.description("Delay between a heartbeat's due time and its dispatch")
+				.publishPercentileHistogram()
+				.register(meterRegistry)
+				.record(Duration.between(deadline.due(), Instant.now()));
+
+		boolean queued = topicNotifyService.dispatchHeartbeat(deadline.topic(), deadline.subscriptionId());
+		meterRegistry
+				.counter("gematik.heartbeat.sent", "outcome", queued ? "queued" : "skipped")
+				.increment();
+		if (queued) {
+			Instant now = Instant.now();
+			lastSent.put(deadline.subscriptionId(), now);
+			stateStore.markSent(deadline.subscriptionId(), now);
+		}
 	}
 
 	/**
-	 * Removes entries from lastSent for subscriptions that are no longer active.
+	 * Removes schedules, heartbeat templates and lastSent entries (in memory and persisted)
+	 * for subscriptions that are no longer active.
 	 *
 	 * @param activeSubs list of currently active subscriptions
 	 */
@@ -123,7 +207,13 @@ public class SubscriptionHeartbeatService {
 		Set<String> activeIds = activeSubs.stream()
 				.map(r -> r.getIdElement().toUnqualifiedVersionless().getValue())
 				.collect(Collectors.toSet());
-		lastSent.keySet().removeIf(id -> !activeIds.contains(id));
+		heartbeatScheduler.retainAll(activeIds);
+		topicNotifyService.retainTemplates(activeIds);
+		List<String> stale = lastSent.keySet().stream()
+				.filter(id -> !activeIds.contains(id))
+				.toList();
+		stale.forEach(lastSent::remove);
+		stateStore.forget(stale);
 	}
 
 	/**
@@ -3,11 +3,19 @@ package ca.uhn.fhir.jpa.starter;
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
 import ca.uhn.fhir.jpa.searchparam.config.NicknameServiceConfig;
+import ca.uhn.fhir.jpa.starter.cdshooks.ModuleConfigurationPrefetchSvc;
 import ca.uhn.fhir.jpa.starter.cdshooks.StarterCdsHooksConfig;
+import ca.uhn.fhir.model.api.IModelJson;
 import ca.uhn.fhir.parser.IParser;
 import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.api.server.cdshooks.CdsServiceRequestContextJson;
+import ca.uhn.fhir.rest.api.server.cdshooks.CdsServiceRequestJson;
 import ca.uhn.fhir.rest.client.api.ServerValidationModeEnum;
+import ca.uhn.hapi.fhir.cdshooks.api.ICdsServiceMethod;
 import ca.uhn.hapi.fhir.cdshooks.api.ICdsServiceRegistry;
+import ca.uhn.hapi.fhir.cdshooks.api.json.CdsServiceJson;
+import ca.uhn.hapi.fhir.cdshooks.svc.prefetch.CdsPrefetchSvc;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
@@ -18,6 +26,12 @@ import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Library;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.PlanDefinition;
+import org.hl7.fhir.r4.model.Reference;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.opencds.cqf.fhir.cr.hapi.config.CrCdsHooksConfig;
@@ -32,6 +46,7 @@ import java.util.concurrent.TimeUnit;
 
 import static org.awaitility.Awaitility.await;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.fail;
 
@@ -66,6 +81,9 @@ class CdsHooksServletIT implements IServerSupport {
 	@Autowired
 	ICdsServiceRegistry myCdsServiceRegistry;
 
+	@Autowired
+	CdsPrefetchSvc myCdsPrefetchSvc;
+
 	@LocalServerPort
 	private int port;
 
@@ -156,6 +174,62 @@ class CdsHooksServletIT implements IServerSupport {
 		}
 	}
 
+	@Test
+	void testCrServiceGetsItsOwnPrefetch() throws IOException {
+		Bundle bundle = (Bundle) ourParser.parseResource(stringFromResource("r4/HelloWorld-Bundle.json"));
+		for (Bundle.BundleEntryComponent entry : bundle.getEntry()) {
+			if (entry.getResource() instanceof Library library && "HelloWorld".equals(library.getName())) {
+				// a second data requirement, so that the service declares item2 like the module configuration does
+				library.addDataRequirement().setType("Observation");
+			} else if (entry.getResource() instanceof PlanDefinition planDefinition) {
+				planDefinition.setId("hello-world-prefetch");
+				planDefinition.setUrl(planDefinition.getUrl() + "-prefetch");
+				entry.getRequest().setUrl("PlanDefinition/hello-world-prefetch");
+			}
+		}
+		ourClient.transaction().withBundle(bundle).execute();
+		ourClient.update().resource(new Patient().setId("example-hello-world")).execute();
+		Observation observation = new Observation();
+		observation.setStatus(Observation.ObservationStatus.FINAL);
+		observation.setSubject(new Reference("Patient/example-hello-world"));
+		ourClient.create().resource(observation).execute();
+		await().atMost(10000, TimeUnit.MILLISECONDS).until(() -> {
+			var services = myCdsServiceRegistry.getCdsServicesJson().getServices();
+			return services != null && services.stream().anyMatch(x -> "hello-world-prefetch".equals(x.getId()));
+		});
+		CdsServiceJson service = myCdsServiceRegistry.getCdsServiceJson("hello-world-prefetch");
+
+		CdsServiceRequestContextJson context = new CdsServiceRequestContextJson();
+		context.put("patientId", "example-hello-world");
+		CdsServiceRequestJson request = new CdsServiceRequestJson();
+		request.setHook("patient-view");
+		request.setHookInstance("cr-prefetch");
+		request.setFhirServer(ourServerBase);
+		request.setContext(context);
+		assertInstanceOf(ModuleConfigurationPrefetchSvc.class, myCdsPrefetchSvc);
+		myCdsPrefetchSvc.augmentRequest(request, new ICdsServiceMethod() {
+			@Override
+			public CdsServiceJson getCdsServiceJson() {
+				return service;
+			}
+
+			@Override
+			public boolean isAllowAutoFhirClientPrefetch() {
+				return true;
+			}
+
+			@Override
+			public Object invoke(ObjectMapper theObjectMapper, IModelJson theJson, String theServiceId) {
+				throw new UnsupportedOperationException();
+			}
+		});
+
+		// the module configuration would have answered item2 with the patient's active medication orders
+		Bundle observations = assertInstanceOf(Bundle.class, request.getPrefetch("item2"));
+		assertEquals(1, observations.getEntry().size());
+		assertInstanceOf(Observation.class, observations.getEntryFirstRep().getResource());
+	}
+
 	@Test
 	void testRec10() throws IOException {
 		loadBundle("r4/opioidcds-10-order-sign-bundle.json", ourCtx, ourClient);
@@ -0,0 +1,55 @@
+package ca.uhn.fhir.jpa.starter.cdshooks;
+
+import ca.uhn.hapi.fhir.cdshooks.api.json.CdsServiceJson;
+import ca.uhn.hapi.fhir.cdshooks.api.json.CdsServicesJson;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CdsDiscoveryCacheTest {
+
+	private final CdsDiscoveryCache cache = new CdsDiscoveryCache();
+	private final CdsServicesJson services = new CdsServicesJson();
+
+	@Test
+	void testRendersOnceUntilInvalidated() {
+		AtomicInteger renders = new AtomicInteger();
+
+		CdsDiscoveryCache.Rendered first = cache.get(services, s -> "{\"services\":[" + renders.incrementAndGet() + "]}");
+		CdsDiscoveryCache.Rendered second = cache.get(services, s -> "{\"services\":[" + renders.incrementAndGet() + "]}");
+		assertEquals(1, renders.get());
+		assertEquals(first.etag(), second.etag());
+
+		cache.handleChange(null);
+		CdsDiscoveryCache.Rendered third = cache.get(services, s -> "{\"services\":[" + renders.incrementAndGet() + "]}");
+		assertEquals(2, renders.get());
+		assertNotEquals(first.etag(), third.etag());
+	}
+
+	@Test
+	void testRerendersWhenRegisteredServicesChange() {
+		AtomicInteger renders = new AtomicInteger();
+		cache.get(services, s -> "{\"services\":[" + renders.incrementAndGet() + "]}");
+
+		services.addService(new CdsServiceJson().setId("hello-world"));
+		cache.get(services, s -> "{\"services\":[" + renders.incrementAndGet() + "]}");
+
+		assertEquals(2, renders.get());
+	}
+
+	@Test
+	void testIfNoneMatch() {
+		CdsDiscoveryCache.Rendered rendered = cache.get(services, s -> "{}");
+
+		assertTrue(rendered.matches(rendered.etag()));
+		assertTrue(rendered.matches("\"other\", W/" + rendered.etag()));
+		assertTrue(rendered.matches("*"));
+		assertFalse(rendered.matches("\"other\""));
+		assertFalse(rendered.matches(null));
+	}
+}
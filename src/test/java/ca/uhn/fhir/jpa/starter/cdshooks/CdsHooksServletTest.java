@@ -0,0 +1,148 @@
+package ca.uhn.fhir.jpa.starter.cdshooks;
+
+import ca.uhn.fhir.jpa.searchparam.config.NicknameServiceConfig;
+import ca.uhn.fhir.jpa.starter.Application;
+import ca.uhn.hapi.fhir.cdshooks.api.ICdsServiceRegistry;
+import ca.uhn.hapi.fhir.cdshooks.api.json.CdsServiceJson;
+import ca.uhn.hapi.fhir.cdshooks.api.json.CdsServiceResponseJson;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opencds.cqf.fhir.cr.hapi.config.CrCdsHooksConfig;
+import org.opencds.cqf.fhir.cr.hapi.config.RepositoryConfig;
+import org.opencds.cqf.fhir.cr.hapi.config.test.TestCdsHooksConfig;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(
+		webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+		classes = {
+			Application.class,
+			NicknameServiceConfig.class,
+			RepositoryConfig.class,
+			TestCdsHooksConfig.class,
+			CrCdsHooksConfig.class,
+			StarterCdsHooksConfig.class
+		},
+		properties = {
+			"spring.datasource.url=jdbc:h2:mem:dbcdsservlet",
+			"hapi.fhir.fhir_version=r4",
+			"hapi.fhir.cr.enabled=true",
+			"hapi.fhir.cr.caregaps.section_author=Organization/alphora-author",
+			"hapi.fhir.cr.caregaps.reporter=Organization/alphora",
+			"hapi.fhir.cdshooks.enabled=true",
+			"hapi.fhir.cdshooks.async=true",
+			// one call running and one waiting saturate the executor
+			"hapi.fhir.cdshooks.async-threads=1",
+			"hapi.fhir.cdshooks.async-queue-capacity=1",
+			"hapi.fhir.cdshooks.hook-timeout=PT2S",
+			"spring.main.allow-bean-definition-overriding=true"
+		})
+class CdsHooksServletTest {
+
+	private static final String SERVICE = "blocking-service";
+	private static final String MODULE = "servlet-test";
+
+	@LocalServerPort
+	int myPort;
+
+	@Autowired
+	ICdsServiceRegistry myCdsServiceRegistry;
+
+	@Autowired
+	@Qualifier(StarterCdsHooksConfig.CDS_HOOKS_EXECUTOR)
+	ExecutorService myCdsHooksExecutor;
+
+	private final HttpClient myHttpClient = HttpClient.newHttpClient();
+
+	private final CountDownLatch myRelease = new CountDownLatch(1);
+
+	@BeforeEach
+	void registerBlockingService() {
+		CdsServiceJson service = new CdsServiceJson().setId(SERVICE).setHook("patient-view");
+		myCdsServiceRegistry.registerService(
+				SERVICE,
+				request -> {
+					try {
+						myRelease.await(30, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					return new CdsServiceResponseJson();
+				},
+				service,
+				false,
+				MODULE);
+	}
+
+	@AfterEach
+	void unregisterBlockingService() {
+		myRelease.countDown();
+		myCdsServiceRegistry.unregisterServices(MODULE);
+	}
+
+	@Test
+	void testHookExceedingTimeoutReturnsNoCards() throws IOException, InterruptedException {
+		long start = System.nanoTime();
+		HttpResponse<String> response = myHttpClient.send(hookRequest(), HttpResponse.BodyHandlers.ofString());
+		Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+		assertEquals(200, response.statusCode(), response.body());
+		assertEquals("{\"cards\":[]}", response.body().trim());
+		assertTrue(elapsed.compareTo(Duration.ofSeconds(10)) < 0, "hook call took " + elapsed);
+	}
+
+	@Test
+	void testSaturatedExecutorRejectsCall() throws IOException, InterruptedException {
+		ThreadPoolExecutor executor = (ThreadPoolExecutor) myCdsHooksExecutor;
+		CompletableFuture<HttpResponse<String>> running =
+				myHttpClient.sendAsync(hookRequest(), HttpResponse.BodyHandlers.ofString());
+		CompletableFuture<HttpResponse<String>> queued =
+				myHttpClient.sendAsync(hookRequest(), HttpResponse.BodyHandlers.ofString());
+		long deadline = System.currentTimeMillis() + 1000;
+		while ((executor.getActiveCount() < 1 || executor.getQueue().isEmpty())
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+
+		HttpResponse<String> rejected = myHttpClient.send(hookRequest(), HttpResponse.BodyHandlers.ofString());
+
+		assertEquals(503, rejected.statusCode(), rejected.body());
+		myRelease.countDown();
+		assertEquals(200, running.join().statusCode());
+		assertEquals(200, queued.join().statusCode());
+	}
+
+	private HttpRequest hookRequest() {
+		String body = """
+				{
+				  "hookInstance": "servlet-test",
+				  "hook": "patient-view",
+				  "context": {
+				    "userId": "Practitioner/example",
+				    "patientId": "Patient/example"
+				  }
+				}""";
+		return HttpRequest.newBuilder(URI.create("http://localhost:" + myPort + "/cds-services/" + SERVICE))
+				.header("Content-Type", "application/json")
+				.POST(HttpRequest.BodyPublishers.ofString(body))
+				.build();
+	}
+}
@@ -0,0 +1,351 @@
+package ca.uhn.fhir.jpa.starter.cdshooks;
+
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.IInterceptorService;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.interceptor.executor.InterceptorService;
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.jpa.searchparam.MatchUrlService;
+import ca.uhn.fhir.jpa.searchparam.config.NicknameServiceConfig;
+import ca.uhn.fhir.jpa.starter.Application;
+import ca.uhn.fhir.model.api.IModelJson;
+import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
+import ca.uhn.fhir.rest.api.server.cdshooks.CdsServiceRequestContextJson;
+import ca.uhn.fhir.rest.api.server.cdshooks.CdsServiceRequestJson;
+import ca.uhn.fhir.rest.server.util.ICachedSearchDetails;
+import ca.uhn.hapi.fhir.cdshooks.api.CdsResolutionStrategyEnum;
+import ca.uhn.hapi.fhir.cdshooks.api.ICdsHooksDaoAuthorizationSvc;
+import ca.uhn.hapi.fhir.cdshooks.api.ICdsServiceMethod;
+import ca.uhn.hapi.fhir.cdshooks.api.json.CdsServiceJson;
+import ca.uhn.hapi.fhir.cdshooks.svc.prefetch.CdsPrefetchDaoSvc;
+import ca.uhn.hapi.fhir.cdshooks.svc.prefetch.CdsPrefetchFhirClientSvc;
+import ca.uhn.hapi.fhir.cdshooks.svc.prefetch.CdsPrefetchSvc;
+import ca.uhn.hapi.fhir.cdshooks.svc.prefetch.CdsResolutionStrategySvc;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.CodeableConcept;
+import org.hl7.fhir.r4.model.MedicationRequest;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Reference;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opencds.cqf.fhir.cr.hapi.config.CrCdsHooksConfig;
+import org.opencds.cqf.fhir.cr.hapi.config.RepositoryConfig;
+import org.opencds.cqf.fhir.cr.hapi.config.test.TestCdsHooksConfig;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(
+		webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+		classes = {
+			Application.class,
+			NicknameServiceConfig.class,
+			RepositoryConfig.class,
+			TestCdsHooksConfig.class,
+			CrCdsHooksConfig.class,
+			StarterCdsHooksConfig.class
+		},
+		properties = {
+			"spring.datasource.url=jdbc:h2:mem:dbcdsprefetch",
+			"hapi.fhir.fhir_version=r4",
+			"hapi.fhir.cr.enabled=true",
+			"hapi.fhir.cr.caregaps.section_author=Organization/alphora-author",
+			"hapi.fhir.cr.caregaps.reporter=Organization/alphora",
+			"hapi.fhir.cdshooks.enabled=true",
+			// nothing listens on this address, prefetch against it only succeeds without HTTP
+			"hapi.fhir.server_address=http://localhost:1/fhir/",
+			"hapi.fhir.cdshooks.module-services=prefetch-test,slow-prefetch,kept-prefetch,rejected-prefetch",
+			"spring.main.allow-bean-definition-overriding=true"
+		})
+class ModuleConfigurationPrefetchSvcTest {
+
+	private static final String LOCAL_SERVER = "http://localhost:1/fhir";
+
+	@Autowired
+	CdsPrefetchSvc myPrefetchSvc;
+
+	@Autowired
+	DaoRegistry myDaoRegistry;
+
+	@Autowired
+	CdsHooksProperties myCdsHooksProperties;
+
+	@Autowired
+	IInterceptorService myInterceptorService;
+
+	@Autowired
+	MeterRegistry myMeterRegistry;
+
+	@Autowired
+	CdsResolutionStrategySvc myCdsResolutionStrategySvc;
+
+	@Autowired
+	CdsPrefetchDaoSvc myCdsPrefetchDaoSvc;
+
+	@Autowired
+	CdsPrefetchFhirClientSvc myCdsPrefetchFhirClientSvc;
+
+	@Autowired
+	ICdsHooksDaoAuthorizationSvc myCdsHooksDaoAuthorizationSvc;
+
+	@Autowired
+	MatchUrlService myMatchUrlService;
+
+	@BeforeEach
+	void createPatient() {
+		Patient patient = new Patient();
+		patient.setId("prefetch-local");
+		patient.setActive(true);
+		myDaoRegistry.getResourceDao(Patient.class).update(patient, new SystemRequestDetails());
+
+		MedicationRequest order = new MedicationRequest();
+		order.setId("prefetch-local-order");
+		order.setStatus(MedicationRequest.MedicationRequestStatus.ACTIVE);
+		order.setIntent(MedicationRequest.MedicationRequestIntent.ORDER);
+		order.addCategory()
+				.addCoding()
+				.setSystem("http://terminology.hl7.org/CodeSystem/medicationrequest-category")
+				.setCode("community");
+		order.setSubject(new Reference("Patient/prefetch-local"));
+		order.setMedication(new CodeableConcept().setText("aspirin"));
+		myDaoRegistry.getResourceDao(MedicationRequest.class).update(order, new SystemRequestDetails());
+	}
+
+	@Test
+	void testLocalServerPrefetchIsReadFromDaos() {
+		assertInstanceOf(ModuleConfigurationPrefetchSvc.class, myPrefetchSvc);
+		CdsServiceRequestJson request = request(LOCAL_SERVER + "/");
+
+		myPrefetchSvc.augmentRequest(
+				request,
+				serviceMethod(service(Map.of(
+						"item1", "Patient/{{context.patientId}}",
+						"item2", "MedicationRequest?subject={{context.patientId}}"))));
+
+		Patient patient = assertInstanceOf(Patient.class, request.getPrefetch("item1"));
+		assertEquals("prefetch-local", patient.getIdElement().getIdPart());
+		Bundle orders = assertInstanceOf(Bundle.class, request.getPrefetch("item2"));
+		assertEquals(1, orders.getEntry().size());
+		// only the prefetch keys the service declares are resolved
+		assertNull(request.getPrefetch("item3"));
+	}
+
+	@Test
+	void testPrefetchOutsideModuleConfigurationUsesServiceTemplate() {
+		CdsServiceRequestJson request = request(LOCAL_SERVER);
+
+		CdsServiceJson service = service(Map.of(
+				"item1", "Patient/{{context.patientId}}",
+				"orders", "MedicationRequest?subject=Patient/prefetch-local&status=active"));
+		service.addSource("orders", CdsResolutionStrategyEnum.DAO);
+
+		myPrefetchSvc.augmentRequest(request, serviceMethod(service));
+
+		assertInstanceOf(Patient.class, request.getPrefetch("item1"));
+		Bundle orders = assertInstanceOf(Bundle.class, request.getPrefetch("orders"));
+		assertEquals(1, orders.getEntry().size());
+	}
+
+	@Test
+	void testServiceOutsideModuleServicesUsesOwnTemplates() {
+		Observation observation = new Observation();
+		observation.setStatus(Observation.ObservationStatus.FINAL);
+		observation.setSubject(new Reference("Patient/prefetch-local"));
+		myDaoRegistry.getResourceDao(Observation.class).create(observation, new SystemRequestDetails());
+		CdsServiceRequestJson request = request(LOCAL_SERVER);
+
+		// the same keys as the module configuration, with different templates
+		CdsServiceJson service = service(Map.of(
+				"item1", "Patient?_id={{context.patientId}}",
+				"item2", "Observation?subject={{context.patientId}}"));
+		service.setId("other-service");
+		service.addSource("item1", CdsResolutionStrategyEnum.DAO);
+		service.addSource("item2", CdsResolutionStrategyEnum.DAO);
+
+		myPrefetchSvc.augmentRequest(request, serviceMethod(service));
+
+		assertInstanceOf(Bundle.class, request.getPrefetch("item1"));
+		Bundle observations = assertInstanceOf(Bundle.class, request.getPrefetch("item2"));
+		assertEquals(1, observations.getEntry().size());
+		assertInstanceOf(Observation.class, observations.getEntryFirstRep().getResource());
+	}
+
+	@Test
+	void testLocalChangeIsVisibleToNextPrefetch() {
+		CdsServiceJson service = service(Map.of("item2", "MedicationRequest?subject={{context.patientId}}"));
+		CdsServiceRequestJson first = request(LOCAL_SERVER);
+		myPrefetchSvc.augmentRequest(first, serviceMethod(service));
+		int orders = ((Bundle) first.getPrefetch("item2")).getEntry().size();
+
+		MedicationRequest order = new MedicationRequest();
+		order.setStatus(MedicationRequest.MedicationRequestStatus.ACTIVE);
+		order.setIntent(MedicationRequest.MedicationRequestIntent.ORDER);
+		order.addCategory().addCoding().setCode("community");
+		order.setSubject(new Reference("Patient/prefetch-local"));
+		order.setMedication(new CodeableConcept().setText("ibuprofen"));
+		myDaoRegistry.getResourceDao(MedicationRequest.class).create(order, new SystemRequestDetails());
+
+		CdsServiceRequestJson second = request(LOCAL_SERVER);
+		myPrefetchSvc.augmentRequest(second, serviceMethod(service));
+		assertEquals(orders + 1, ((Bundle) second.getPrefetch("item2")).getEntry().size());
+	}
+
+	@Test
+	void testSlowSearchIsDroppedAtLatencyBudget() {
+		myCdsHooksProperties.setServiceLatencyBudgets(Map.of("slow-prefetch", Duration.ofMillis(500)));
+		Object slowEncounters = new SlowSearchInterceptor("Encounter", Duration.ofSeconds(5));
+		myInterceptorService.registerInterceptor(slowEncounters);
+		try {
+			CdsServiceJson service = service(Map.of(
+					"item1", "Patient/{{context.patientId}}",
+					"item4", "Encounter?patient={{context.patientId}}"));
+			service.setId("slow-prefetch");
+			CdsServiceRequestJson request = request(LOCAL_SERVER);
+
+			long start = System.nanoTime();
+			myPrefetchSvc.augmentRequest(request, serviceMethod(service));
+			Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+			assertTrue(elapsed.compareTo(Duration.ofSeconds(3)) < 0, "prefetch took " + elapsed);
+			assertInstanceOf(Patient.class, request.getPrefetch("item1"));
+			assertNull(request.getPrefetch("item4"));
+			assertEquals(
+					1.0,
+					myMeterRegistry
+							.get("cdshooks.prefetch.degraded")
+							.tag("service", "slow-prefetch")
+							.counter()
+							.count());
+		} finally {
+			myInterceptorService.unregisterInterceptor(slowEncounters);
+			myCdsHooksProperties.setServiceLatencyBudgets(new HashMap<>());
+		}
+	}
+
+	@Test
+	void testFinishedPrefetchIsKeptAtLatencyBudget() {
+		myCdsHooksProperties.setServiceLatencyBudgets(Map.of("kept-prefetch", Duration.ofMillis(1000)));
+		Object slowConditions = new SlowSearchInterceptor("Condition", Duration.ofSeconds(5));
+		myInterceptorService.registerInterceptor(slowConditions);
+		try {
+			// the slow item is waited for first, the fast one finishes meanwhile
+			CdsServiceJson service = service(Map.of(
+					"item3", "Condition?patient={{context.patientId}}",
+					"item5", "ServiceRequest?patient={{context.patientId}}"));
+			service.setId("kept-prefetch");
+			CdsServiceRequestJson request = request(LOCAL_SERVER);
+
+			myPrefetchSvc.augmentRequest(request, serviceMethod(service));
+
+			assertNull(request.getPrefetch("item3"));
+			assertInstanceOf(Bundle.class, request.getPrefetch("item5"));
+		} finally {
+			myInterceptorService.unregisterInterceptor(slowConditions);
+			myCdsHooksProperties.setServiceLatencyBudgets(new HashMap<>());
+		}
+	}
+
+	@Test
+	void testRejectedPrefetchIsDegraded() {
+		// rejects every query, as a saturated executor does
+		ExecutorService rejecting = ModuleConfigurationPrefetchSvc.newPrefetchExecutor(1);
+		rejecting.shutdown();
+		CdsPrefetchSvc prefetchSvc = new ModuleConfigurationPrefetchSvc(
+				myCdsResolutionStrategySvc,
+				myCdsPrefetchDaoSvc,
+				myCdsPrefetchFhirClientSvc,
+				myCdsHooksDaoAuthorizationSvc,
+				new InterceptorService(),
+				rejecting,
+				myDaoRegistry,
+				myMatchUrlService,
+				LOCAL_SERVER,
+				myCdsHooksProperties,
+				myMeterRegistry);
+		CdsServiceJson service = service(Map.of("item1", "Patient/{{context.patientId}}"));
+		service.setId("rejected-prefetch");
+		CdsServiceRequestJson request = request(LOCAL_SERVER);
+
+		prefetchSvc.augmentRequest(request, serviceMethod(service));
+
+		assertNull(request.getPrefetch("item1"));
+		assertEquals(
+				1.0,
+				myMeterRegistry
+						.get("cdshooks.prefetch.degraded")
+						.tag("service", "rejected-prefetch")
+						.counter()
+						.count());
+	}
+
+	@Interceptor
+	public static class SlowSearchInterceptor {
+		private final String myResourceType;
+		private final Duration myDelay;
+
+		SlowSearchInterceptor(String theResourceType, Duration theDelay) {
+			myResourceType = theResourceType;
+			myDelay = theDelay;
+		}
+
+		@Hook(Pointcut.STORAGE_PRESEARCH_REGISTERED)
+		public void searchRegistered(ICachedSearchDetails theSearch) {
+			if (myResourceType.equals(theSearch.getResourceType())) {
+				try {
+					Thread.sleep(myDelay.toMillis());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+	private static CdsServiceRequestJson request(String theFhirServer) {
+		CdsServiceRequestContextJson context = new CdsServiceRequestContextJson();
+		context.put("patientId", "Patient/prefetch-local");
+		CdsServiceRequestJson request = new CdsServiceRequestJson();
+		request.setHook("patient-view");
+		request.setHookInstance("prefetch-test");
+		request.setFhirServer(theFhirServer);
+		request.setContext(context);
+		return request;
+	}
+
+	private static CdsServiceJson service(Map<String, String> thePrefetch) {
+		CdsServiceJson service = new CdsServiceJson().setId("prefetch-test").setHook("patient-view");
+		thePrefetch.forEach(service::addPrefetch);
+		return service;
+	}
+
+	private static ICdsServiceMethod serviceMethod(CdsServiceJson theService) {
+		return new ICdsServiceMethod() {
+			@Override
+			public CdsServiceJson getCdsServiceJson() {
+				return theService;
+			}
+
+			@Override
+			public boolean isAllowAutoFhirClientPrefetch() {
+				return false;
+			}
+
+			@Override
+			public Object invoke(ObjectMapper theObjectMapper, IModelJson theJson, String theServiceId) {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
@@ -0,0 +1,145 @@
+package ca.uhn.fhir.jpa.starter.cdshooks;
+
+import ca.uhn.fhir.context.FhirContext;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Medication;
+import org.hl7.fhir.r4.model.MedicationRequest;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PrefetchCacheTest {
+
+	private static final String LABS = "Observation?subject={{context.patientId}}&category=laboratory";
+	private static final String PATIENT = "Patient/{{context.patientId}}";
+	private static final String MEDICATION_ORDERS =
+			"MedicationRequest?subject={{context.patientId}}&_include=MedicationRequest:medication";
+	private static final String CHAINED = "Observation?subject.name=smith";
+
+	private final PrefetchCache cache = new PrefetchCache(FhirContext.forR4Cached());
+
+	@Test
+	void testLocalChangeInvalidatesOnlyMatchingType() {
+		PrefetchCache.Key labs = key(null, null, LABS);
+		PrefetchCache.Key patient = key(null, null, PATIENT);
+		cache.put(labs, new Bundle(), cache.generation(labs));
+		cache.put(patient, new Bundle(), cache.generation(patient));
+
+		cache.resourceCreated(new Observation());
+
+		assertNull(cache.get(labs));
+		assertNotNull(cache.get(patient));
+	}
+
+	@Test
+	void testResultFetchedAcrossInvalidationIsNotCached() {
+		PrefetchCache.Key labs = key(null, null, LABS);
+		long generation = cache.generation(labs);
+
+		cache.invalidateLocal("Observation");
+		cache.put(labs, new Bundle(), generation);
+
+		assertNull(cache.get(labs));
+	}
+
+	@Test
+	void testRemoteEntriesAreNotInvalidatedByLocalChanges() {
+		PrefetchCache.Key labs = key("http://remote/fhir", "token", LABS);
+		cache.put(labs, new Bundle(), cache.generation(labs));
+
+		cache.invalidateLocal("Observation");
+
+		assertNotNull(cache.get(labs));
+	}
+
+	@Test
+	void testChangeOfIncludedTypeInvalidatesEntry() {
+		PrefetchCache.Key orders = key(null, null, MEDICATION_ORDERS);
+		cache.put(orders, new Bundle(), cache.generation(orders));
+
+		cache.resourceCreated(new Observation());
+		assertNotNull(cache.get(orders));
+
+		cache.resourceUpdated(new Medication(), new Medication());
+		assertNull(cache.get(orders));
+
+		long generation = cache.generation(orders);
+		cache.resourceDeleted(new MedicationRequest());
+		cache.put(orders, new Bundle(), generation);
+		assertNull(cache.get(orders));
+	}
+
+	@Test
+	void testChainedSearchIsInvalidatedByAnyChange() {
+		PrefetchCache.Key chained = key(null, null, CHAINED);
+		cache.put(chained, new Bundle(), cache.generation(chained));
+
+		cache.resourceUpdated(new Patient(), new Patient());
+
+		assertNull(cache.get(chained));
+	}
+
+	@Test
+	void testEntriesAreKeyedByExpandedUrl() {
+		String encounters = "Encounter?patient={{context.patientId}}&date=ge{{today}}";
+		PrefetchCache.Key lastYear = new PrefetchCache.Key(
+				null, null, "Encounter?patient=Patient/1&date=ge2025-10-18", encounters);
+		PrefetchCache.Key today = new PrefetchCache.Key(
+				null, null, "Encounter?patient=Patient/1&date=ge2025-10-19", encounters);
+		cache.put(lastYear, new Bundle(), cache.generation(lastYear));
+
+		assertNull(cache.get(today));
+		assertNull(cache.get(key(null, "other-caller", LABS)));
+	}
+
+	@Test
+	void testCallersGetTheirOwnCopy() {
+		PrefetchCache.Key patient = key(null, null, PATIENT);
+		Patient fetched = new Patient().setActive(true);
+		cache.put(patient, fetched, cache.generation(patient));
+		fetched.setActive(false);
+
+		Patient first = (Patient) cache.get(patient);
+		first.getNameFirstRep().setFamily("changed");
+
+		Patient second = (Patient) cache.get(patient);
+		assertNotSame(first, second);
+		assertTrue(second.getActive());
+		assertFalse(second.hasName());
+	}
+
+	@Test
+	void testResultFetchedBeforeCommitIsDroppedAfterCommit() {
+		PrefetchCache.Key labs = key(null, null, LABS);
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			cache.resourceCreated(new Observation());
+
+			// a search between pre-commit and commit still sees the old data
+			cache.put(labs, new Bundle(), cache.generation(labs));
+			assertNotNull(cache.get(labs));
+
+			for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+				synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+			}
+		} finally {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+
+		assertNull(cache.get(labs));
+		assertTrue(TransactionSynchronizationManager.getResourceMap().isEmpty());
+	}
+
+	private static PrefetchCache.Key key(String theFhirServer, String theAccessToken, String theTemplate) {
+		return new PrefetchCache.Key(
+				theFhirServer, theAccessToken, theTemplate.replace("{{context.patientId}}", "Patient/1"), theTemplate);
+	}
+}
@@ -0,0 +1,127 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.jpa.searchparam.config.NicknameServiceConfig;
+import ca.uhn.fhir.jpa.starter.Application;
+import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
+import org.cqframework.cql.cql2elm.model.CompiledLibrary;
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.hl7.fhir.r4.model.Enumerations;
+import org.hl7.fhir.r4.model.Library;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opencds.cqf.fhir.cql.EvaluationSettings;
+import org.opencds.cqf.fhir.cr.hapi.config.RepositoryConfig;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(
+		webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+		classes = {Application.class, NicknameServiceConfig.class, RepositoryConfig.class},
+		properties = {
+			"spring.datasource.url=jdbc:h2:mem:dbcqlinvalidation",
+			"hapi.fhir.fhir_version=r4",
+			"hapi.fhir.cr.enabled=true",
+			"hapi.fhir.cr.caregaps.section_author=Organization/alphora-author",
+			"hapi.fhir.cr.caregaps.reporter=Organization/alphora",
+			"hapi.fhir.cr.cache.push_invalidation=true",
+			// only the pushed invalidations evict during the test
+			"hapi.fhir.cr.cache.poll_interval=1h",
+			"spring.main.allow-bean-definition-overriding=true"
+		})
+class CqlCacheInvalidationBroadcasterTest {
+
+	private static final VersionedIdentifier LIBRARY =
+			new VersionedIdentifier().withId("PushInvalidation").withVersion("1.0.0");
+	private static final AtomicInteger ourRevision = new AtomicInteger();
+
+	@Autowired
+	CqlCacheInvalidationBroadcaster myBroadcaster;
+
+	@Autowired
+	EvaluationSettings myEvaluationSettings;
+
+	@Autowired
+	DaoRegistry myDaoRegistry;
+
+	@Autowired
+	PlatformTransactionManager myTransactionManager;
+
+	private Map<VersionedIdentifier, CompiledLibrary> myLibraryCache;
+
+	@BeforeEach
+	void createLibrary() throws InterruptedException {
+		myLibraryCache = myEvaluationSettings.getLibraryCache();
+		myLibraryCache.put(LIBRARY, new CompiledLibrary());
+		myDaoRegistry.getResourceDao(Library.class).update(library(), new SystemRequestDetails());
+		// the write is announced, wait for it so that it can not evict what the tests cache
+		awaitEvicted(LIBRARY);
+	}
+
+	@Test
+	void testWriteIsAnnouncedOnCommit() throws InterruptedException {
+		myLibraryCache.put(LIBRARY, new CompiledLibrary());
+
+		new TransactionTemplate(myTransactionManager).executeWithoutResult(status -> {
+			myDaoRegistry.getResourceDao(Library.class).update(library(), new SystemRequestDetails());
+			assertTrue(myLibraryCache.containsKey(LIBRARY));
+		});
+
+		awaitEvicted(LIBRARY);
+	}
+
+	@Test
+	void testRolledBackWriteIsNotAnnounced() throws InterruptedException {
+		myLibraryCache.put(LIBRARY, new CompiledLibrary());
+
+		new TransactionTemplate(myTransactionManager).executeWithoutResult(status -> {
+			myDaoRegistry.getResourceDao(Library.class).update(library(), new SystemRequestDetails());
+			status.setRollbackOnly();
+		});
+
+		Thread.sleep(500);
+		assertTrue(myLibraryCache.containsKey(LIBRARY));
+	}
+
+	@Test
+	void testMessageEvictsThroughElmListener() {
+		VersionedIdentifier other = new VersionedIdentifier().withId("Other").withVersion("1.0.0");
+		myLibraryCache.put(LIBRARY, new CompiledLibrary());
+		myLibraryCache.put(other, new CompiledLibrary());
+
+		myBroadcaster.handleMessage(new CqlCacheInvalidationJsonMessage(
+				new CqlCacheInvalidationMessage("Library", "push-invalidation")));
+
+		assertFalse(myLibraryCache.containsKey(LIBRARY));
+		assertTrue(myLibraryCache.containsKey(other));
+		myLibraryCache.remove(other);
+	}
+
+	private void awaitEvicted(VersionedIdentifier theIdentifier) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (myLibraryCache.containsKey(theIdentifier) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertFalse(myLibraryCache.containsKey(theIdentifier));
+	}
+
+	private static Library library() {
+		Library library = new Library();
+		library.setId("push-invalidation");
+		library.setUrl("http://example.org/Library/PushInvalidation");
+		library.setName(LIBRARY.getId());
+		library.setVersion(LIBRARY.getVersion());
+		library.setStatus(Enumerations.PublicationStatus.ACTIVE);
+		// an unchanged resource is not written at all
+		library.setDescription("Revision " + ourRevision.incrementAndGet());
+		return library;
+	}
+}
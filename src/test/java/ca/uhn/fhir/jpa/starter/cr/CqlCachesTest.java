@@ -0,0 +1,85 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.opencds.cqf.cql.engine.runtime.Code;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CqlCachesTest {
+
+	@Test
+	void testValueSetCacheIsBoundedByCodes() throws InterruptedException {
+		CqlCacheProperties properties = new CqlCacheProperties();
+		properties.setValuesetMaxCodes(100);
+		Map<String, List<Code>> cache = CqlCaches.newValueSetCache(properties, null);
+
+		cache.put("http://example.org/small", codes(10));
+		cache.put("http://example.org/large", codes(500));
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while (cache.containsKey("http://example.org/large") && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertFalse(cache.containsKey("http://example.org/large"));
+		assertTrue(cache.containsKey("http://example.org/small"));
+	}
+
+	@Test
+	void testMapViewSupportsInvalidationAndMetrics() {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		Map<String, List<Code>> cache = CqlCaches.newValueSetCache(new CqlCacheProperties(), registry);
+
+		cache.put("http://example.org/vs", codes(3));
+		assertEquals(3, cache.get("http://example.org/vs").size());
+		assertNull(cache.get("http://example.org/other"));
+
+		// what the code cache resource change listener does for a changed ValueSet
+		cache.remove("http://example.org/vs");
+		assertNull(cache.get("http://example.org/vs"));
+
+		assertEquals(
+				1.0,
+				registry.get("cache.gets")
+						.tag("cache", CqlCaches.VALUESET_CACHE)
+						.tag("result", "hit")
+						.functionCounter()
+						.count());
+		assertEquals(
+				2.0,
+				registry.get("cache.gets")
+						.tag("cache", CqlCaches.VALUESET_CACHE)
+						.tag("result", "miss")
+						.functionCounter()
+						.count());
+	}
+
+	@Test
+	void testValueSetExpansionsArePacked() {
+		Map<String, List<Code>> cache = CqlCaches.newValueSetCache(new CqlCacheProperties(), null);
+		List<Code> expansion = new ArrayList<>();
+		expansion.add(new Code().withSystem(new String("http://loinc.org")).withCode("1234-5"));
+		expansion.add(new Code().withSystem(new String("http://loinc.org")).withCode("6789-0"));
+
+		List<Code> cached = cache.computeIfAbsent("http://example.org/vs", url -> expansion);
+
+		assertInstanceOf(PackedCodeList.class, cached);
+		assertEquals(List.of("1234-5", "6789-0"), cached.stream().map(Code::getCode).toList());
+		assertSame(cached.get(0).getSystem(), cached.get(1).getSystem());
+		assertSame(cached, cache.get("http://example.org/vs"));
+	}
+
+	private static List<Code> codes(int theCount) {
+		return Collections.nCopies(theCount, new Code().withSystem("http://loinc.org").withCode("1234-5"));
+	}
+}
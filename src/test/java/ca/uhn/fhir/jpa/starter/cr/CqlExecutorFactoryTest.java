@@ -0,0 +1,80 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CqlExecutorFactoryTest {
+
+	@Test
+	void testFixedPoolCountsRejections() throws InterruptedException {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		ThreadPoolExecutor executor = CqlExecutorFactory.newFixedPool(
+				1,
+				1,
+				CqlExecutorFactory.rejectionHandler(CqlExecutorProperties.RejectionPolicy.ABORT, registry));
+		CountDownLatch release = new CountDownLatch(1);
+		try {
+			executor.execute(() -> await(release));
+			executor.execute(() -> await(release));
+
+			assertThrows(RejectedExecutionException.class, () -> executor.execute(() -> {}));
+			assertEquals(1.0, registry.get("cql.executor.rejected").counter().count());
+		} finally {
+			release.countDown();
+			executor.shutdown();
+			executor.awaitTermination(5, TimeUnit.SECONDS);
+		}
+	}
+
+	@Test
+	void testCallerRunsWhenQueueIsFull() throws InterruptedException {
+		ThreadPoolExecutor executor = CqlExecutorFactory.newFixedPool(
+				1, 1, CqlExecutorFactory.rejectionHandler(CqlExecutorProperties.RejectionPolicy.CALLER_RUNS, null));
+		CountDownLatch release = new CountDownLatch(1);
+		try {
+			executor.execute(() -> await(release));
+			executor.execute(() -> await(release));
+
+			Thread[] ranOn = new Thread[1];
+			executor.execute(() -> ranOn[0] = Thread.currentThread());
+			assertEquals(Thread.currentThread(), ranOn[0]);
+		} finally {
+			release.countDown();
+			executor.shutdown();
+			executor.awaitTermination(5, TimeUnit.SECONDS);
+		}
+	}
+
+	@Test
+	void testWorkStealingMode() {
+		CqlExecutorProperties properties = new CqlExecutorProperties();
+		properties.setMode(CqlExecutorProperties.Mode.WORK_STEALING);
+		properties.setPoolSize(3);
+
+		ExecutorService executor = CqlExecutorFactory.create(properties, new SimpleMeterRegistry());
+		try {
+			assertEquals(3, assertInstanceOf(ForkJoinPool.class, executor).getParallelism());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static void await(CountDownLatch theLatch) {
+		try {
+			theLatch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,34 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.health.Status;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CqlLibraryWarmerTest {
+
+	@Test
+	void testOutOfServiceUntilWarmUpRan() {
+		CqlLibraryWarmer warmer = new CqlLibraryWarmer(null, null, null, new CqlWarmupProperties());
+
+		assertFalse(warmer.isWarm());
+		assertEquals(Status.OUT_OF_SERVICE, warmer.health().getStatus());
+	}
+
+	@Test
+	void testFailedWarmUpDoesNotBlockReadiness() throws InterruptedException {
+		// without a DAO registry the libraries can not be looked up and the warm-up fails
+		CqlLibraryWarmer warmer = new CqlLibraryWarmer(null, null, null, new CqlWarmupProperties());
+
+		warmer.start();
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!warmer.isWarm() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertTrue(warmer.isWarm());
+		assertEquals(Status.UP, warmer.health().getStatus());
+	}
+}
@@ -0,0 +1,79 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.hl7.fhir.r4.model.Parameters;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CqlProfileTest {
+
+	@Test
+	void testAggregatesExpressionsAndRetrievesMostExpensiveFirst() {
+		CqlProfile profile = new CqlProfile();
+		profile.addExpression("Lib", "Cheap", 1, 1_000_000, 1_000_000);
+		profile.addExpression("Lib", "Expensive", 1, 2_000_000, 500_000);
+		// the same definition reached through another expression
+		profile.addExpression("Lib", "Expensive", 2, 2_000_000, 1_000_000);
+		profile.setResultSize("Lib", "Expensive", 3);
+		profile.addRetrieve("Observation", "database", 2, 3_000_000);
+		profile.addRetrieve("Observation", "database", 1, 1_000_000);
+		profile.addRetrieve("Observation", "cache", 2, 10_000);
+
+		Parameters parameters = profile.toParameters();
+		assertEquals(4, parameters.getParameter().size());
+
+		Parameters.ParametersParameterComponent expensive = parameters.getParameter().get(0);
+		assertEquals("expression", expensive.getName());
+		assertEquals("Expensive", part(expensive, "name").primitiveValue());
+		assertEquals("3", part(expensive, "count").primitiveValue());
+		assertEquals(new BigDecimal("4.000"), value(expensive, "timeMs"));
+		assertEquals(new BigDecimal("1.500"), value(expensive, "selfTimeMs"));
+		assertEquals("3", part(expensive, "resultSize").primitiveValue());
+		assertEquals("Cheap", part(parameters.getParameter().get(1), "name").primitiveValue());
+
+		Parameters.ParametersParameterComponent database = parameters.getParameter().get(2);
+		assertEquals("retrieve", database.getName());
+		assertEquals("database", part(database, "source").primitiveValue());
+		assertEquals("2", part(database, "count").primitiveValue());
+		assertEquals("3", part(database, "resources").primitiveValue());
+		assertEquals("cache", part(parameters.getParameter().get(3), "source").primitiveValue());
+	}
+
+	@Test
+	void testPublishesOneSamplePerProfiledEvaluation() {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		for (int i = 0; i < 2; i++) {
+			CqlProfile profile = new CqlProfile();
+			profile.addExpression("Lib", "Expr", 4, 2_000_000, 2_000_000);
+			profile.addRetrieve("Condition", "prefetch", 5, 1_000_000);
+			profile.publish(registry);
+		}
+
+		assertEquals(2, registry.get("cql.expression").tag("expression", "Expr").timer().count());
+		assertEquals(
+				4.0,
+				registry.get("cql.expression")
+						.tag("library", "Lib")
+						.timer()
+						.totalTime(TimeUnit.MILLISECONDS));
+		assertEquals(2, registry.get("cql.retrieve").tag("resource_type", "Condition").timer().count());
+		assertEquals(10.0, registry.get("cql.retrieve.resources").summary().totalAmount());
+	}
+
+	private static BigDecimal value(Parameters.ParametersParameterComponent theParameter, String theName) {
+		return new BigDecimal(part(theParameter, theName).primitiveValue());
+	}
+
+	private static org.hl7.fhir.r4.model.Type part(
+			Parameters.ParametersParameterComponent theParameter, String theName) {
+		return theParameter.getPart().stream()
+				.filter(p -> theName.equals(p.getName()))
+				.findFirst()
+				.orElseThrow()
+				.getValue();
+	}
+}
@@ -0,0 +1,87 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.jpa.searchparam.matcher.InMemoryMatchResult;
+import ca.uhn.fhir.jpa.searchparam.matcher.SearchParamMatcher;
+import ca.uhn.fhir.model.api.IQueryParameterType;
+import ca.uhn.fhir.rest.param.ReferenceParam;
+import ca.uhn.fhir.rest.param.TokenParam;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Multimap;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class PatientDataSliceTest {
+
+	private static final FhirContext ourCtx = FhirContext.forR4Cached();
+
+	@Test
+	void testAnswersSearchesScopedToAPatientOfTheSlice() {
+		PatientDataSlice slice = newSlice(InMemoryMatchResult.successfulMatch());
+
+		List<IBaseResource> observations = slice.search("Observation", subject("Patient/p1"), compartment("Patient/p1"));
+		assertEquals(1, observations.size());
+
+		Multimap<String, List<IQueryParameterType>> byId = ArrayListMultimap.create();
+		byId.put("_id", List.of(new TokenParam("p1")));
+		assertEquals(1, slice.search("Patient", byId, compartment("Patient/p1")).size());
+
+		// a patient without data of the type is known to have none
+		assertEquals(0, slice.search("Observation", subject("Patient/p2"), compartment("Patient/p2")).size());
+	}
+
+	@Test
+	void testDeclinesSearchesItCanNotAnswer() {
+		PatientDataSlice slice = newSlice(InMemoryMatchResult.successfulMatch());
+
+		// no patient context, another patient, a type that was not loaded, or not scoped to the patient
+		assertNull(slice.search("Observation", subject("Patient/p1"), Map.of()));
+		assertNull(slice.search("Observation", subject("Patient/p3"), compartment("Patient/p3")));
+		assertNull(slice.search("Condition", subject("Patient/p1"), compartment("Patient/p1")));
+		Multimap<String, List<IQueryParameterType>> code = ArrayListMultimap.create();
+		code.put("code", List.of(new TokenParam("http://loinc.org", "1234-5")));
+		assertNull(slice.search("Observation", code, compartment("Patient/p1")));
+
+		// parameters the in-memory matcher does not support go to the database
+		PatientDataSlice unsupported = newSlice(InMemoryMatchResult.unsupportedFromReason("test"));
+		assertNull(unsupported.search("Observation", subject("Patient/p1"), compartment("Patient/p1")));
+	}
+
+	private static PatientDataSlice newSlice(InMemoryMatchResult theMatchResult) {
+		SearchParamMatcher matcher = new SearchParamMatcher() {
+			@Override
+			public InMemoryMatchResult match(SearchParameterMap theMap, IBaseResource theResource) {
+				return theMatchResult;
+			}
+		};
+		PatientDataSlice slice = new PatientDataSlice(
+				ourCtx, matcher, Set.of("Patient", "Observation"), List.of("Patient/p1", "Patient/p2"));
+		slice.add("p1", new Patient().setId("p1"));
+		Observation observation = new Observation();
+		observation.setId("o1");
+		observation.getSubject().setReference("Patient/p1");
+		slice.add("p1", observation);
+		slice.add("p3", new Patient().setId("p3"));
+		return slice;
+	}
+
+	private static Multimap<String, List<IQueryParameterType>> subject(String thePatient) {
+		Multimap<String, List<IQueryParameterType>> parameters = ArrayListMultimap.create();
+		parameters.put("subject", List.of(new ReferenceParam(thePatient)));
+		return parameters;
+	}
+
+	private static Map<String, String> compartment(String thePatient) {
+		return Map.of(PatientDataSlice.COMPARTMENT_HEADER, thePatient);
+	}
+}
@@ -0,0 +1,106 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.model.api.IQueryParameterType;
+import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
+import ca.uhn.fhir.rest.param.DateParam;
+import ca.uhn.fhir.rest.param.ParamPrefixEnum;
+import ca.uhn.fhir.rest.param.ReferenceParam;
+import ca.uhn.fhir.rest.param.TokenParam;
+import com.google.common.collect.LinkedListMultimap;
+import com.google.common.collect.Multimap;
+import org.hl7.fhir.instance.model.api.IBaseBundle;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Condition;
+import org.hl7.fhir.r4.model.Observation;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class RetrieveCachingRepositoryTest {
+
+	private final CountingRepository myRepository = new CountingRepository();
+
+	@Test
+	void testReorderedCodesAndParametersHit() {
+		Multimap<String, List<IQueryParameterType>> first = LinkedListMultimap.create();
+		first.put("subject", List.of(new ReferenceParam("Patient/1")));
+		first.put("code", List.of(loinc("1234-5"), loinc("6789-0")));
+		Multimap<String, List<IQueryParameterType>> second = LinkedListMultimap.create();
+		second.put("code", List.of(loinc("6789-0"), loinc("1234-5")));
+		second.put("subject", List.of(new ReferenceParam("Patient/1")));
+
+		Bundle bundle = search(Observation.class, first);
+
+		assertSame(bundle, search(Observation.class, second));
+		assertEquals(1, myRepository.getMisses());
+		assertEquals(1, myRepository.getHits());
+	}
+
+	@Test
+	void testDifferentDatePrefixMisses() {
+		search(Observation.class, date(ParamPrefixEnum.GREATERTHAN_OR_EQUALS));
+		search(Observation.class, date(ParamPrefixEnum.GREATERTHAN));
+
+		assertEquals(2, myRepository.getMisses());
+		assertEquals(0, myRepository.getHits());
+	}
+
+	@Test
+	void testWriteDropsOnlySearchesOfWrittenType() {
+		Multimap<String, List<IQueryParameterType>> subject = LinkedListMultimap.create();
+		subject.put("subject", List.of(new ReferenceParam("Patient/1")));
+		search(Observation.class, subject);
+		search(Condition.class, subject);
+
+		// what a create, update or delete of an Observation does before writing
+		myRepository.invalidate(Set.of("Observation"));
+		search(Observation.class, subject);
+		search(Condition.class, subject);
+
+		assertEquals(3, myRepository.getMisses());
+		assertEquals(1, myRepository.getHits());
+	}
+
+	private Bundle search(
+			Class<? extends IBaseResource> theResourceType, Multimap<String, List<IQueryParameterType>> theParameters) {
+		return myRepository.search(Bundle.class, theResourceType, theParameters, Map.of());
+	}
+
+	private static TokenParam loinc(String theCode) {
+		return new TokenParam("http://loinc.org", theCode);
+	}
+
+	private static Multimap<String, List<IQueryParameterType>> date(ParamPrefixEnum thePrefix) {
+		Multimap<String, List<IQueryParameterType>> parameters = LinkedListMultimap.create();
+		parameters.put("subject", List.of(new ReferenceParam("Patient/1")));
+		parameters.put("date", List.of(new DateParam(thePrefix, "2024-01-01")));
+		return parameters;
+	}
+
+	/**
+	 * Answers every search that is not cached with a new empty bundle, without a database.
+	 */
+	private static class CountingRepository extends RetrieveCachingRepository {
+
+		CountingRepository() {
+			super(new DaoRegistry(FhirContext.forR4Cached()), new SystemRequestDetails(), null, 100);
+		}
+
+		@Override
+		protected <B extends IBaseBundle, T extends IBaseResource> B searchUncached(
+				Class<B> theBundleType,
+				Class<T> theResourceType,
+				Multimap<String, List<IQueryParameterType>> theSearchParameters,
+				Map<String, String> theHeaders) {
+			return theBundleType.cast(new Bundle().setType(Bundle.BundleType.SEARCHSET));
+		}
+	}
+}
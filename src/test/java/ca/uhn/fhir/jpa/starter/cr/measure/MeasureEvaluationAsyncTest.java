@@ -0,0 +1,242 @@
+package ca.uhn.fhir.jpa.starter.cr.measure;
+
+import ca.uhn.fhir.batch2.api.IJobMaintenanceService;
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.jpa.searchparam.config.NicknameServiceConfig;
+import ca.uhn.fhir.jpa.starter.Application;
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
+import ca.uhn.fhir.rest.server.RestfulServer;
+import ca.uhn.fhir.rest.server.interceptor.auth.AuthorizationInterceptor;
+import ca.uhn.fhir.rest.server.interceptor.auth.IAuthRule;
+import ca.uhn.fhir.rest.server.interceptor.auth.RuleBuilder;
+import org.hl7.fhir.r4.model.Binary;
+import org.hl7.fhir.r4.model.CodeableConcept;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.Enumerations;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Library;
+import org.hl7.fhir.r4.model.Measure;
+import org.hl7.fhir.r4.model.MeasureReport;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opencds.cqf.fhir.cr.hapi.config.RepositoryConfig;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(
+		webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+		classes = {Application.class, NicknameServiceConfig.class, RepositoryConfig.class},
+		properties = {
+			"spring.datasource.url=jdbc:h2:mem:dbmeasureasync",
+			"hapi.fhir.fhir_version=r4",
+			"hapi.fhir.cr.enabled=true",
+			"hapi.fhir.cr.caregaps.section_author=Organization/alphora-author",
+			"hapi.fhir.cr.caregaps.reporter=Organization/alphora",
+			// three patients in two chunks, so that the reducer merges counts
+			"hapi.fhir.cr.measure.chunk_size=2",
+			"spring.main.allow-bean-definition-overriding=true"
+		})
+class MeasureEvaluationAsyncTest {
+
+	private static final String CQL = """
+			library AsyncEvaluation version '1.0.0'
+			using FHIR version '4.0.1'
+			parameter "Measurement Period" Interval<DateTime>
+			context Patient
+			define "Initial Population": true
+			define "Denominator": true
+			define "Numerator": Patient.gender.value = 'female'
+			""";
+
+	@LocalServerPort
+	int myPort;
+
+	@Autowired
+	DaoRegistry myDaoRegistry;
+
+	@Autowired
+	FhirContext myFhirContext;
+
+	@Autowired
+	IJobMaintenanceService myJobMaintenanceService;
+
+	@Autowired
+	RestfulServer myRestfulServer;
+
+	@Autowired
+	ChunkedMeasureEvaluator myChunkedMeasureEvaluator;
+
+	private final HttpClient myHttpClient = HttpClient.newHttpClient();
+
+	@BeforeEach
+	void createMeasure() {
+		Library library = new Library();
+		library.setId("async-evaluation");
+		library.setUrl("http://example.org/Library/AsyncEvaluation");
+		library.setName("AsyncEvaluation");
+		library.setVersion("1.0.0");
+		library.setStatus(Enumerations.PublicationStatus.ACTIVE);
+		library.getType()
+				.addCoding()
+				.setSystem("http://terminology.hl7.org/CodeSystem/library-type")
+				.setCode("logic-library");
+		library.addContent().setContentType("text/cql").setData(CQL.getBytes(StandardCharsets.UTF_8));
+		myDaoRegistry.getResourceDao(Library.class).update(library, new SystemRequestDetails());
+
+		Measure measure = new Measure();
+		measure.setId("async-evaluation");
+		measure.setUrl("http://example.org/Measure/AsyncEvaluation");
+		measure.setStatus(Enumerations.PublicationStatus.ACTIVE);
+		measure.addLibrary("http://example.org/Library/AsyncEvaluation|1.0.0");
+		measure.getScoring()
+				.addCoding()
+				.setSystem("http://terminology.hl7.org/CodeSystem/measure-scoring")
+				.setCode("proportion");
+		Measure.MeasureGroupComponent group = measure.addGroup();
+		Map.of("initial-population", "Initial Population", "denominator", "Denominator", "numerator", "Numerator")
+				.forEach((population, expression) -> {
+					Measure.MeasureGroupPopulationComponent component = group.addPopulation();
+					component.setId(population);
+					component
+							.setCode(new CodeableConcept()
+									.addCoding(new Coding(
+											"http://terminology.hl7.org/CodeSystem/measure-population", population, null)))
+							.getCriteria()
+							.setLanguage("text/cql-identifier")
+							.setExpression(expression);
+				});
+		myDaoRegistry.getResourceDao(Measure.class).update(measure, new SystemRequestDetails());
+
+		patient("async-1", Enumerations.AdministrativeGender.FEMALE);
+		patient("async-2", Enumerations.AdministrativeGender.FEMALE);
+		patient("async-3", Enumerations.AdministrativeGender.MALE);
+	}
+
+	@Test
+	void testJobReportsPopulationCounts() throws IOException, InterruptedException {
+		HttpResponse<String> accepted = evaluateAsync("periodStart=2024-01-01&periodEnd=2024-12-31");
+		assertEquals(202, accepted.statusCode(), accepted.body());
+		String pollLocation = accepted.headers().firstValue(Constants.HEADER_CONTENT_LOCATION).orElseThrow();
+
+		HttpResponse<String> status = get(pollLocation);
+		long deadline = System.currentTimeMillis() + 60000;
+		while (status.statusCode() == 202 && System.currentTimeMillis() < deadline) {
+			// the scheduled maintenance pass, which advances the job's steps, only runs every minute
+			myJobMaintenanceService.runMaintenancePass();
+			Thread.sleep(250);
+			status = get(pollLocation);
+		}
+		assertEquals(200, status.statusCode(), status.body());
+
+		MeasureReport report = myFhirContext.newJsonParser().parseResource(MeasureReport.class, status.body());
+		assertEquals(MeasureReport.MeasureReportType.SUMMARY, report.getType());
+		Map<String, Integer> counts = report.getGroupFirstRep().getPopulation().stream()
+				.collect(Collectors.toMap(
+						p -> p.getCode().getCodingFirstRep().getCode(),
+						MeasureReport.MeasureReportGroupPopulationComponent::getCount));
+		assertEquals(Map.of("initial-population", 3, "denominator", 3, "numerator", 2), counts);
+	}
+
+	@Test
+	void testUnsupportedParametersAreRejected() throws IOException, InterruptedException {
+		HttpResponse<String> practitioner =
+				evaluateAsync("periodStart=2024-01-01&periodEnd=2024-12-31&practitioner=Practitioner/1");
+		assertEquals(400, practitioner.statusCode());
+		assertTrue(practitioner.body().contains("practitioner"), practitioner.body());
+
+		HttpResponse<String> subjectReport = evaluateAsync(
+				"periodStart=2024-01-01&periodEnd=2024-12-31&subject=Patient/async-1&reportType=subject");
+		assertEquals(400, subjectReport.statusCode());
+		assertTrue(subjectReport.body().contains("Report type subject"), subjectReport.body());
+	}
+
+	@Test
+	void testUnauthorizedCallerStartsNoJob() throws IOException, InterruptedException {
+		AuthorizationInterceptor denyAll = new AuthorizationInterceptor() {
+			@Override
+			public List<IAuthRule> buildRuleList(RequestDetails theRequestDetails) {
+				return new RuleBuilder().denyAll("not allowed").build();
+			}
+		};
+		myRestfulServer.registerInterceptor(denyAll);
+		HttpResponse<String> denied;
+		try {
+			denied = evaluateAsync("periodStart=2024-01-01&periodEnd=2024-12-31");
+		} finally {
+			myRestfulServer.unregisterInterceptor(denyAll);
+		}
+
+		assertEquals(403, denied.statusCode(), denied.body());
+	}
+
+	@Test
+	void testRetriedChunkReplacesItsReports() {
+		Measure measure = myChunkedMeasureEvaluator.readMeasure(
+				new IdType("Measure/async-evaluation"), new SystemRequestDetails());
+		ZonedDateTime start = ZonedDateTime.parse("2024-01-01T00:00:00Z");
+		ZonedDateTime end = ZonedDateTime.parse("2024-12-31T23:59:59Z");
+		String binaryId = ChunkedMeasureEvaluator.chunkBinaryId("instance", "chunk");
+
+		MeasurePopulationTally first = myChunkedMeasureEvaluator.evaluateChunk(
+				measure, start, end, List.of("Patient/async-1"), binaryId, new SystemRequestDetails());
+		int binaries = binaryCount();
+		MeasurePopulationTally retry = myChunkedMeasureEvaluator.evaluateChunk(
+				measure, start, end, List.of("Patient/async-1"), binaryId, new SystemRequestDetails());
+
+		assertEquals(List.of("Binary/" + binaryId), first.getSubjectResults());
+		assertEquals(first.getSubjectResults(), retry.getSubjectResults());
+		assertEquals(binaries, binaryCount());
+	}
+
+	private int binaryCount() {
+		return myDaoRegistry
+				.getResourceDao(Binary.class)
+				.search(SearchParameterMap.newSynchronous(), new SystemRequestDetails())
+				.size();
+	}
+
+	private HttpResponse<String> evaluateAsync(String theQuery) throws IOException, InterruptedException {
+		return myHttpClient.send(
+				HttpRequest.newBuilder(URI.create("http://localhost:" + myPort
+								+ "/fhir/Measure/async-evaluation/$evaluate-measure?" + theQuery))
+						.header(Constants.HEADER_PREFER, Constants.HEADER_PREFER_RESPOND_ASYNC)
+						.header(Constants.HEADER_ACCEPT, Constants.CT_FHIR_JSON_NEW)
+						.build(),
+				HttpResponse.BodyHandlers.ofString());
+	}
+
+	private HttpResponse<String> get(String theUrl) throws IOException, InterruptedException {
+		return myHttpClient.send(
+				HttpRequest.newBuilder(URI.create(theUrl))
+						.header(Constants.HEADER_ACCEPT, Constants.CT_FHIR_JSON_NEW)
+						.build(),
+				HttpResponse.BodyHandlers.ofString());
+	}
+
+	private void patient(String theId, Enumerations.AdministrativeGender theGender) {
+		Patient patient = new Patient();
+		patient.setId(theId);
+		patient.setGender(theGender);
+		myDaoRegistry.getResourceDao(Patient.class).update(patient, new SystemRequestDetails());
+	}
+}
@@ -0,0 +1,115 @@
+package ca.uhn.fhir.jpa.starter.cr.measure;
+
+import org.hl7.fhir.r4.model.CodeableConcept;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.MeasureReport;
+import org.hl7.fhir.r4.model.MeasureReport.MeasureReportGroupComponent;
+import org.hl7.fhir.r4.model.MeasureReport.StratifierGroupComponent;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class MeasurePopulationTallyTest {
+
+	@Test
+	void testMergedChunksAreScored() {
+		MeasurePopulationTally first = new MeasurePopulationTally();
+		first.add(subjectReport(1, 1, 0, "male"));
+		first.add(subjectReport(1, 0, 0, "female"));
+		first.addSubjectResults("Binary/1");
+
+		MeasurePopulationTally second = new MeasurePopulationTally();
+		second.add(subjectReport(1, 1, 1, "female"));
+		second.add(subjectReport(1, 1, 0, "female"));
+		second.add(subjectReport(1, 1, 0, "male").setStatus(MeasureReport.MeasureReportStatus.ERROR));
+		second.addSubjectResults("Binary/2");
+
+		MeasurePopulationTally tally = new MeasurePopulationTally();
+		tally.merge(first);
+		tally.merge(second);
+
+		assertEquals(4, tally.getSubjectCount());
+		assertEquals(3, tally.getCount("group-1", "numerator"));
+
+		MeasureReport report = tally.toSummaryReport("proportion");
+		assertEquals(MeasureReport.MeasureReportType.SUMMARY, report.getType());
+		assertEquals("http://example.org/Measure/test", report.getMeasure());
+
+		MeasureReportGroupComponent group = report.getGroupFirstRep();
+		assertEquals(4, group.getPopulation().get(0).getCount());
+		// (3 - 0) / (4 - 1)
+		assertEquals(1.0, group.getMeasureScore().getValue().doubleValue());
+
+		StratifierGroupComponent female = group.getStratifierFirstRep().getStratum().get(1);
+		assertEquals("female", female.getValue().getText());
+		assertEquals(3, female.getPopulation().get(0).getCount());
+		// (2 - 0) / (3 - 1)
+		assertEquals(1.0, female.getMeasureScore().getValue().doubleValue());
+
+		assertEquals(2, report.getExtensionsByUrl(MeasurePopulationTally.EXT_SUBJECT_RESULTS).size());
+		assertEquals(
+				"1",
+				report.getExtensionByUrl(MeasurePopulationTally.EXT_FAILED_SUBJECT_COUNT)
+						.getValue()
+						.primitiveValue());
+	}
+
+	@Test
+	void testChunkReportsMergeLikeTallies() {
+		MeasurePopulationTally chunk = new MeasurePopulationTally();
+		chunk.add(subjectReport(1, 1, 0, "male"));
+		chunk.add(subjectReport(1, 0, 1, "female"));
+		chunk.addFailedSubject();
+		chunk.addSubjectResults("Binary/1");
+
+		MeasurePopulationTally tally = new MeasurePopulationTally();
+		tally.addChunkReport(chunk.toSummaryReport(null), chunk.getSubjectCount());
+		tally.addChunkReport(chunk.toSummaryReport(null), chunk.getSubjectCount());
+
+		assertEquals(4, tally.getSubjectCount());
+		assertEquals(2, tally.getFailedSubjectCount());
+		assertEquals(2, tally.getCount("group-1", "numerator"));
+		assertEquals(2, tally.getCount("group-1", "denominator-exclusion"));
+		assertEquals(2, tally.getSubjectResults().size());
+		// (2 - 0) / (4 - 2)
+		assertEquals(
+				1.0,
+				tally.toSummaryReport("proportion")
+						.getGroupFirstRep()
+						.getMeasureScore()
+						.getValue()
+						.doubleValue());
+	}
+
+	@Test
+	void testCohortIsNotScored() {
+		MeasurePopulationTally tally = new MeasurePopulationTally();
+		tally.add(subjectReport(1, 1, 0, "male"));
+
+		assertFalse(tally.toSummaryReport("cohort").getGroupFirstRep().hasMeasureScore());
+	}
+
+	private static MeasureReport subjectReport(
+			int theDenominator, int theNumerator, int theDenominatorExclusion, String theStratum) {
+		MeasureReport report = new MeasureReport();
+		report.setType(MeasureReport.MeasureReportType.INDIVIDUAL);
+		report.setMeasure("http://example.org/Measure/test");
+		MeasureReportGroupComponent group = report.addGroup();
+		group.setId("group-1");
+		group.addPopulation().setCode(population("denominator")).setCount(theDenominator);
+		group.addPopulation().setCode(population("numerator")).setCount(theNumerator);
+		group.addPopulation().setCode(population("denominator-exclusion")).setCount(theDenominatorExclusion);
+		StratifierGroupComponent stratum =
+				group.addStratifier().addStratum().setValue(new CodeableConcept().setText(theStratum));
+		stratum.addPopulation().setCode(population("denominator")).setCount(theDenominator);
+		stratum.addPopulation().setCode(population("numerator")).setCount(theNumerator);
+		stratum.addPopulation().setCode(population("denominator-exclusion")).setCount(theDenominatorExclusion);
+		return report;
+	}
+
+	private static CodeableConcept population(String theCode) {
+		return new CodeableConcept(
+				new Coding("http://terminology.hl7.org/CodeSystem/measure-population", theCode, null));
+	}
+}
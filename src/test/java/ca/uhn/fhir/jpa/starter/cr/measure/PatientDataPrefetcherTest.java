@@ -0,0 +1,84 @@
+package ca.uhn.fhir.jpa.starter.cr.measure;
+
+import ca.uhn.fhir.jpa.api.config.JpaStorageSettings;
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.jpa.searchparam.config.NicknameServiceConfig;
+import ca.uhn.fhir.jpa.starter.Application;
+import ca.uhn.fhir.jpa.starter.cr.PatientDataSlice;
+import ca.uhn.fhir.model.api.IQueryParameterType;
+import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
+import ca.uhn.fhir.rest.param.ReferenceParam;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Multimap;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Reference;
+import org.junit.jupiter.api.Test;
+import org.opencds.cqf.fhir.cr.hapi.config.RepositoryConfig;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@SpringBootTest(
+		webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+		classes = {Application.class, NicknameServiceConfig.class, RepositoryConfig.class},
+		properties = {
+			"spring.datasource.url=jdbc:h2:mem:dbpatientprefetch",
+			"hapi.fhir.fhir_version=r4",
+			"hapi.fhir.cr.enabled=true",
+			"hapi.fhir.cr.caregaps.section_author=Organization/alphora-author",
+			"hapi.fhir.cr.caregaps.reporter=Organization/alphora",
+			"spring.main.allow-bean-definition-overriding=true"
+		})
+class PatientDataPrefetcherTest {
+
+	@Autowired
+	PatientDataPrefetcher myPrefetcher;
+
+	@Autowired
+	DaoRegistry myDaoRegistry;
+
+	@Autowired
+	JpaStorageSettings myStorageSettings;
+
+	@Test
+	void testPrefetchIsNotTruncatedAtSynchronousSearchSize() {
+		Patient patient = new Patient();
+		patient.setId("prefetch-many");
+		myDaoRegistry.getResourceDao(Patient.class).update(patient, new SystemRequestDetails());
+		for (int i = 0; i < 12; i++) {
+			Observation observation = new Observation();
+			observation.setStatus(Observation.ObservationStatus.FINAL);
+			observation.setSubject(new Reference("Patient/prefetch-many"));
+			myDaoRegistry.getResourceDao(Observation.class).create(observation, new SystemRequestDetails());
+		}
+
+		int synchronousSearchSize = myStorageSettings.getInternalSynchronousSearchSize();
+		Integer fetchSizeDefaultMaximum = myStorageSettings.getFetchSizeDefaultMaximum();
+		myStorageSettings.setInternalSynchronousSearchSize(5);
+		myStorageSettings.setFetchSizeDefaultMaximum(5);
+		PatientDataSlice slice;
+		try {
+			slice = myPrefetcher.prefetch(
+					Set.of("Patient", "Observation"), List.of("Patient/prefetch-many"), new SystemRequestDetails());
+		} finally {
+			myStorageSettings.setInternalSynchronousSearchSize(synchronousSearchSize);
+			myStorageSettings.setFetchSizeDefaultMaximum(fetchSizeDefaultMaximum);
+		}
+
+		Multimap<String, List<IQueryParameterType>> subject = ArrayListMultimap.create();
+		subject.put("subject", List.of(new ReferenceParam("Patient/prefetch-many")));
+		assertEquals(
+				12,
+				slice.search(
+								"Observation",
+								subject,
+								Map.of(PatientDataSlice.COMPARTMENT_HEADER, "Patient/prefetch-many"))
+						.size());
+	}
+}
@@ -0,0 +1,105 @@
+package de.gematik.interceptor;
+
+import ca.uhn.fhir.interceptor.api.HookParams;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.interceptor.executor.InterceptorService;
+import ca.uhn.fhir.jpa.subscription.model.CanonicalSubscription;
+import ca.uhn.fhir.jpa.subscription.model.ResourceDeliveryMessage;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class SubscriptionDeliveryMetricsInterceptorTest {
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final InterceptorService interceptorService = new InterceptorService();
+
+	@BeforeEach
+	void registerInterceptor() {
+		new SubscriptionDeliveryMetricsInterceptor(meterRegistry, interceptorService).register();
+	}
+
+	@Test
+	void testSuccessfulDeliveryIsTimed() {
+		ResourceDeliveryMessage message = message("https://subscriber.example.org:8443/hook");
+
+		before(message);
+		interceptorService.callHooks(Pointcut.SUBSCRIPTION_AFTER_REST_HOOK_DELIVERY, deliveryParams(message));
+		interceptorService.callHooks(Pointcut.SUBSCRIPTION_AFTER_DELIVERY, deliveryParams(message));
+
+		assertEquals(1, timer("subscriber.example.org:8443", "success").count());
+	}
+
+	@Test
+	void testFailedDeliveryIsTimed() {
+		ResourceDeliveryMessage message = message("https://subscriber.example.org/hook");
+
+		before(message);
+		interceptorService.callHooks(
+				Pointcut.SUBSCRIPTION_AFTER_DELIVERY_FAILED,
+				new HookParams()
+						.add(ResourceDeliveryMessage.class, message)
+						.add(Exception.class, new IllegalStateException("connection refused")));
+
+		assertEquals(1, timer("subscriber.example.org", "failure").count());
+	}
+
+	@Test
+	void testVetoedDeliveryLeavesNoStartTime() {
+		ResourceDeliveryMessage vetoed = message("https://subscriber.example.org/hook");
+		before(vetoed);
+		interceptorService.callHooks(Pointcut.SUBSCRIPTION_AFTER_DELIVERY, deliveryParams(vetoed));
+
+		// a later delivery on the same thread failing before its REST-hook delivery started
+		ResourceDeliveryMessage failed = message("https://subscriber.example.org/hook");
+		interceptorService.callHooks(
+				Pointcut.SUBSCRIPTION_AFTER_DELIVERY_FAILED,
+				new HookParams()
+						.add(ResourceDeliveryMessage.class, failed)
+						.add(Exception.class, new IllegalStateException("no payload")));
+
+		assertNull(meterRegistry.find("gematik.subscription.delivery").timer());
+	}
+
+	@Test
+	void testStartTimeOfOtherMessageIsNotRecorded() {
+		before(message("https://subscriber.example.org/hook"));
+
+		ResourceDeliveryMessage other = message("https://subscriber.example.org/hook");
+		interceptorService.callHooks(Pointcut.SUBSCRIPTION_AFTER_REST_HOOK_DELIVERY, deliveryParams(other));
+
+		assertNull(meterRegistry.find("gematik.subscription.delivery").timer());
+	}
+
+	private void before(ResourceDeliveryMessage message) {
+		assertEquals(
+				true,
+				interceptorService.callHooks(Pointcut.SUBSCRIPTION_BEFORE_REST_HOOK_DELIVERY, deliveryParams(message)));
+	}
+
+	private Timer timer(String endpoint, String outcome) {
+		return meterRegistry
+				.get("gematik.subscription.delivery")
+				.tag("endpoint", endpoint)
+				.tag("outcome", outcome)
+				.timer();
+	}
+
+	private static HookParams deliveryParams(ResourceDeliveryMessage message) {
+		return new HookParams()
+				.add(CanonicalSubscription.class, message.getSubscription())
+				.add(ResourceDeliveryMessage.class, message);
+	}
+
+	private static ResourceDeliveryMessage message(String endpoint) {
+		CanonicalSubscription subscription = new CanonicalSubscription();
+		subscription.setEndpointUrl(endpoint);
+		ResourceDeliveryMessage message = new ResourceDeliveryMessage();
+		message.setSubscription(subscription);
+		return message;
+	}
+}
@@ -0,0 +1,40 @@
+package de.gematik.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.time.Duration;
+import javax.sql.DataSource;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HeartbeatLeaseServiceTest {
+
+	private final DataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:heartbeat_lease;DB_CLOSE_DELAY=-1");
+
+	@Test
+	void testOnlyOneNodeHoldsLease() {
+		HeartbeatLeaseService node1 = new HeartbeatLeaseService(dataSource, "lease", Duration.ofMinutes(1), "node-1");
+		HeartbeatLeaseService node2 = new HeartbeatLeaseService(dataSource, "lease", Duration.ofMinutes(1), "node-2");
+		node1.init();
+		node2.init();
+
+		assertTrue(node1.isLeader());
+		assertFalse(node2.isLeader());
+
+		node1.release();
+		node2.renew();
+
+		assertFalse(node1.isLeader());
+		assertTrue(node2.isLeader());
+	}
+
+	@Test
+	void testLocalModeIsAlwaysLeader() {
+		HeartbeatLeaseService node = new HeartbeatLeaseService(dataSource, "local", Duration.ofMinutes(1), "node-1");
+		node.init();
+
+		assertTrue(node.isLeader());
+	}
+}
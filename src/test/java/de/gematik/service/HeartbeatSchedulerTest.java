@@ -0,0 +1,58 @@
+package de.gematik.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HeartbeatSchedulerTest {
+
+	private final HeartbeatScheduler scheduler = new HeartbeatScheduler();
+
+	@AfterEach
+	void tearDown() {
+		scheduler.destroy();
+	}
+
+	@Test
+	void testFiresAtSubMinutePeriod() {
+		List<HeartbeatScheduler.Deadline> fired = new CopyOnWriteArrayList<>();
+		scheduler.schedule("Subscription/1", "http://topic", 1, Instant.now(), fired::add);
+
+		await().atMost(Duration.ofSeconds(5)).until(() -> fired.size() >= 2);
+
+		Duration gap = Duration.between(fired.get(0).due(), fired.get(1).due());
+		assertEquals(Duration.ofSeconds(1), gap);
+	}
+
+	@Test
+	void testUnchangedScheduleIsKept() {
+		Instant due = Instant.now().plusSeconds(3600);
+		scheduler.schedule("Subscription/1", "http://topic", 60, due, d -> {});
+		scheduler.schedule("Subscription/1", "http://topic", 60, Instant.now(), d -> {});
+
+		assertEquals(due, scheduler.pending().iterator().next().due());
+	}
+
+	@Test
+	void testRetainAllCancelsInactive() {
+		List<HeartbeatScheduler.Deadline> fired = new CopyOnWriteArrayList<>();
+		Instant due = Instant.now().plusMillis(500);
+		scheduler.schedule("Subscription/1", "http://topic", 60, due, fired::add);
+		scheduler.schedule("Subscription/2", "http://topic", 60, due, fired::add);
+
+		scheduler.retainAll(Set.of("Subscription/2"));
+
+		await().atMost(Duration.ofSeconds(5)).until(() -> !fired.isEmpty());
+		assertEquals(1, scheduler.pending().size());
+		assertTrue(fired.stream().allMatch(d -> d.subscriptionId().equals("Subscription/2")));
+	}
+}
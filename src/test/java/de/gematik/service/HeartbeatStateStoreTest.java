@@ -0,0 +1,35 @@
+package de.gematik.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class HeartbeatStateStoreTest {
+
+	@Test
+	void testStateSurvivesNewStoreInstance() {
+		DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:heartbeat_state;DB_CLOSE_DELAY=-1");
+		Instant first = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+		Instant second = first.plusSeconds(30);
+
+		HeartbeatStateStore store = new HeartbeatStateStore(dataSource);
+		store.init();
+		store.markSent("Subscription/1", first);
+		store.markSent("Subscription/2", first);
+		store.flush();
+		store.markSent("Subscription/1", second);
+		store.forget(List.of("Subscription/2"));
+		store.flush();
+
+		HeartbeatStateStore restarted = new HeartbeatStateStore(dataSource);
+		restarted.init();
+
+		assertEquals(Map.of("Subscription/1", second), restarted.loadAll());
+	}
+}